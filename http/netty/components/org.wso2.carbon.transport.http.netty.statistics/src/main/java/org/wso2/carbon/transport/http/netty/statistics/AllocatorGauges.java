@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.statistics;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PoolChunkListMetric;
+import io.netty.buffer.PoolChunkMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.wso2.carbon.metrics.core.Level;
+import org.wso2.carbon.metrics.core.MetricService;
+import org.wso2.carbon.transport.http.netty.common.AllocatorConfiguration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Gauges reporting the arena usage of the transport ByteBuf allocator.
+ * <p>
+ * Chunk bytes is the memory reserved by the arenas, which is what has to fit into the heap or the direct memory
+ * limit. Active bytes is the part of it handed out to buffers which are not released yet. The gauges read the
+ * allocator when they are reported, hence they are zero while the allocator is unpooled.
+ */
+public class AllocatorGauges {
+
+    private AllocatorGauges() {
+    }
+
+    public static void register(MetricService metricService) {
+        register(metricService, "heap", PooledByteBufAllocator::heapArenas);
+        register(metricService, "direct", PooledByteBufAllocator::directArenas);
+    }
+
+    private static void register(MetricService metricService, String type,
+            Function<PooledByteBufAllocator, List<PoolArenaMetric>> arenas) {
+        String prefix = "gw.allocator." + type;
+        metricService.gauge(prefix + ".arenas", Level.INFO, () -> (long) getArenas(arenas).size());
+        metricService.gauge(prefix + ".active.allocations", Level.INFO,
+                () -> sum(getArenas(arenas), PoolArenaMetric::numActiveAllocations));
+        metricService.gauge(prefix + ".active.bytes", Level.INFO,
+                () -> sum(getArenas(arenas), PoolArenaMetric::numActiveBytes));
+        metricService.gauge(prefix + ".chunk.bytes", Level.INFO,
+                () -> sum(getArenas(arenas), AllocatorGauges::getChunkBytes));
+    }
+
+    private static List<PoolArenaMetric> getArenas(Function<PooledByteBufAllocator, List<PoolArenaMetric>> arenas) {
+        ByteBufAllocator allocator = AllocatorConfiguration.getAllocator();
+        return allocator instanceof PooledByteBufAllocator ?
+                arenas.apply((PooledByteBufAllocator) allocator) :
+                Collections.emptyList();
+    }
+
+    private static long getChunkBytes(PoolArenaMetric arena) {
+        long bytes = 0;
+        for (PoolChunkListMetric chunkList : arena.chunkLists()) {
+            for (PoolChunkMetric chunk : chunkList) {
+                bytes += chunk.chunkSize();
+            }
+        }
+        return bytes;
+    }
+
+    private static long sum(List<PoolArenaMetric> arenas, ToLongFunction<PoolArenaMetric> metric) {
+        long total = 0;
+        for (PoolArenaMetric arena : arenas) {
+            total += metric.applyAsLong(arena);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.statistics;
+
+import org.wso2.carbon.metrics.core.Level;
+import org.wso2.carbon.metrics.core.MetricService;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLHandshakeStatistics;
+
+/**
+ * Gauges reporting the TLS handshakes of the listeners.
+ * <p>
+ * Counts and time are totals, the mean handshake latency of a reporting interval is the difference of the time over
+ * the difference of the completed count. Active and queued handshakes show whether the handshake limit of the
+ * listeners is reached.
+ */
+public class SSLHandshakeGauges {
+
+    private static final String PREFIX = "gw.ssl.handshake";
+
+    private SSLHandshakeGauges() {
+    }
+
+    public static void register(MetricService metricService) {
+        metricService.gauge(PREFIX + ".completed", Level.INFO, SSLHandshakeStatistics::getCompletedHandshakes);
+        metricService.gauge(PREFIX + ".resumed", Level.INFO, SSLHandshakeStatistics::getResumedHandshakes);
+        metricService.gauge(PREFIX + ".failed", Level.INFO, SSLHandshakeStatistics::getFailedHandshakes);
+        metricService.gauge(PREFIX + ".rejected", Level.INFO, SSLHandshakeStatistics::getRejectedHandshakes);
+        metricService.gauge(PREFIX + ".time", Level.INFO, SSLHandshakeStatistics::getHandshakeTime);
+        metricService.gauge(PREFIX + ".active", Level.INFO, () -> (long) SSLHandshakeStatistics.getActiveHandshakes());
+        metricService.gauge(PREFIX + ".queued", Level.INFO, () -> (long) SSLHandshakeStatistics.getQueuedHandshakes());
+        metricService.gauge(PREFIX + ".resumption.ratio", Level.INFO, SSLHandshakeStatistics::getResumptionRatio);
+    }
+}
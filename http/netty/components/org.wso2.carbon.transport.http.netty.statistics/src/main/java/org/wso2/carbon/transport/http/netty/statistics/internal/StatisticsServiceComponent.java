@@ -30,6 +30,8 @@ import org.wso2.carbon.metrics.core.MetricManagementService;
 import org.wso2.carbon.metrics.core.MetricService;
 import org.wso2.carbon.transport.http.netty.config.TransportProperty;
 import org.wso2.carbon.transport.http.netty.config.YAMLTransportConfigurationBuilder;
+import org.wso2.carbon.transport.http.netty.statistics.AllocatorGauges;
+import org.wso2.carbon.transport.http.netty.statistics.SSLHandshakeGauges;
 import org.wso2.carbon.transport.http.netty.statistics.StatisticsHandler;
 import org.wso2.carbon.transport.http.netty.statistics.TimerHolder;
 
@@ -96,6 +98,8 @@ public class StatisticsServiceComponent {
     @Activate
     public void activate(BundleContext bundleContext) {
         if (getMetricsStatus()) {
+            AllocatorGauges.register(DataHolder.getInstance().getMetricService());
+            SSLHandshakeGauges.register(DataHolder.getInstance().getMetricService());
             bundleContext
                     .registerService(MessagingHandler.class, new StatisticsHandler(TimerHolder.getInstance()), null);
         }
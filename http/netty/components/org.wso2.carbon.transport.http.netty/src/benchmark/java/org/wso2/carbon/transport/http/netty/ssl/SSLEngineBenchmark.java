@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.ssl;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLConfig;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLHandlerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Compares the TLS providers selectable through {@link SSLConfig#setSslProvider(String)} by handshakes per second and
+ * by the throughput of encrypting and decrypting application data. Engines talk to each other in memory, so only
+ * the cost of TLS is measured.
+ * <p>
+ * Kept out of the test sources, so it is neither compiled nor run by the regular build. Run it with
+ * {@code mvn -Pbenchmark verify}, which puts netty-tcnative on the class path. The seconds each measurement runs and
+ * the size of the application data records may be passed through {@code -Dbenchmark.args="10 16384"}.
+ */
+public class SSLEngineBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(SSLEngineBenchmark.class);
+
+    private static final String PASSWORD = "wso2carbon";
+
+    public static void main(String[] args) throws Exception {
+        long durationMillis = TimeUnit.SECONDS.toMillis(args.length > 0 ? Integer.parseInt(args[0]) : 10);
+        int recordSize = args.length > 1 ? Integer.parseInt(args[1]) : 16 * 1024;
+
+        SelfSignedCertificate certificate = new SelfSignedCertificate("localhost");
+        File keyStore = File.createTempFile("benchmark-keystore", ".jks");
+        File trustStore = File.createTempFile("benchmark-truststore", ".jks");
+        try {
+            writeKeyStores(certificate, keyStore, trustStore);
+            for (String provider : new String[] { Constants.SSL_PROVIDER_JDK, Constants.SSL_PROVIDER_OPENSSL }) {
+                SSLHandlerFactory server = new SSLHandlerFactory(serverConfig(keyStore, provider));
+                SSLHandlerFactory client = new SSLHandlerFactory(clientConfig(keyStore, trustStore, provider));
+
+                // Warm up before measuring
+                measureHandshakes(server, client, durationMillis / 2);
+                double handshakes = measureHandshakes(server, client, durationMillis);
+                double throughput = measureThroughput(server, client, recordSize, durationMillis);
+                log.info(String.format("%-8s %10.1f handshakes/s %10.1f MB/s", provider, handshakes,
+                        throughput / (1024 * 1024)));
+            }
+        } finally {
+            certificate.delete();
+            keyStore.delete();
+            trustStore.delete();
+        }
+    }
+
+    private static SSLConfig serverConfig(File keyStore, String provider) {
+        SSLConfig sslConfig = new SSLConfig(keyStore, PASSWORD).setCertPass(PASSWORD);
+        sslConfig.setSslProvider(provider);
+        return sslConfig;
+    }
+
+    private static SSLConfig clientConfig(File keyStore, File trustStore, String provider) {
+        SSLConfig sslConfig = new SSLConfig(keyStore, PASSWORD).setCertPass(PASSWORD).setTrustStore(trustStore)
+                .setTrustStorePass(PASSWORD);
+        sslConfig.setClientMode(true);
+        sslConfig.setSslProvider(provider);
+        return sslConfig;
+    }
+
+    private static double measureHandshakes(SSLHandlerFactory server, SSLHandlerFactory client, long durationMillis)
+            throws SSLException {
+        long count = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long now;
+        do {
+            SSLEngine serverEngine = server.create(ByteBufAllocator.DEFAULT).engine();
+            SSLEngine clientEngine = client.create(ByteBufAllocator.DEFAULT).engine();
+            try {
+                handshake(clientEngine, serverEngine);
+            } finally {
+                ReferenceCountUtil.release(serverEngine);
+                ReferenceCountUtil.release(clientEngine);
+            }
+            count++;
+            now = System.nanoTime();
+        } while (now < end);
+        return count / ((now - start) / 1e9);
+    }
+
+    private static double measureThroughput(SSLHandlerFactory server, SSLHandlerFactory client, int recordSize,
+            long durationMillis) throws SSLException {
+        SSLEngine serverEngine = server.create(ByteBufAllocator.DEFAULT).engine();
+        SSLEngine clientEngine = client.create(ByteBufAllocator.DEFAULT).engine();
+        try {
+            handshake(clientEngine, serverEngine);
+            ByteBuffer data = ByteBuffer.allocateDirect(recordSize);
+            ByteBuffer net = ByteBuffer.allocateDirect(clientEngine.getSession().getPacketBufferSize() * 2);
+            ByteBuffer app = ByteBuffer.allocateDirect(serverEngine.getSession().getApplicationBufferSize()
+                    + recordSize);
+            long bytes = 0;
+            long start = System.nanoTime();
+            long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            long now;
+            do {
+                data.clear();
+                while (data.hasRemaining()) {
+                    net.clear();
+                    clientEngine.wrap(data, net);
+                    net.flip();
+                    while (net.hasRemaining()) {
+                        app.clear();
+                        if (serverEngine.unwrap(net, app).bytesProduced() == 0) {
+                            break;
+                        }
+                    }
+                }
+                bytes += recordSize;
+                now = System.nanoTime();
+            } while (now < end);
+            return bytes / ((now - start) / 1e9);
+        } finally {
+            ReferenceCountUtil.release(serverEngine);
+            ReferenceCountUtil.release(clientEngine);
+        }
+    }
+
+    private static void handshake(SSLEngine clientEngine, SSLEngine serverEngine) throws SSLException {
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer clientToServer = ByteBuffer.allocateDirect(clientEngine.getSession().getPacketBufferSize());
+        ByteBuffer serverToClient = ByteBuffer.allocateDirect(serverEngine.getSession().getPacketBufferSize());
+        ByteBuffer clientApp = ByteBuffer.allocateDirect(clientEngine.getSession().getApplicationBufferSize());
+        ByteBuffer serverApp = ByteBuffer.allocateDirect(serverEngine.getSession().getApplicationBufferSize());
+
+        clientEngine.beginHandshake();
+        serverEngine.beginHandshake();
+        for (int i = 0; i < 100; i++) {
+            step(clientEngine.wrap(empty, clientToServer), clientEngine);
+            step(serverEngine.wrap(empty, serverToClient), serverEngine);
+            clientToServer.flip();
+            serverToClient.flip();
+            step(clientEngine.unwrap(serverToClient, clientApp), clientEngine);
+            step(serverEngine.unwrap(clientToServer, serverApp), serverEngine);
+            clientToServer.compact();
+            serverToClient.compact();
+            if (isHandshakeDone(clientEngine) && isHandshakeDone(serverEngine)) {
+                return;
+            }
+        }
+        throw new SSLException("Handshake did not complete");
+    }
+
+    private static void step(SSLEngineResult result, SSLEngine engine) {
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static boolean isHandshakeDone(SSLEngine engine) {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                || status == SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    private static void writeKeyStores(SelfSignedCertificate certificate, File keyStoreFile, File trustStoreFile)
+            throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("localhost", certificate.key(), PASSWORD.toCharArray(),
+                new Certificate[] { certificate.cert() });
+        try (OutputStream out = new FileOutputStream(keyStoreFile)) {
+            keyStore.store(out, PASSWORD.toCharArray());
+        }
+
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("localhost", certificate.cert());
+        try (OutputStream out = new FileOutputStream(trustStoreFile)) {
+            trustStore.store(out, PASSWORD.toCharArray());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.config.TransportProperty;
+
+import java.util.Set;
+
+/**
+ * ByteBuf allocator shared by the listener and sender channels and by the message write paths.
+ * <p>
+ * The allocator is created once from the transport properties of whichever of the listener or the sender starts
+ * first, so both sides allocate from the same arenas. Until then {@link #getAllocator()} provides Netty's default.
+ */
+public class AllocatorConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(AllocatorConfiguration.class);
+
+    private static volatile AllocatorConfiguration allocatorConfiguration;
+
+    private boolean pooled = true;
+
+    private boolean preferDirect = PlatformDependent.directBufferPreferred();
+
+    private int heapArenas = PooledByteBufAllocator.defaultNumHeapArena();
+
+    private int directArenas = PooledByteBufAllocator.defaultNumDirectArena();
+
+    private int pageSize = PooledByteBufAllocator.defaultPageSize();
+
+    private int chunkSize = PooledByteBufAllocator.defaultPageSize() << PooledByteBufAllocator.defaultMaxOrder();
+
+    private final ByteBufAllocator allocator;
+
+    private AllocatorConfiguration(Set<TransportProperty> transportProperties) {
+        if (transportProperties != null) {
+            for (TransportProperty property : transportProperties) {
+                if (Constants.ALLOCATOR_POOLED.equals(property.getName())) {
+                    pooled = (Boolean) property.getValue();
+                } else if (Constants.ALLOCATOR_PREFER_DIRECT.equals(property.getName())) {
+                    preferDirect = (Boolean) property.getValue();
+                } else if (Constants.ALLOCATOR_HEAP_ARENAS.equals(property.getName())) {
+                    heapArenas = (Integer) property.getValue();
+                } else if (Constants.ALLOCATOR_DIRECT_ARENAS.equals(property.getName())) {
+                    directArenas = (Integer) property.getValue();
+                } else if (Constants.ALLOCATOR_PAGE_SIZE.equals(property.getName())) {
+                    pageSize = (Integer) property.getValue();
+                } else if (Constants.ALLOCATOR_CHUNK_SIZE.equals(property.getName())) {
+                    chunkSize = (Integer) property.getValue();
+                }
+            }
+        }
+        if (pooled) {
+            int maxOrder = getMaxOrder(pageSize, chunkSize);
+            if (maxOrder < 0) {
+                log.warn("Allocator chunk size " + chunkSize + " is not a power of two multiple of the page size "
+                        + pageSize + ", using the default page and chunk sizes");
+                pageSize = PooledByteBufAllocator.defaultPageSize();
+                maxOrder = PooledByteBufAllocator.defaultMaxOrder();
+                chunkSize = pageSize << maxOrder;
+            }
+            allocator = new PooledByteBufAllocator(preferDirect, heapArenas, directArenas, pageSize, maxOrder);
+        } else {
+            allocator = new UnpooledByteBufAllocator(preferDirect);
+        }
+        log.debug(Constants.ALLOCATOR_POOLED + ": " + pooled);
+        log.debug(Constants.ALLOCATOR_PREFER_DIRECT + ": " + preferDirect);
+        log.debug(Constants.ALLOCATOR_HEAP_ARENAS + ": " + heapArenas);
+        log.debug(Constants.ALLOCATOR_DIRECT_ARENAS + ": " + directArenas);
+        log.debug(Constants.ALLOCATOR_PAGE_SIZE + ": " + pageSize);
+        log.debug(Constants.ALLOCATOR_CHUNK_SIZE + ": " + chunkSize);
+    }
+
+    /**
+     * @return max order of the pool which gives the chunk size, or -1 if the chunk size is not reachable
+     */
+    private static int getMaxOrder(int pageSize, int chunkSize) {
+        if (pageSize <= 0 || chunkSize < pageSize || chunkSize % pageSize != 0) {
+            return -1;
+        }
+        int pages = chunkSize / pageSize;
+        if ((pages & (pages - 1)) != 0) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(pages);
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    public boolean isPreferDirect() {
+        return preferDirect;
+    }
+
+    public int getHeapArenas() {
+        return heapArenas;
+    }
+
+    public int getDirectArenas() {
+        return directArenas;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public static AllocatorConfiguration getInstance() {
+        return allocatorConfiguration;
+    }
+
+    /**
+     * @return the configured allocator, or Netty's default allocator if the transport has not been configured yet
+     */
+    public static ByteBufAllocator getAllocator() {
+        AllocatorConfiguration configuration = allocatorConfiguration;
+        return configuration != null ? configuration.allocator : ByteBufAllocator.DEFAULT;
+    }
+
+    /**
+     * Create the shared allocator from the transport properties, unless it is already created.
+     *
+     * @param transportProperties transport properties
+     */
+    public static void createAllocatorConfiguration(Set<TransportProperty> transportProperties) {
+        synchronized (AllocatorConfiguration.class) {
+            if (allocatorConfiguration == null) {
+                allocatorConfiguration = new AllocatorConfiguration(transportProperties);
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.Http2ConnectionDecoder;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.messaging.DefaultCarbonMessage;
+import org.wso2.carbon.messaging.Writer;
+import org.wso2.carbon.transport.http.netty.message.ChannelContentWriter;
+import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
+import org.wso2.carbon.transport.http.netty.message.Http2ContentWriter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Base of the handlers of HTTP/2 connections, writes carbon messages to the streams of a connection.
+ * <p>
+ * Frames are only written from the event loop of the connection. Content of a stream is written while both the
+ * connection and the flow control window of the stream accept more data. Writers of blocked streams are resumed once
+ * the peer updates the window or the connection becomes writable again.
+ */
+public abstract class BaseHttp2ConnectionHandler extends Http2ConnectionHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(BaseHttp2ConnectionHandler.class);
+
+    // Only accessed from the event loop of the connection
+    private final IntObjectMap<ChannelContentWriter> writers = new IntObjectHashMap<>();
+
+    protected ChannelHandlerContext ctx;
+
+    protected BaseHttp2ConnectionHandler(Http2ConnectionDecoder decoder, Http2ConnectionEncoder encoder,
+            Http2Settings initialSettings) {
+        super(decoder, encoder, initialSettings);
+        // Streams blocked by their flow control window resume once the peer updates the window
+        encoder.flowController().listener(stream -> resume(stream.id()));
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        super.handlerAdded(ctx);
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        super.channelWritabilityChanged(ctx);
+        if (ctx.channel().isWritable()) {
+            // Writers complete and unregister while being resumed
+            for (ChannelContentWriter writer : new ArrayList<>(writers.values())) {
+                writer.resume();
+            }
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        writers.clear();
+        super.channelInactive(ctx);
+    }
+
+    public Channel getChannel() {
+        return ctx.channel();
+    }
+
+    /**
+     * Run a task on the event loop of the connection, which every write to a stream has to be made from. Tasks
+     * submitted from the same thread run in order.
+     *
+     * @param task task to run
+     */
+    public void execute(Runnable task) {
+        if (ctx.executor().inEventLoop()) {
+            task.run();
+        } else {
+            ctx.executor().execute(task);
+        }
+    }
+
+    public ChannelFuture writeHeaders(int streamId, Http2Headers headers, boolean endOfStream) {
+        return encoder().writeHeaders(ctx, streamId, headers, 0, endOfStream, ctx.newPromise());
+    }
+
+    public ChannelFuture writeData(int streamId, ByteBuf data, boolean endOfStream) {
+        return encoder().writeData(ctx, streamId, data, 0, endOfStream, ctx.newPromise());
+    }
+
+    /**
+     * Reset a stream whose message is not going to be written in full, leaving the other streams of the connection
+     * as they are. Only called from the event loop of the connection.
+     *
+     * @param streamId stream to reset
+     */
+    public void cancelStream(int streamId) {
+        resetStream(ctx, streamId, Http2Error.CANCEL.code(), ctx.newPromise());
+        flushStreams();
+    }
+
+    /**
+     * Flush the frames which fit into the flow control windows of their streams.
+     */
+    public void flushStreams() {
+        try {
+            flush(ctx);
+        } catch (Http2Exception e) {
+            log.error("Error while flushing HTTP/2 frames, closing the connection", e);
+            ctx.close();
+        }
+    }
+
+    /**
+     * Hand bytes of a stream consumed by the application back to the flow control window of the stream, so that the
+     * peer may send more on it. Data frames are not acknowledged when read, hence a stream whose content is not
+     * consumed stops receiving without holding up the other streams of the connection. May be called from any thread.
+     *
+     * @param streamId stream the content was read from
+     * @param bytes    bytes consumed
+     */
+    public void consumeBytes(int streamId, int bytes) {
+        execute(() -> {
+            // Bytes of closed streams are returned to the connection window by the codec
+            Http2Stream stream = connection().stream(streamId);
+            if (stream == null) {
+                return;
+            }
+            try {
+                if (decoder().flowController().consumeBytes(stream, bytes)) {
+                    flushStreams();
+                }
+            } catch (Http2Exception e) {
+                log.error("Error while updating the flow control window of stream " + streamId
+                        + ", closing the connection", e);
+                ctx.close();
+            }
+        });
+    }
+
+    /**
+     * @param streamId stream to check
+     * @return whether both the connection and the flow control window of the stream accept more data. Writes to a
+     * closed stream fail without buffering, so the content of a reset stream is drained rather than held.
+     */
+    public boolean isWritable(int streamId) {
+        Http2Stream stream = connection().stream(streamId);
+        return ctx.channel().isWritable() && (stream == null || encoder().flowController().isWritable(stream));
+    }
+
+    public void addWriter(int streamId, ChannelContentWriter writer) {
+        writers.put(streamId, writer);
+    }
+
+    public void removeWriter(int streamId, ChannelContentWriter writer) {
+        if (writers.get(streamId) == writer) {
+            writers.remove(streamId);
+        }
+    }
+
+    /**
+     * Write the content of a carbon message to a stream. The headers of the stream must have been written or
+     * submitted through {@link #execute(Runnable)} from the calling thread beforehand.
+     * <p>
+     * Content of a {@link HTTPCarbonMessage} is written from the event loop as it arrives. Content of a
+     * {@link DefaultCarbonMessage} is read by the calling thread, which waits for the rest of the message.
+     *
+     * @param streamId   stream to write to
+     * @param cMsg       message whose content is written
+     * @param onComplete invoked once the end of the message is handed to the connection
+     */
+    public void writeContent(int streamId, CarbonMessage cMsg, Runnable onComplete) {
+        if (!cMsg.isBufferContent()) {
+            cMsg.setWriter(new StreamWriter(streamId, onComplete));
+        } else if (cMsg instanceof HTTPCarbonMessage) {
+            execute(() -> new Http2ContentWriter(this, streamId, (HTTPCarbonMessage) cMsg,
+                    future -> onComplete.run()).start());
+        } else if (cMsg instanceof DefaultCarbonMessage) {
+            DefaultCarbonMessage defaultCMsg = (DefaultCarbonMessage) cMsg;
+            while (true) {
+                ByteBuf data = Util.copiedBuffer(getChannel().alloc(), defaultCMsg.getMessageBody());
+                boolean endOfStream = defaultCMsg.isEndOfMsgAdded() && defaultCMsg.isEmpty();
+                execute(() -> {
+                    writeData(streamId, data, endOfStream);
+                    if (endOfStream) {
+                        flushStreams();
+                    }
+                });
+                if (endOfStream) {
+                    onComplete.run();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void resume(int streamId) {
+        ChannelContentWriter writer = writers.get(streamId);
+        if (writer != null) {
+            writer.resume();
+        }
+    }
+
+    /**
+     * Writes content pushed by a processor to a stream.
+     */
+    private class StreamWriter implements Writer {
+
+        private final int streamId;
+        private final Runnable onComplete;
+
+        private StreamWriter(int streamId, Runnable onComplete) {
+            this.streamId = streamId;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public void write(ByteBuffer byteBuffer) {
+            ByteBuf data = Util.copiedBuffer(getChannel().alloc(), byteBuffer);
+            execute(() -> writeData(streamId, data, false));
+        }
+
+        @Override
+        public void writeLastContent(CarbonMessage carbonMessage) {
+            execute(() -> {
+                writeData(streamId, Unpooled.EMPTY_BUFFER, true);
+                flushStreams();
+            });
+            onComplete.run();
+        }
+    }
+}
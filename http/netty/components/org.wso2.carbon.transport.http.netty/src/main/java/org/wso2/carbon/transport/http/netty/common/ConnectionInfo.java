@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common;
+
+import io.netty.channel.Channel;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Local and remote address details of a connection, computed once when the connection becomes active.
+ * <p>
+ * Host names are taken with {@link InetSocketAddress#getHostString()}, which never triggers a reverse DNS lookup.
+ * When a {@link HostNameResolver} is configured, the remote host name is taken from its cache once resolved.
+ */
+public class ConnectionInfo {
+
+    private final InetSocketAddress localAddress;
+    private final InetSocketAddress remoteAddress;
+    private final String localHost;
+    private volatile String remoteHost;
+    private volatile boolean remoteHostResolved;
+
+    public ConnectionInfo(Channel channel) {
+        this.localAddress = (InetSocketAddress) channel.localAddress();
+        this.remoteAddress = (InetSocketAddress) channel.remoteAddress();
+        this.localHost = localAddress.getHostString();
+        this.remoteHost = remoteAddress.getHostString();
+        this.remoteHostResolved = HostNameResolver.getInstance() == null || remoteAddress.getAddress() == null;
+        // Starts the reverse lookup early, if enabled
+        getRemoteHost();
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public String getLocalHost() {
+        return localHost;
+    }
+
+    public int getLocalPort() {
+        return localAddress.getPort();
+    }
+
+    /**
+     * @return reverse resolved host name of the peer if available, otherwise its host string
+     */
+    public String getRemoteHost() {
+        if (!remoteHostResolved) {
+            HostNameResolver resolver = HostNameResolver.getInstance();
+            String hostName = resolver != null ? resolver.getCachedHostName(remoteAddress.getAddress()) : null;
+            if (hostName != null) {
+                remoteHost = hostName;
+                remoteHostResolved = true;
+            }
+        }
+        return remoteHost;
+    }
+
+    public int getRemotePort() {
+        return remoteAddress.getPort();
+    }
+}
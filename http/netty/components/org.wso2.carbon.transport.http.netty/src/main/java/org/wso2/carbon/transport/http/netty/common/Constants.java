@@ -42,10 +42,24 @@ public final class Constants {
 
     public static final String CLINET_BOOTSTRAP_SO_TIMEOUT = "client.bootstrap.socket.timeout";
 
+    public static final String CLIENT_BOOTSTRAP_WRITE_BUFFER_HIGH_WATER_MARK =
+            "client.bootstrap.write.buffer.high.watermark";
+
+    public static final String CLIENT_BOOTSTRAP_WRITE_BUFFER_LOW_WATER_MARK =
+            "client.bootstrap.write.buffer.low.watermark";
+
+    //Use the Linux native epoll transport for sender event loops when available
+    public static final String CLIENT_BOOTSTRAP_NATIVE_TRANSPORT = "client.bootstrap.native.transport";
+
     //Server side SSL Parameters
     public static final String CLIENT_SUPPORT_CIPHERS = "client.ssl.ciphers";
     public static final String CLIENT_SUPPORT_HTTPS_PROTOCOLS = "client.ssl.http.protocols";
     public static final String CLIENT_ENABLE_SESSION_CREATION = "client.enable.session.creation";
+    public static final String CLIENT_SSL_PROVIDER = "client.ssl.provider";
+    public static final String CLIENT_SSL_SESSION_CACHE_SIZE = "client.ssl.session.cache.size";
+    public static final String CLIENT_SSL_SESSION_TIMEOUT = "client.ssl.session.timeout";
+    public static final int DEFAULT_CLIENT_SSL_SESSION_CACHE_SIZE = 1000;
+    public static final int DEFAULT_CLIENT_SSL_SESSION_TIMEOUT = 3600;
 
     // Server Bootstrap related
     public static final String SERVER_BOOTSTRAP_TCP_NO_DELY = "server.bootstrap.nodelay";
@@ -64,6 +78,18 @@ public final class Constants {
 
     public static final String SERVER_BOOTSTRAP_SO_TIMEOUT = "server.bootstrap.socket.timeout";
 
+    public static final String SERVER_BOOTSTRAP_WRITE_BUFFER_HIGH_WATER_MARK =
+            "server.bootstrap.write.buffer.high.watermark";
+
+    public static final String SERVER_BOOTSTRAP_WRITE_BUFFER_LOW_WATER_MARK =
+            "server.bootstrap.write.buffer.low.watermark";
+
+    //Use the Linux native epoll transport for listener event loops when available
+    public static final String SERVER_BOOTSTRAP_NATIVE_TRANSPORT = "server.bootstrap.native.transport";
+
+    //Number of listening sockets bound to each host and port with SO_REUSEPORT, requires the native transport
+    public static final String SERVER_BOOTSTRAP_ACCEPTOR_COUNT = "server.bootstrap.acceptor.count";
+
     // Boss group size of the server bootstrap
     public static final String SERVER_BOOTSTRAP_BOSS_GROUP_SIZE = "server.bootstrap.boss.group.size";
 
@@ -72,6 +98,19 @@ public final class Constants {
 
     public static final String LISTENER_INTERFACE_ID = "listener.interface.id";
 
+    // ByteBuf allocator shared by the listener and the sender
+    public static final String ALLOCATOR_POOLED = "allocator.pooled";
+
+    public static final String ALLOCATOR_PREFER_DIRECT = "allocator.prefer.direct";
+
+    public static final String ALLOCATOR_HEAP_ARENAS = "allocator.heap.arenas";
+
+    public static final String ALLOCATOR_DIRECT_ARENAS = "allocator.direct.arenas";
+
+    public static final String ALLOCATOR_PAGE_SIZE = "allocator.page.size";
+
+    public static final String ALLOCATOR_CHUNK_SIZE = "allocator.chunk.size";
+
     //Server side SSL Parameters
     public static final String SERVER_SUPPORT_CIPHERS = "server.ssl.ciphers";
     public static final String SERVER_SUPPORT_HTTPS_PROTOCOLS = "server.ssl.http.protocols";
@@ -79,10 +118,26 @@ public final class Constants {
     public static final String SERVER_SUPPORTED_SERVER_NAMES = "server.suported.server.names";
     public static final String SERVER_SUPPORTED_SNIMATCHERS = "server.supported.snimatchers";
     public static final String SSL_VERIFY_CLIENT = "ssl.verify.client";
+    public static final String SERVER_SSL_PROVIDER = "server.ssl.provider";
+    // Select the certificate of the key store matching the host name a client asks for through SNI
+    public static final String SERVER_SSL_SNI_CERTIFICATES = "server.ssl.sni.certificates";
+    // Handshakes a listener runs at the same time, 0 for no limit, and connections queued beyond that
+    public static final String SERVER_SSL_HANDSHAKE_MAX_ACTIVE = "server.ssl.handshake.max.active";
+    public static final String SERVER_SSL_HANDSHAKE_MAX_QUEUED = "server.ssl.handshake.max.queued";
+    public static final int DEFAULT_SERVER_SSL_HANDSHAKE_MAX_QUEUED = 1024;
+
+    // Values of the SSL provider parameters, OpenSSL falls back to the JDK if netty-tcnative is not available
+    public static final String SSL_PROVIDER_JDK = "jdk";
+    public static final String SSL_PROVIDER_OPENSSL = "openssl";
 
     public static final String IS_SECURED_CONNECTION = "IS_SECURED_CONNECTION";
 
-    // Connection Pool parameters
+    // Reverse resolution of peer host names, disabled by default
+    public static final String REVERSE_DNS_LOOKUP_ENABLED = "reverse.dns.lookup.enabled";
+
+    public static final String REVERSE_DNS_CACHE_TTL = "reverse.dns.cache.ttl";
+
+    // Connection Pool parameters, limits apply to the pool of a route on each event loop of the sender
     public static final String NUMBER_OF_POOLS = "client.connection.pool.count";
 
     public static final String MAX_ACTIVE_CONNECTIONS_PER_POOL = "client.max.active.connections.per.pool";
@@ -93,10 +148,31 @@ public final class Constants {
 
     public static final String MIN_EVICTION_IDLE_TIME = "client.min.eviction.idle.time";
 
+    // 0 fails, 1 waits for a connection to be returned and 2 opens another connection when a pool is exhausted
+    public static final String POOL_EXHAUSTED_ACTION = "client.pool.exhausted.action";
+
+    // Milliseconds to wait for a connection of an exhausted pool, 0 or less waits without a limit
+    public static final String MAX_WAIT_TIME_PER_POOL = "client.max.wait.time.per.pool";
+
     public static final String ENABLE_GLOBAL_CONNECTION_POOLING = "enable.global.client.connection.pooling";
 
     public static final String NO_THREADS_IN_EXECUTOR_SERVICE = "sender.thread.count";
 
+    public static final String MAX_HTTP2_CONNECTIONS_PER_POOL = "client.max.http2.connections.per.pool";
+
+    public static final String MAX_HTTP2_PENDING_STREAMS_PER_POOL = "client.max.http2.pending.streams.per.pool";
+
+    // Request deadlines in milliseconds, suffixed with ".<host>:<port>" to apply to a single route
+    public static final String CLIENT_REQUEST_CONNECT_TIMEOUT = "client.request.connect.timeout";
+
+    public static final String CLIENT_REQUEST_FIRST_BYTE_TIMEOUT = "client.request.first.byte.timeout";
+
+    public static final String CLIENT_REQUEST_TOTAL_TIMEOUT = "client.request.total.timeout";
+
+    // Seconds between checks of the key stores and trust stores for changes, 0 disables reloading them
+    public static final String SSL_KEYSTORE_RELOAD_INTERVAL = "ssl.keystore.reload.interval";
+    public static final int DEFAULT_SSL_KEYSTORE_RELOAD_INTERVAL = 30;
+
 
     public static final String EXECUTOR_WORKER_POOL = "executor.workerpool";
 
@@ -141,6 +217,8 @@ public final class Constants {
 
     public static final String HTTP_TRANSFER_ENCODING = "Transfer-Encoding";
 
+    public static final String CHUNKED = "chunked";
+
     public static final String HTTP_CONNECTION = "Connection";
 
     public static final String KEEP_ALIVE = "keep-alive";
@@ -159,6 +237,13 @@ public final class Constants {
 
     public static final String SRC_HNDLR = "SRC_HNDLR";
 
+    // Per request deadlines in milliseconds, overriding the configured ones
+    public static final String REQUEST_CONNECT_TIMEOUT = "REQUEST_CONNECT_TIMEOUT";
+    public static final String REQUEST_FIRST_BYTE_TIMEOUT = "REQUEST_FIRST_BYTE_TIMEOUT";
+    public static final String REQUEST_TOTAL_TIMEOUT = "REQUEST_TOTAL_TIMEOUT";
+
+    public static final String REQUEST_DEADLINE = "REQUEST_DEADLINE";
+
     //Server Connection Related Parameters
     public static final String LOCAL_ADDRESS = "LOCAL_ADDRESS";
     public static final String LOCAL_NAME = "LOCAL_NAME";
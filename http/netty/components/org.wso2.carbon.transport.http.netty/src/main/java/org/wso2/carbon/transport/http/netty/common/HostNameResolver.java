@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.config.TransportProperty;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reverse resolves host names of connection peers without blocking the caller.
+ * <p>
+ * Lookups run on a dedicated thread and their results are cached for a bounded time. Until a lookup completes the
+ * textual IP address is handed out, so IO threads never wait for DNS. Reverse resolution is only enabled when
+ * {@link Constants#REVERSE_DNS_LOOKUP_ENABLED} is set, otherwise {@link #getInstance()} returns null.
+ */
+public class HostNameResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(HostNameResolver.class);
+
+    private static volatile HostNameResolver hostNameResolver;
+
+    private static final int MAX_CACHED_ENTRIES = 10000;
+
+    private final Map<InetAddress, CachedName> cache = new ConcurrentHashMap<>();
+
+    private final long cacheTtl;
+
+    private final ExecutorService executorService;
+
+    private HostNameResolver(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+        this.executorService = Executors.newSingleThreadExecutor(new DefaultThreadFactory("netty-reverse-dns", true));
+    }
+
+    /**
+     * Provide the cached host name of an address. A lookup is started in the background when the address is not
+     * cached or the cached name has expired.
+     *
+     * @param address address to resolve
+     * @return host name if it is already known, otherwise null
+     */
+    public String getCachedHostName(InetAddress address) {
+        CachedName cachedName = cache.get(address);
+        long now = System.currentTimeMillis();
+        if (cachedName == null || cachedName.expiry <= now) {
+            lookup(address, now);
+        }
+        return cachedName != null ? cachedName.hostName : null;
+    }
+
+    private void lookup(InetAddress address, long now) {
+        if (cache.size() >= MAX_CACHED_ENTRIES) {
+            cache.entrySet().removeIf(entry -> entry.getValue().expiry <= now);
+            if (cache.size() >= MAX_CACHED_ENTRIES) {
+                return;
+            }
+        }
+        CachedName current = cache.get(address);
+        // Only one lookup per address at a time, the pending marker keeps the stale name until it is refreshed
+        CachedName pending = new CachedName(current != null ? current.hostName : null, Long.MAX_VALUE);
+        boolean owner = current == null ? cache.putIfAbsent(address, pending) == null
+                : cache.replace(address, current, pending);
+        if (owner) {
+            executorService.execute(() -> {
+                String hostName;
+                try {
+                    // A fresh InetAddress always performs the reverse lookup instead of returning a cached form
+                    hostName = InetAddress.getByAddress(address.getAddress()).getCanonicalHostName();
+                } catch (UnknownHostException e) {
+                    hostName = address.getHostAddress();
+                }
+                cache.put(address, new CachedName(hostName, System.currentTimeMillis() + cacheTtl));
+                log.debug("Resolved {} to {}", address, hostName);
+            });
+        }
+    }
+
+    public static HostNameResolver getInstance() {
+        return hostNameResolver;
+    }
+
+    /**
+     * Enable reverse resolution of host names if configured through transport properties.
+     *
+     * @param transportProperties transport properties
+     */
+    public static void createHostNameResolver(Set<TransportProperty> transportProperties) {
+        boolean enabled = false;
+        long cacheTtl = 5 * 60 * 1000L;
+        if (transportProperties != null) {
+            for (TransportProperty property : transportProperties) {
+                if (Constants.REVERSE_DNS_LOOKUP_ENABLED.equals(property.getName())) {
+                    enabled = (Boolean) property.getValue();
+                } else if (Constants.REVERSE_DNS_CACHE_TTL.equals(property.getName())) {
+                    cacheTtl = ((Number) property.getValue()).longValue();
+                }
+            }
+        }
+        synchronized (HostNameResolver.class) {
+            if (enabled && hostNameResolver == null) {
+                hostNameResolver = new HostNameResolver(cacheTtl);
+            }
+        }
+    }
+
+    private static final class CachedName {
+        private final String hostName;
+        private final long expiry;
+
+        private CachedName(String hostName, long expiry) {
+            this.hostName = hostName;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Selects between the Linux native epoll transport and NIO for event loops and channels.
+ * <p>
+ * The native transport is only used when it is requested and the native library could be loaded, otherwise NIO is
+ * used. Event loop groups and channel classes of both transports must not be mixed, hence they are always taken from
+ * here using the same flag.
+ */
+public final class NativeTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(NativeTransport.class);
+
+    private NativeTransport() {
+    }
+
+    /**
+     * Resolve whether the native transport can be used.
+     *
+     * @param requested whether the native transport is configured
+     * @param property  name of the transport property which requested it, used for logging
+     * @return true if the native transport is requested and available
+     */
+    public static boolean resolve(boolean requested, String property) {
+        if (!requested) {
+            return false;
+        }
+        try {
+            if (!Epoll.isAvailable()) {
+                log.warn("Native epoll transport requested through " + property + " is not available, falling back "
+                        + "to NIO: " + Epoll.unavailabilityCause());
+                return false;
+            }
+        } catch (NoClassDefFoundError e) {
+            // The native transport is an optional dependency, deployed on Linux only where it is wanted
+            log.warn("Native epoll transport requested through " + property + " is not deployed, falling back to "
+                    + "NIO");
+            return false;
+        }
+        log.debug("Native epoll transport enabled through " + property);
+        return true;
+    }
+
+    public static EventLoopGroup newEventLoopGroup(boolean nativeTransport, int threads) {
+        return nativeTransport ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+
+    public static EventLoopGroup newEventLoopGroup(boolean nativeTransport, int threads, ThreadFactory threadFactory) {
+        return nativeTransport ?
+                new EpollEventLoopGroup(threads, threadFactory) :
+                new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public static Class<? extends ServerChannel> getServerChannelClass(boolean nativeTransport) {
+        return nativeTransport ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static Class<? extends SocketChannel> getSocketChannelClass(boolean nativeTransport) {
+        return nativeTransport ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+}
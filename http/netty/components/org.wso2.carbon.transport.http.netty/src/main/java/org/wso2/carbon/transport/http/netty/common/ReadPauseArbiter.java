@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * Pauses reading from a channel on behalf of independent reasons, such as content queued for a slow consumer or
+ * pipelined requests awaiting their responses. Reading is resumed once every reason which paused it has resumed it,
+ * so that none of them undoes the pause of another.
+ * <p>
+ * Each reason must pair its pause with exactly one resume. Only called from the event loop of the channel.
+ */
+public final class ReadPauseArbiter {
+
+    private static final AttributeKey<ReadPauseArbiter> ARBITER = AttributeKey.valueOf("ReadPauseArbiter");
+
+    // Reasons reading from the channel is paused for
+    private int pauses;
+
+    private ReadPauseArbiter() {
+    }
+
+    /**
+     * Pause reading from a channel for one more reason.
+     *
+     * @param channel channel to stop reading from
+     */
+    public static void pause(Channel channel) {
+        if (get(channel).pauses++ == 0) {
+            channel.config().setAutoRead(false);
+        }
+    }
+
+    /**
+     * Withdraw a reason reading from a channel was paused for, reading resumes once none is left.
+     *
+     * @param channel channel to resume reading from
+     */
+    public static void resume(Channel channel) {
+        ReadPauseArbiter arbiter = get(channel);
+        if (arbiter.pauses > 0 && --arbiter.pauses == 0) {
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    private static ReadPauseArbiter get(Channel channel) {
+        Attribute<ReadPauseArbiter> attribute = channel.attr(ARBITER);
+        ReadPauseArbiter arbiter = attribute.get();
+        if (arbiter == null) {
+            arbiter = new ReadPauseArbiter();
+            attribute.set(arbiter);
+        }
+        return arbiter;
+    }
+}
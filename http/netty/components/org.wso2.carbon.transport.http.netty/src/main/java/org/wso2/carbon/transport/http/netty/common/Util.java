@@ -15,6 +15,8 @@
 
 package org.wso2.carbon.transport.http.netty.common;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.handler.codec.http.DefaultHttpRequest;
 import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -29,8 +31,10 @@ import org.wso2.carbon.messaging.Header;
 import org.wso2.carbon.messaging.Headers;
 import org.wso2.carbon.transport.http.netty.common.ssl.SSLConfig;
 import org.wso2.carbon.transport.http.netty.config.Parameter;
+import org.wso2.carbon.transport.http.netty.message.HttpHeadersView;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +49,20 @@ public class Util {
     private static final String DEFAULT_HTTP_METHOD_POST = "POST";
     private static final String DEFAULT_VERSION_HTTP_1_1 = "HTTP/1.1";
 
+    /**
+     * Copy the remaining bytes of a ByteBuffer into a buffer taken from the allocator. The position of the source
+     * buffer is left untouched.
+     *
+     * @param allocator  allocator of the channel the content is written to
+     * @param byteBuffer source content
+     * @return ByteBuf holding a copy of the content
+     */
+    public static ByteBuf copiedBuffer(ByteBufAllocator allocator, ByteBuffer byteBuffer) {
+        ByteBuf byteBuf = allocator.buffer(byteBuffer.remaining());
+        byteBuf.writeBytes(byteBuffer.duplicate());
+        return byteBuf;
+    }
+
     public static Headers getHeaders(HttpMessage message) {
         List<Header> headers = new LinkedList<>();
         if (message.headers() != null) {
@@ -55,8 +73,19 @@ public class Util {
         return new Headers(headers);
     }
 
+    /**
+     * Copy the headers of a carbon message to an outbound message, which never shares them with a received one.
+     *
+     * @param message outbound message
+     * @param headers headers of a carbon message
+     */
     public static void setHeaders(HttpMessage message, Headers headers) {
         HttpHeaders httpHeaders = message.headers();
+        if (headers instanceof HttpHeadersView) {
+            // Copied without going through carbon Header objects, the received message keeps headers of its own
+            httpHeaders.set(((HttpHeadersView) headers).getHttpHeaders());
+            return;
+        }
         for (Header header : headers.getAll()) {
             httpHeaders.add(header.getName(), header.getValue());
         }
@@ -92,9 +121,7 @@ public class Util {
 
         DefaultHttpResponse outgoingResponse = new DefaultHttpResponse(httpVersion, httpResponseStatus, false);
 
-        Headers headers = msg.getHeaders();
-
-        Util.setHeaders(outgoingResponse, headers);
+        Util.setHeaders(outgoingResponse, msg.getHeaders());
 
         return outgoingResponse;
     }
@@ -118,8 +145,7 @@ public class Util {
         }
         HttpRequest outgoingRequest = new DefaultHttpRequest(httpVersion, httpMethod,
                 (String) msg.getProperty(Constants.TO), false);
-        Headers headers = msg.getHeaders();
-        Util.setHeaders(outgoingRequest, headers);
+        Util.setHeaders(outgoingRequest, msg.getHeaders());
         return outgoingRequest;
     }
 
@@ -136,6 +162,7 @@ public class Util {
             throw new IllegalArgumentException("KeyStore File " + keyStoreFile + " not found");
         }
         SSLConfig sslConfig = new SSLConfig(keyStore, keyStorePass).setCertPass(certPass);
+        sslConfig.setHandshakeMaxQueued(Constants.DEFAULT_SERVER_SSL_HANDSHAKE_MAX_QUEUED);
         for (Parameter parameter : parametersList) {
             if (parameter.getName()
                     .equals(Constants.SERVER_SUPPORT_CIPHERS)) {
@@ -156,6 +183,18 @@ public class Util {
             } else if (parameter.getName()
                     .equals(Constants.SSL_VERIFY_CLIENT)) {
                 sslConfig.setNeedClientAuth(Boolean.parseBoolean(parameter.getValue()));
+            } else if (parameter.getName()
+                    .equals(Constants.SERVER_SSL_PROVIDER)) {
+                sslConfig.setSslProvider(parameter.getValue());
+            } else if (parameter.getName()
+                    .equals(Constants.SERVER_SSL_SNI_CERTIFICATES)) {
+                sslConfig.setSniCertificates(Boolean.parseBoolean(parameter.getValue()));
+            } else if (parameter.getName()
+                    .equals(Constants.SERVER_SSL_HANDSHAKE_MAX_ACTIVE)) {
+                sslConfig.setHandshakeMaxActive(Integer.parseInt(parameter.getValue()));
+            } else if (parameter.getName()
+                    .equals(Constants.SERVER_SSL_HANDSHAKE_MAX_QUEUED)) {
+                sslConfig.setHandshakeMaxQueued(Integer.parseInt(parameter.getValue()));
             }
         }
         if (trustStoreFile != null) {
@@ -192,6 +231,9 @@ public class Util {
 
         sslConfig.setTrustStore(trustStore).setTrustStorePass(trustStorePass);
         sslConfig.setClientMode(true);
+        // Sessions of all BEs of the sender share one cache, bounded unless configured otherwise
+        sslConfig.setSessionCacheSize(Constants.DEFAULT_CLIENT_SSL_SESSION_CACHE_SIZE);
+        sslConfig.setSessionTimeout(Constants.DEFAULT_CLIENT_SSL_SESSION_TIMEOUT);
         for (Parameter parameter : parametersList) {
             if (parameter.getName()
                     .equals(Constants.CLIENT_SUPPORT_CIPHERS)) {
@@ -203,6 +245,15 @@ public class Util {
             } else if (parameter.getName()
                     .equals(Constants.CLIENT_ENABLE_SESSION_CREATION)) {
                 sslConfig.setEnableSessionCreation(Boolean.parseBoolean(parameter.getValue()));
+            } else if (parameter.getName()
+                    .equals(Constants.CLIENT_SSL_PROVIDER)) {
+                sslConfig.setSslProvider(parameter.getValue());
+            } else if (parameter.getName()
+                    .equals(Constants.CLIENT_SSL_SESSION_CACHE_SIZE)) {
+                sslConfig.setSessionCacheSize(Integer.parseInt(parameter.getValue()));
+            } else if (parameter.getName()
+                    .equals(Constants.CLIENT_SSL_SESSION_TIMEOUT)) {
+                sslConfig.setSessionTimeout(Integer.parseInt(parameter.getValue()));
             }
         }
         return sslConfig;
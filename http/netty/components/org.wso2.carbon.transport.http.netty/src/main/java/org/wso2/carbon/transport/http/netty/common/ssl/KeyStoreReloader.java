@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common.ssl;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.config.TransportProperty;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the key stores and trust stores of the SSL configurations in use, and reloads the SSL contexts of those
+ * which changed so that certificates are rotated without rebinding listeners.
+ * <p>
+ * Contexts are rebuilt on a thread of their own and swapped in by {@link SSLHandlerFactory#reloadChangedFactories()},
+ * after which new handshakes use them. Connections already established, and the event loops, are not affected.
+ * The interval is in seconds where 0 disables reloading, the first listener or sender enabling it decides it.
+ */
+public class KeyStoreReloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyStoreReloader.class);
+
+    private static KeyStoreReloader keyStoreReloader;
+
+    private final ScheduledExecutorService scheduler;
+
+    private KeyStoreReloader(long interval) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("http-keystore-reloader",
+                true));
+        scheduler.scheduleWithFixedDelay(KeyStoreReloader::reload, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private static void reload() {
+        try {
+            SSLHandlerFactory.reloadChangedFactories();
+        } catch (RuntimeException e) {
+            // Keeps the task scheduled, which an escaping exception would cancel
+            logger.error("Failed to reload the key stores", e);
+        }
+    }
+
+    public static synchronized void createKeyStoreReloader(Set<TransportProperty> transportPropertySet) {
+        if (keyStoreReloader != null) {
+            return;
+        }
+        long interval = Constants.DEFAULT_SSL_KEYSTORE_RELOAD_INTERVAL;
+        if (transportPropertySet != null) {
+            for (TransportProperty property : transportPropertySet) {
+                if (property.getName().equals(Constants.SSL_KEYSTORE_RELOAD_INTERVAL)) {
+                    interval = ((Number) property.getValue()).longValue();
+                }
+            }
+        }
+        logger.debug(Constants.SSL_KEYSTORE_RELOAD_INTERVAL + ":" + interval);
+        if (interval > 0) {
+            keyStoreReloader = new KeyStoreReloader(interval);
+        }
+    }
+}
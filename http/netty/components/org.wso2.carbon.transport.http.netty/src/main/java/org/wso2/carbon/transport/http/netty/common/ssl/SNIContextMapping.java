@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common.ssl;
+
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.Mapping;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps the host name sent by a client through SNI to the context of its certificate.
+ * <p>
+ * Names are looked up by hash, first as they are and then as a wildcard covering the first label, so that a lookup
+ * costs the same however many certificates are served. Like certificates, a wildcard only covers a single label.
+ * Clients sending no name or an unknown name get the default context.
+ */
+class SNIContextMapping implements Mapping<String, SslContext> {
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private final Map<String, SslContext> contexts = new HashMap<>();
+    // Keyed by the domain the wildcard is for, "example.com" for "*.example.com"
+    private final Map<String, SslContext> wildcardContexts = new HashMap<>();
+    private final SslContext defaultContext;
+
+    SNIContextMapping(SslContext defaultContext) {
+        this.defaultContext = defaultContext;
+    }
+
+    /**
+     * Map a host name to a context, the first certificate added for a name wins.
+     *
+     * @param hostName   host name or wildcard of a certificate
+     * @param sslContext context of the certificate
+     */
+    void add(String hostName, SslContext sslContext) {
+        String name = hostName.toLowerCase(Locale.US);
+        if (name.startsWith(WILDCARD_PREFIX)) {
+            wildcardContexts.putIfAbsent(name.substring(WILDCARD_PREFIX.length()), sslContext);
+        } else {
+            contexts.putIfAbsent(name, sslContext);
+        }
+    }
+
+    int size() {
+        return contexts.size() + wildcardContexts.size();
+    }
+
+    @Override
+    public SslContext map(String hostName) {
+        if (hostName == null) {
+            return defaultContext;
+        }
+        String name = hostName.toLowerCase(Locale.US);
+        SslContext sslContext = contexts.get(name);
+        if (sslContext == null) {
+            int dot = name.indexOf('.');
+            if (dot > 0) {
+                sslContext = wildcardContexts.get(name.substring(dot + 1));
+            }
+        }
+        return sslContext != null ? sslContext : defaultContext;
+    }
+}
@@ -22,9 +22,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
- * A class that encapsulates SSLContext configuration.
+ * A class that encapsulates SSLContext configuration. Configurations are equal if they result in the same SSLContext,
+ * so that the context can be shared by the connections of equal configurations.
  */
 
 public class SSLConfig {
@@ -49,6 +52,18 @@ public class SSLConfig {
 
     private boolean clientMode;
 
+    private String sslProvider;
+
+    private boolean sniCertificates;
+
+    // Limits of the handshakes of a listener, not part of equality as they do not change the context
+    private int handshakeMaxActive;
+    private int handshakeMaxQueued;
+
+    // Bounds of the session cache of the context, 0 keeps the defaults of the provider
+    private int sessionCacheSize;
+    private int sessionTimeout;
+
     public SSLConfig(File keyStore, String keyStorePass) {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Using key store" + keyStore);
@@ -172,6 +187,79 @@ public class SSLConfig {
         this.cipherSuites = cipherSuites.split(separator);
     }
 
+    /**
+     * @return TLS implementation of the engines, "jdk" or "openssl", or null for the JDK
+     */
+    public String getSslProvider() {
+        return sslProvider;
+    }
+
+    public void setSslProvider(String sslProvider) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Using sslProvider" + sslProvider);
+        }
+        this.sslProvider = sslProvider;
+    }
+
+    /**
+     * @return number of sessions the context caches, 0 for the default of the provider
+     */
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    /**
+     * @return seconds a cached session may be resumed for, 0 for the default of the provider
+     */
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    /**
+     * @return true if the certificate of the key store matching the host name a client asks for through SNI is
+     * served, rather than the same one to all clients
+     */
+    public boolean isSniCertificates() {
+        return sniCertificates;
+    }
+
+    public void setSniCertificates(boolean sniCertificates) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Set SNI certificates" + sniCertificates);
+        }
+        this.sniCertificates = sniCertificates;
+    }
+
+    /**
+     * @return handshakes a listener runs at the same time, 0 for no limit
+     */
+    public int getHandshakeMaxActive() {
+        return handshakeMaxActive;
+    }
+
+    public void setHandshakeMaxActive(int handshakeMaxActive) {
+        this.handshakeMaxActive = handshakeMaxActive;
+    }
+
+    /**
+     * @return connections a listener queues once the limit of handshakes is reached
+     */
+    public int getHandshakeMaxQueued() {
+        return handshakeMaxQueued;
+    }
+
+    public void setHandshakeMaxQueued(int handshakeMaxQueued) {
+        this.handshakeMaxQueued = handshakeMaxQueued;
+    }
+
     public boolean isClientMode() {
         return clientMode;
     }
@@ -179,4 +267,36 @@ public class SSLConfig {
     public void setClientMode(boolean clientMode) {
         this.clientMode = clientMode;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SSLConfig that = (SSLConfig) o;
+        return enableSessionCreation == that.enableSessionCreation && needClientAuth == that.needClientAuth
+                && wantClientAuth == that.wantClientAuth && clientMode == that.clientMode
+                && Objects.equals(sslProvider, that.sslProvider) && sessionCacheSize == that.sessionCacheSize
+                && sessionTimeout == that.sessionTimeout && sniCertificates == that.sniCertificates
+                && Objects.equals(keyStore, that.keyStore) && Objects.equals(keyStorePass, that.keyStorePass)
+                && Objects.equals(certPass, that.certPass) && Objects.equals(trustStore, that.trustStore)
+                && Objects.equals(trustStorePass, that.trustStorePass) && Arrays.equals(cipherSuites, that.cipherSuites)
+                && Arrays.equals(enableProtocols, that.enableProtocols) && Arrays.equals(serverNames, that.serverNames)
+                && Arrays.equals(sniMatchers, that.sniMatchers);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(keyStore, keyStorePass, certPass, trustStore, trustStorePass, enableSessionCreation,
+                needClientAuth, wantClientAuth, clientMode, sslProvider, sessionCacheSize, sessionTimeout,
+                sniCertificates);
+        result = 31 * result + Arrays.hashCode(cipherSuites);
+        result = 31 * result + Arrays.hashCode(enableProtocols);
+        result = 31 * result + Arrays.hashCode(serverNames);
+        result = 31 * result + Arrays.hashCode(sniMatchers);
+        return result;
+    }
 }
@@ -18,8 +18,22 @@
  */
 package org.wso2.carbon.transport.http.netty.common.ssl;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SniHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslHandler;
-
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.util.Mapping;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.common.Constants;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -32,30 +46,82 @@ import java.security.NoSuchAlgorithmException;
 import java.security.Security;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.security.auth.x500.X500Principal;
 
 /**
  * A class that encapsulates SSL Certificate Information.
+ * <p>
+ * Loading the key stores and initializing the contexts is done once per {@link SSLConfig}, factories are shared
+ * through {@link #getInstance(SSLConfig)} and only create engines per connection. As the contexts are shared, so are
+ * their session caches, which lets sessions be resumed across connections. Client engines are created for the host
+ * and port of the BE, which is what client sessions are cached by.
+ * <p>
+ * Engines are backed by OpenSSL through netty-tcnative if the configuration asks for it and the native library is
+ * available, otherwise by the JDK.
+ * <p>
+ * A listener may serve a certificate per host name from a single port. The certificates of its key store are then
+ * mapped to their host names up front, and {@link #createSNIHandler(boolean)} picks the context of the host name the
+ * client asks for through SNI, so a handshake costs the same however many certificates are served.
+ * <p>
+ * Factories whose key store or trust store changed are rebuilt and replace the shared ones, see
+ * {@link KeyStoreReloader}. Handlers already created keep the contexts they were created from.
  */
 public class SSLHandlerFactory {
 
+    private static final Logger log = LoggerFactory.getLogger(SSLHandlerFactory.class);
+
     private static final String protocol = "TLS";
+
+    // Type of subject alternative names holding a DNS name
+    private static final int DNS_NAME = 2;
+
+    private static final ConcurrentMap<SSLConfig, SSLHandlerFactory> factories = new ConcurrentHashMap<>();
+
+    // Last modified times and lengths of the key store and trust store, taken before loading them
+    private final List<Long> storeStamps;
+    // Stamps of stores which failed to load, so that a broken store is only reported once
+    private volatile List<Long> failedStoreStamps;
     private final SSLContext serverContext;
+    private final SslProvider sslProvider;
+    // Context of the engines of HTTP/1.1 connections if they are backed by OpenSSL
+    private SslContext openSslContext;
     private SSLConfig sslConfig;
     private boolean needClientAuth;
+    private KeyManagerFactory keyManagerFactory;
+    private TrustManagerFactory trustManagerFactory;
+    // ALPN contexts are built on first use, a race only builds one more which is dropped
+    private volatile SslContext http2ServerContext;
+    private volatile SslContext http2ClientContext;
+    // Contexts of the certificates by their host names, if they are selected through SNI
+    private Mapping<String, SslContext> sniContexts;
+    private volatile Mapping<String, SslContext> http2SNIContexts;
 
 
     public SSLHandlerFactory(SSLConfig sslConfig) {
         this.sslConfig = sslConfig;
+        this.storeStamps = getStoreStamps(sslConfig);
+        this.sslProvider = getSslProvider(sslConfig);
         String algorithm = Security.getProperty("ssl.KeyManagerFactory.algorithm");
         if (algorithm == null) {
             algorithm = "SunX509";
@@ -64,9 +130,9 @@ public class SSLHandlerFactory {
             KeyStore ks = getKeyStore(sslConfig.getKeyStore(), sslConfig.getKeyStorePass());
             // Set up key manager factory to use our key store
             KeyManagerFactory kmf = KeyManagerFactory.getInstance(algorithm);
-            kmf.init(ks, sslConfig.getCertPass() != null ?
-                    sslConfig.getCertPass().toCharArray() :
-                    sslConfig.getKeyStorePass().toCharArray());
+            keyManagerFactory = kmf;
+            char[] certPass = getCertPass();
+            kmf.init(ks, certPass);
             KeyManager[] keyManagers = kmf.getKeyManagers();
             TrustManager[] trustManagers = null;
             if (sslConfig.getTrustStore() != null) {
@@ -74,16 +140,117 @@ public class SSLHandlerFactory {
                 KeyStore tks = getKeyStore(sslConfig.getTrustStore(), sslConfig.getTrustStorePass());
                 TrustManagerFactory tmf = TrustManagerFactory.getInstance(algorithm);
                 tmf.init(tks);
+                trustManagerFactory = tmf;
                 trustManagers = tmf.getTrustManagers();
             }
             serverContext = SSLContext.getInstance(protocol);
             serverContext.init(keyManagers, trustManagers, null);
-        } catch (UnrecoverableKeyException | KeyManagementException |
-                NoSuchAlgorithmException | KeyStoreException | IOException e) {
+            SSLSessionContext sessionContext = sslConfig.isClientMode() ? serverContext.getClientSessionContext()
+                    : serverContext.getServerSessionContext();
+            if (sslConfig.getSessionCacheSize() > 0) {
+                sessionContext.setSessionCacheSize(sslConfig.getSessionCacheSize());
+            }
+            if (sslConfig.getSessionTimeout() > 0) {
+                sessionContext.setSessionTimeout(sslConfig.getSessionTimeout());
+            }
+            if (sslProvider == SslProvider.OPENSSL) {
+                SslContextBuilder sslContextBuilder = sslConfig.isClientMode()
+                        ? SslContextBuilder.forClient().keyManager(keyManagerFactory)
+                        : SslContextBuilder.forServer(keyManagerFactory)
+                                .clientAuth(needClientAuth ? ClientAuth.REQUIRE : ClientAuth.NONE);
+                boolean ciphersConfigured = sslConfig.getCipherSuites() != null
+                        && sslConfig.getCipherSuites().length > 0;
+                openSslContext = sslContextBuilder
+                        .trustManager(trustManagerFactory)
+                        .sslProvider(sslProvider)
+                        .sessionCacheSize(sslConfig.getSessionCacheSize())
+                        .sessionTimeout(sslConfig.getSessionTimeout())
+                        .ciphers(ciphersConfigured ? Arrays.asList(sslConfig.getCipherSuites()) : null,
+                                SupportedCipherSuiteFilter.INSTANCE)
+                        .build();
+            }
+            if (sslConfig.isSniCertificates() && !sslConfig.isClientMode()) {
+                sniContexts = createSNIMapping(ks, certPass, null);
+            }
+        } catch (UnrecoverableKeyException | KeyManagementException | NoSuchAlgorithmException |
+                KeyStoreException | CertificateException | IOException e) {
             throw new IllegalArgumentException("Failed to initialize the server-side SSLContext", e);
         }
     }
 
+    /**
+     * Provide the factory shared by the connections of a configuration, building it on first use.
+     *
+     * @param sslConfig SSL configuration of a listener or a sender
+     * @return SSLHandlerFactory of the configuration
+     */
+    public static SSLHandlerFactory getInstance(SSLConfig sslConfig) {
+        return factories.computeIfAbsent(sslConfig, SSLHandlerFactory::new);
+    }
+
+    /**
+     * Drop the factory of a configuration which is no longer used, so that its key stores are loaded again if the
+     * configuration is used later on.
+     *
+     * @param sslConfig SSL configuration of a listener or a sender
+     */
+    public static void evict(SSLConfig sslConfig) {
+        factories.remove(sslConfig);
+    }
+
+    /**
+     * Rebuild the factories whose key store or trust store changed since they were loaded, and swap them in for
+     * the handlers created from now on. A store which fails to load, for instance as it is still being written,
+     * leaves the factory in place and is tried again once it changes.
+     */
+    static void reloadChangedFactories() {
+        for (Map.Entry<SSLConfig, SSLHandlerFactory> entry : factories.entrySet()) {
+            SSLConfig sslConfig = entry.getKey();
+            SSLHandlerFactory factory = entry.getValue();
+            List<Long> storeStamps = getStoreStamps(sslConfig);
+            if (storeStamps.equals(factory.storeStamps) || storeStamps.equals(factory.failedStoreStamps)) {
+                continue;
+            }
+            SSLHandlerFactory reloaded;
+            try {
+                reloaded = new SSLHandlerFactory(sslConfig);
+            } catch (IllegalArgumentException e) {
+                factory.failedStoreStamps = storeStamps;
+                log.warn("Failed to reload key store " + sslConfig.getKeyStore() + ", keeping the loaded one", e);
+                continue;
+            }
+            // Not swapped in if the factory was evicted or replaced meanwhile
+            if (factories.replace(sslConfig, factory, reloaded)) {
+                log.info("Reloaded key store " + sslConfig.getKeyStore() + " and trust store "
+                        + sslConfig.getTrustStore());
+            }
+        }
+    }
+
+    private static List<Long> getStoreStamps(SSLConfig sslConfig) {
+        File keyStore = sslConfig.getKeyStore();
+        File trustStore = sslConfig.getTrustStore();
+        return Arrays.asList(keyStore != null ? keyStore.lastModified() : 0L, keyStore != null ? keyStore.length() : 0L,
+                trustStore != null ? trustStore.lastModified() : 0L, trustStore != null ? trustStore.length() : 0L);
+    }
+
+    private static SslProvider getSslProvider(SSLConfig sslConfig) {
+        if (!Constants.SSL_PROVIDER_OPENSSL.equalsIgnoreCase(sslConfig.getSslProvider())) {
+            return SslProvider.JDK;
+        }
+        if (OpenSsl.isAvailable()) {
+            log.debug("Using OpenSSL {} for TLS", OpenSsl.versionString());
+            return SslProvider.OPENSSL;
+        }
+        log.warn("OpenSSL is not available, falling back to the JDK for TLS", OpenSsl.unavailabilityCause());
+        return SslProvider.JDK;
+    }
+
+    private char[] getCertPass() {
+        return sslConfig.getCertPass() != null ? sslConfig.getCertPass().toCharArray()
+                : sslConfig.getKeyStorePass().toCharArray();
+    }
+
     private static KeyStore getKeyStore(File keyStore, String keyStorePassword) throws IOException {
         KeyStore ks;
         try (InputStream is = new FileInputStream(keyStore)) {
@@ -99,15 +266,238 @@ public class SSLHandlerFactory {
      * @return instance of {@code SslHandler}
      */
     public SslHandler create() {
-        SSLEngine engine = serverContext.createSSLEngine();
+        return create(ByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * @param allocator allocator of the channel, used for the buffers of OpenSSL engines
+     * @return instance of {@code SslHandler}
+     */
+    public SslHandler create(ByteBufAllocator allocator) {
+        return create(allocator, null, -1);
+    }
+
+    /**
+     * Create a handler for a connection to a BE. Sessions of the BE are cached by its host and port, hence later
+     * connections to it resume the session with an abbreviated handshake.
+     *
+     * @param allocator allocator of the channel, used for the buffers of OpenSSL engines
+     * @param peerHost  host of the BE, or null if not known
+     * @param peerPort  port of the BE
+     * @return instance of {@code SslHandler}
+     */
+    public SslHandler create(ByteBufAllocator allocator, String peerHost, int peerPort) {
+        if (openSslContext != null) {
+            SslHandler sslHandler = newHandler(openSslContext, allocator, peerHost, peerPort);
+            configureEngine(sslHandler.engine());
+            return sslHandler;
+        }
+        SSLEngine engine = peerHost != null ? serverContext.createSSLEngine(peerHost, peerPort)
+                : serverContext.createSSLEngine();
         engine.setNeedClientAuth(needClientAuth);
         engine.setUseClientMode(sslConfig.isClientMode());
         if (sslConfig.getCipherSuites() != null && sslConfig.getCipherSuites().length > 0) {
             engine.setEnabledCipherSuites(sslConfig.getCipherSuites());
         }
+        configureEngine(engine);
+        return new SslHandler(engine);
+    }
+
+    /**
+     * Create a server side handler which negotiates HTTP/2 or HTTP/1.1 with the client through ALPN. The negotiated
+     * protocol is available from the handler once the handshake completes.
+     *
+     * @param allocator allocator of the channel
+     * @return instance of {@code SslHandler}
+     * @throws SSLException if the context cannot be built or ALPN is not supported by the SSL provider
+     */
+    public SslHandler createHttp2TLSHandler(ByteBufAllocator allocator) throws SSLException {
+        SslContext sslContext = http2ServerContext;
+        if (sslContext == null) {
+            sslContext = createALPNContext(SslContextBuilder.forServer(keyManagerFactory)
+                    .clientAuth(needClientAuth ? ClientAuth.REQUIRE : ClientAuth.NONE),
+                    ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1);
+            http2ServerContext = sslContext;
+        }
+        return createALPNHandler(sslContext, allocator, null, -1);
+    }
+
+    /**
+     * Create a client side handler which only offers HTTP/2 to the server through ALPN.
+     *
+     * @param allocator allocator of the channel
+     * @param peerHost  host of the BE, which sessions are cached by along with the port
+     * @param peerPort  port of the BE
+     * @return instance of {@code SslHandler}
+     * @throws SSLException if the context cannot be built or ALPN is not supported by the SSL provider
+     */
+    public SslHandler createHttp2ClientTLSHandler(ByteBufAllocator allocator, String peerHost, int peerPort)
+            throws SSLException {
+        SslContext sslContext = http2ClientContext;
+        if (sslContext == null) {
+            sslContext = createALPNContext(SslContextBuilder.forClient().keyManager(keyManagerFactory),
+                    ApplicationProtocolNames.HTTP_2);
+            http2ClientContext = sslContext;
+        }
+        return createALPNHandler(sslContext, allocator, peerHost, peerPort);
+    }
+
+    /**
+     * @return true if the certificate of a connection is selected by the host name the client sends through SNI
+     */
+    public boolean isSNIEnabled() {
+        return sniContexts != null;
+    }
+
+    /**
+     * Create a server side handler which picks the certificate of the host name the client asks for through SNI,
+     * and replaces itself with the {@code SslHandler} of that certificate. Clients asking for no host name or an
+     * unknown one get the certificate they would get without SNI.
+     *
+     * @param http2 whether HTTP/2 or HTTP/1.1 is negotiated with the client through ALPN
+     * @return instance of {@code SniHandler}
+     * @throws SSLException if the contexts cannot be built or ALPN is not supported by the SSL provider
+     */
+    public SniHandler createSNIHandler(boolean http2) throws SSLException {
+        if (!http2) {
+            return new SniHandler(sniContexts);
+        }
+        Mapping<String, SslContext> mapping = http2SNIContexts;
+        if (mapping == null) {
+            try {
+                KeyStore ks = getKeyStore(sslConfig.getKeyStore(), sslConfig.getKeyStorePass());
+                mapping = createSNIMapping(ks, getCertPass(),
+                        newALPNConfig(ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1));
+            } catch (SSLException e) {
+                throw e;
+            } catch (UnrecoverableKeyException | NoSuchAlgorithmException | KeyStoreException | CertificateException
+                    | IOException e) {
+                throw new SSLException("Failed to build the SNI contexts", e);
+            } catch (RuntimeException e) {
+                // The JDK provider reports missing ALPN support of the runtime with an unchecked exception
+                throw new SSLException("ALPN is not available", e);
+            }
+            http2SNIContexts = mapping;
+        }
+        return new SniHandler(mapping);
+    }
+
+    /**
+     * Build a context per key entry of the key store, mapped to the host names of its certificate.
+     */
+    private Mapping<String, SslContext> createSNIMapping(KeyStore ks, char[] certPass,
+            ApplicationProtocolConfig apnConfig) throws UnrecoverableKeyException, NoSuchAlgorithmException,
+            KeyStoreException, CertificateException, IOException {
+        SNIContextMapping mapping = new SNIContextMapping(createServerContext(keyManagerFactory, apnConfig));
+        for (String alias : Collections.list(ks.aliases())) {
+            if (!ks.isKeyEntry(alias) || !(ks.getCertificate(alias) instanceof X509Certificate)) {
+                continue;
+            }
+            // Key managers pick a key of their key store by themselves, so each gets a key store of one entry
+            KeyStore aliasKeyStore = KeyStore.getInstance("JKS");
+            aliasKeyStore.load(null, null);
+            aliasKeyStore.setKeyEntry(alias, ks.getKey(alias, certPass), certPass, ks.getCertificateChain(alias));
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(keyManagerFactory.getAlgorithm());
+            kmf.init(aliasKeyStore, certPass);
+            SslContext sslContext = createServerContext(kmf, apnConfig);
+            for (String hostName : getHostNames((X509Certificate) ks.getCertificate(alias))) {
+                mapping.add(hostName, sslContext);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Selecting certificates of {} host names through SNI", mapping.size());
+        }
+        return mapping;
+    }
+
+    private SslContext createServerContext(KeyManagerFactory kmf, ApplicationProtocolConfig apnConfig)
+            throws SSLException {
+        SslContextBuilder sslContextBuilder = SslContextBuilder.forServer(kmf)
+                .clientAuth(needClientAuth ? ClientAuth.REQUIRE : ClientAuth.NONE)
+                .trustManager(trustManagerFactory)
+                .sslProvider(sslProvider)
+                .sessionCacheSize(sslConfig.getSessionCacheSize())
+                .sessionTimeout(sslConfig.getSessionTimeout())
+                .ciphers(getCiphers(apnConfig != null), SupportedCipherSuiteFilter.INSTANCE)
+                .applicationProtocolConfig(apnConfig);
+        // Handlers created by the SNI handler are not configured any further
         if (sslConfig.getEnableProtocols() != null && sslConfig.getEnableProtocols().length > 0) {
-            engine.setEnabledCipherSuites(sslConfig.getEnableProtocols());
+            sslContextBuilder.protocols(sslConfig.getEnableProtocols());
+        }
+        return sslContextBuilder.build();
+    }
+
+    /**
+     * @return DNS names of the subject alternative names of a certificate, or its common name if it has none
+     */
+    private static Set<String> getHostNames(X509Certificate certificate) throws CertificateException {
+        Set<String> hostNames = new LinkedHashSet<>();
+        Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+        if (alternativeNames != null) {
+            for (List<?> alternativeName : alternativeNames) {
+                if (((Integer) alternativeName.get(0)) == DNS_NAME) {
+                    hostNames.add((String) alternativeName.get(1));
+                }
+            }
+        }
+        if (hostNames.isEmpty()) {
+            for (String rdn : certificate.getSubjectX500Principal().getName(X500Principal.RFC2253).split(",")) {
+                if (rdn.regionMatches(true, 0, "CN=", 0, 3)) {
+                    hostNames.add(rdn.substring(3));
+                }
+            }
+        }
+        return hostNames;
+    }
+
+    private List<String> getCiphers(boolean http2) {
+        if (sslConfig.getCipherSuites() != null && sslConfig.getCipherSuites().length > 0) {
+            return Arrays.asList(sslConfig.getCipherSuites());
+        }
+        return http2 ? Http2SecurityUtil.CIPHERS : null;
+    }
+
+    private static ApplicationProtocolConfig newALPNConfig(String... protocols) {
+        return new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT, protocols);
+    }
 
+    private SslContext createALPNContext(SslContextBuilder sslContextBuilder, String... protocols)
+            throws SSLException {
+        SslContext sslContext;
+        try {
+            sslContext = sslContextBuilder
+                    .trustManager(trustManagerFactory)
+                    .sslProvider(sslProvider)
+                    .sessionCacheSize(sslConfig.getSessionCacheSize())
+                    .sessionTimeout(sslConfig.getSessionTimeout())
+                    .ciphers(getCiphers(true), SupportedCipherSuiteFilter.INSTANCE)
+                    .applicationProtocolConfig(newALPNConfig(protocols))
+                    .build();
+        } catch (RuntimeException e) {
+            // The JDK provider reports missing ALPN support of the runtime with an unchecked exception
+            throw new SSLException("ALPN is not available", e);
+        }
+        return sslContext;
+    }
+
+    private SslHandler createALPNHandler(SslContext sslContext, ByteBufAllocator allocator, String peerHost,
+            int peerPort) {
+        SslHandler sslHandler = newHandler(sslContext, allocator, peerHost, peerPort);
+        configureEngine(sslHandler.engine());
+        return sslHandler;
+    }
+
+    private static SslHandler newHandler(SslContext sslContext, ByteBufAllocator allocator, String peerHost,
+            int peerPort) {
+        return peerHost != null ? sslContext.newHandler(allocator, peerHost, peerPort)
+                : sslContext.newHandler(allocator);
+    }
+
+    private void configureEngine(SSLEngine engine) {
+        if (sslConfig.getEnableProtocols() != null && sslConfig.getEnableProtocols().length > 0) {
+            engine.setEnabledProtocols(sslConfig.getEnableProtocols());
         }
         if (sslConfig.isEnableSessionCreation()) {
             engine.setEnableSessionCreation(true);
@@ -121,6 +511,5 @@ public class SSLHandlerFactory {
             SSLParameters sslParameters = engine.getSSLParameters();
             sslParameters.setServerNames(new ArrayList(Arrays.asList(sslConfig.getSniMatchers())));
         }
-        return new SslHandler(engine);
     }
 }
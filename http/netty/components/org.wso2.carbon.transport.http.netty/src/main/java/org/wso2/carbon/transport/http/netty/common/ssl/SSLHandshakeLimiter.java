@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common.ssl;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Bounds the TLS handshakes a listener runs at the same time, so that a burst of new connections, such as clients
+ * reconnecting after a deploy, does not take the event loops away from the traffic of established connections.
+ * <p>
+ * Connections beyond the limit are queued without reading from them, so their ClientHello waits in the socket
+ * buffer, and are started in order as running handshakes finish. Connections beyond the queue are closed right
+ * away. Queued connections are still subject to the handshake timeout of their {@link SslHandler}. Handshakes are
+ * counted in {@link SSLHandshakeStatistics} whether a limit is set or not.
+ */
+public class SSLHandshakeLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(SSLHandshakeLimiter.class);
+
+    private enum State {
+        NEW, QUEUED, STARTED, DONE
+    }
+
+    private final int maxHandshakes;
+    private final int maxQueued;
+
+    // Guarded by this
+    private int handshakes;
+    private final Set<HandshakeHandler> queue = new LinkedHashSet<>();
+
+    /**
+     * @param maxHandshakes handshakes run at the same time, 0 for no limit
+     * @param maxQueued     connections waiting for their handshake to start
+     */
+    public SSLHandshakeLimiter(int maxHandshakes, int maxQueued) {
+        this.maxHandshakes = maxHandshakes;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * @return handler to add right after the SSL handler of a connection, it removes itself once the handshake is
+     * done
+     */
+    public ChannelHandler newHandler() {
+        return new HandshakeHandler();
+    }
+
+    private synchronized State admit(HandshakeHandler handler) {
+        if (maxHandshakes <= 0 || handshakes < maxHandshakes) {
+            handshakes++;
+            return State.STARTED;
+        }
+        if (queue.size() < maxQueued) {
+            queue.add(handler);
+            return State.QUEUED;
+        }
+        return State.DONE;
+    }
+
+    private synchronized boolean dequeue(HandshakeHandler handler) {
+        return queue.remove(handler);
+    }
+
+    /**
+     * Hand the permit of a finished handshake over to the connection queued the longest.
+     */
+    private void release() {
+        HandshakeHandler next;
+        synchronized (this) {
+            Iterator<HandshakeHandler> iterator = queue.iterator();
+            if (!iterator.hasNext()) {
+                handshakes--;
+                return;
+            }
+            next = iterator.next();
+            iterator.remove();
+        }
+        SSLHandshakeStatistics.queueChanged(-1);
+        next.resume();
+    }
+
+    /**
+     * Tracks the handshake of one connection. Its state is only changed from the event loop of the connection.
+     */
+    private class HandshakeHandler extends ChannelInboundHandlerAdapter {
+
+        private ChannelHandlerContext ctx;
+        private State state = State.NEW;
+        private long startTime;
+        // Sessions created before the handshake started were resumed
+        private long startTimeMillis;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            this.ctx = ctx;
+            State admission = admit(this);
+            if (admission == State.STARTED) {
+                start();
+            } else if (admission == State.QUEUED) {
+                state = State.QUEUED;
+                SSLHandshakeStatistics.queueChanged(1);
+                // Set before the pipeline reads once the connection is active
+                ctx.channel().config().setAutoRead(false);
+            } else {
+                state = State.DONE;
+                SSLHandshakeStatistics.handshakeRejected();
+                if (log.isDebugEnabled()) {
+                    log.debug("Handshake queue is full, closing connection from " + ctx.channel().remoteAddress());
+                }
+            }
+            ctx.fireChannelActive();
+            if (admission == State.DONE) {
+                ctx.close();
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            ctx.fireUserEventTriggered(evt);
+            if (evt instanceof SslHandshakeCompletionEvent && state == State.STARTED) {
+                finish(((SslHandshakeCompletionEvent) evt).isSuccess());
+                ctx.pipeline().remove(this);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (state == State.STARTED) {
+                finish(false);
+            } else if (state == State.QUEUED) {
+                state = State.DONE;
+                if (dequeue(this)) {
+                    SSLHandshakeStatistics.queueChanged(-1);
+                } else {
+                    // The permit was handed over before the connection closed, pass it on
+                    release();
+                }
+            }
+            ctx.fireChannelInactive();
+        }
+
+        /**
+         * Start a queued handshake which got the permit of a finished one.
+         */
+        void resume() {
+            ctx.executor().execute(() -> {
+                if (state == State.QUEUED) {
+                    start();
+                    // Reads the ClientHello waiting in the socket
+                    ctx.channel().config().setAutoRead(true);
+                }
+            });
+        }
+
+        private void start() {
+            state = State.STARTED;
+            startTime = System.nanoTime();
+            startTimeMillis = System.currentTimeMillis();
+            SSLHandshakeStatistics.handshakeStarted();
+        }
+
+        private void finish(boolean success) {
+            state = State.DONE;
+            if (success) {
+                SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+                boolean resumed = sslHandler != null
+                        && sslHandler.engine().getSession().getCreationTime() < startTimeMillis;
+                SSLHandshakeStatistics.handshakeCompleted(System.nanoTime() - startTime, resumed);
+            } else {
+                SSLHandshakeStatistics.handshakeFailed();
+            }
+            release();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common.ssl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the TLS handshakes of all listeners, updated by {@link SSLHandshakeLimiter}.
+ * <p>
+ * Counts and the handshake time only grow, so the mean latency and the resumption ratio of an interval follow from
+ * the difference of two readings. Handshake time is measured from the start of the handshake, so it excludes the
+ * time spent queued.
+ */
+public final class SSLHandshakeStatistics {
+
+    private static final LongAdder completed = new LongAdder();
+    private static final LongAdder resumed = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+    private static final LongAdder handshakeNanos = new LongAdder();
+    private static final AtomicInteger active = new AtomicInteger();
+    private static final AtomicInteger queued = new AtomicInteger();
+
+    private SSLHandshakeStatistics() {
+    }
+
+    static void handshakeStarted() {
+        active.incrementAndGet();
+    }
+
+    static void handshakeCompleted(long nanos, boolean sessionResumed) {
+        active.decrementAndGet();
+        completed.increment();
+        handshakeNanos.add(nanos);
+        if (sessionResumed) {
+            resumed.increment();
+        }
+    }
+
+    static void handshakeFailed() {
+        active.decrementAndGet();
+        failed.increment();
+    }
+
+    static void handshakeRejected() {
+        rejected.increment();
+    }
+
+    static void queueChanged(int delta) {
+        queued.addAndGet(delta);
+    }
+
+    /**
+     * @return handshakes completed successfully
+     */
+    public static long getCompletedHandshakes() {
+        return completed.sum();
+    }
+
+    /**
+     * @return completed handshakes which resumed a cached session
+     */
+    public static long getResumedHandshakes() {
+        return resumed.sum();
+    }
+
+    /**
+     * @return handshakes which failed or were cut short by the client closing the connection
+     */
+    public static long getFailedHandshakes() {
+        return failed.sum();
+    }
+
+    /**
+     * @return connections closed as the handshake queue of their listener was full
+     */
+    public static long getRejectedHandshakes() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return time spent by the completed handshakes in milliseconds
+     */
+    public static long getHandshakeTime() {
+        return TimeUnit.NANOSECONDS.toMillis(handshakeNanos.sum());
+    }
+
+    /**
+     * @return handshakes in progress
+     */
+    public static int getActiveHandshakes() {
+        return active.get();
+    }
+
+    /**
+     * @return connections waiting for their handshake to start
+     */
+    public static int getQueuedHandshakes() {
+        return queued.get();
+    }
+
+    /**
+     * @return fraction of the completed handshakes which resumed a cached session
+     */
+    public static double getResumptionRatio() {
+        long count = completed.sum();
+        return count == 0 ? 0 : (double) resumed.sum() / count;
+    }
+}
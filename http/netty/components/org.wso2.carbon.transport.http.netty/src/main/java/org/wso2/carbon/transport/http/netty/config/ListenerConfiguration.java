@@ -71,6 +71,15 @@ public class ListenerConfiguration {
     @XmlAttribute
     private String certPass;
 
+    @XmlAttribute
+    private boolean http2 = false;
+
+    @XmlAttribute
+    private int maxPipelinedRequests = 32;
+
+    @XmlAttribute
+    private int pipelinedResponseTimeout = 60;
+
     @XmlElementWrapper(name = "parameters")
     @XmlElement(name = "parameter")
     private List<Parameter> parameters = getDefaultParameters();
@@ -140,6 +149,41 @@ public class ListenerConfiguration {
         this.scheme = scheme;
     }
 
+    /**
+     * @return true if HTTP/2 is accepted on this listener, through ALPN over TLS or through h2c otherwise
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    /**
+     * @return number of requests of an HTTP/1.1 connection which may await their responses once read in full,
+     * reading from the connection is paused beyond that
+     */
+    public int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    public void setMaxPipelinedRequests(int maxPipelinedRequests) {
+        this.maxPipelinedRequests = maxPipelinedRequests;
+    }
+
+    /**
+     * @return seconds a response of an HTTP/1.1 connection waits for the responses of earlier requests, the
+     * connection is closed beyond that. 0 waits without a limit
+     */
+    public int getPipelinedResponseTimeout() {
+        return pipelinedResponseTimeout;
+    }
+
+    public void setPipelinedResponseTimeout(int pipelinedResponseTimeout) {
+        this.pipelinedResponseTimeout = pipelinedResponseTimeout;
+    }
+
     public List<Parameter> getParameters() {
         return parameters;
     }
@@ -68,6 +68,12 @@ public class SenderConfiguration {
     @XmlAttribute
     private String certPass;
 
+    @XmlAttribute
+    private boolean http2 = false;
+
+    @XmlAttribute
+    private int maxPipelinedRequests = 1;
+
     @XmlElementWrapper(name = "parameters")
     @XmlElement(name = "parameter")
     private List<Parameter> parameters;
@@ -128,6 +134,30 @@ public class SenderConfiguration {
         this.scheme = scheme;
     }
 
+    /**
+     * @return true if requests are multiplexed over HTTP/2 connections, negotiated through ALPN over TLS or with
+     * prior knowledge otherwise
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    /**
+     * @return number of idempotent requests which may be written to a BE connection ahead of their responses, 1
+     * disables pipelining. Only to be raised for BEs known to handle pipelined requests correctly.
+     */
+    public int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    public void setMaxPipelinedRequests(int maxPipelinedRequests) {
+        this.maxPipelinedRequests = maxPipelinedRequests;
+    }
+
     public List<Parameter> getParameters() {
         return parameters;
     }
@@ -38,10 +38,13 @@ import java.util.Set;
  */
 public class HTTPTransportActivator implements BundleActivator {
 
+    private HTTPSender httpSender;
+
     @Override
     public void start(BundleContext bundleContext) throws Exception {
         bundleContext.registerService(CarbonTransport.class, createServerBootstrapper(), null);
-        bundleContext.registerService(TransportSender.class, createClientBootstrapper(), null);
+        httpSender = createClientBootstrapper();
+        bundleContext.registerService(TransportSender.class, httpSender, null);
         HTTPTransportContextHolder.getInstance().setBundleContext(bundleContext);
         HandlerExecutor handlerExecutor = new HandlerExecutor();
         HTTPTransportContextHolder.getInstance().setHandlerExecutor(handlerExecutor);
@@ -81,6 +84,10 @@ public class HTTPTransportActivator implements BundleActivator {
 
     @Override
     public void stop(BundleContext bundleContext) throws Exception {
-
+        // Event loops owned by the sender configurations outlive the services unless shut down with the bundle
+        if (httpSender != null) {
+            httpSender.shutdown();
+            httpSender = null;
+        }
     }
 }
@@ -15,12 +15,23 @@
 
 package org.wso2.carbon.transport.http.netty.listener;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.http.HttpContentCompressor;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
 import org.slf4j.Logger;
@@ -30,12 +41,19 @@ import org.wso2.carbon.messaging.CarbonTransportInitializer;
 import org.wso2.carbon.transport.http.netty.common.Constants;
 import org.wso2.carbon.transport.http.netty.common.ssl.SSLConfig;
 import org.wso2.carbon.transport.http.netty.common.ssl.SSLHandlerFactory;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLHandshakeLimiter;
 import org.wso2.carbon.transport.http.netty.config.ListenerConfiguration;
 import org.wso2.carbon.transport.http.netty.config.TransportProperty;
+import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
 import org.wso2.carbon.transport.http.netty.sender.channel.pool.ConnectionManager;
 
+import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLException;
 
 /**
  * A class that responsible for create server side channels.
@@ -52,6 +70,9 @@ public class CarbonHTTPServerInitializer extends ChannelInitializer<SocketChanne
 
     private Map<String, org.wso2.carbon.transport.http.netty.common.ssl.SSLConfig> sslConfigMap;
 
+    // Handshake limits are per listener, a listener on any address is reached through many ids
+    private final Map<String, SSLHandshakeLimiter> handshakeLimiters = new ConcurrentHashMap<>();
+
     public CarbonHTTPServerInitializer(Map<String, ListenerConfiguration> integerListenerConfigurationMap) {
         this.listenerConfigurationMap = integerListenerConfigurationMap;
     }
@@ -81,25 +102,77 @@ public class CarbonHTTPServerInitializer extends ChannelInitializer<SocketChanne
         if (log.isDebugEnabled()) {
             log.debug("Initializing source channel pipeline");
         }
-        String host = ch.localAddress().getHostName();
-        int port = ch.localAddress().getPort();
+        initPipeline(ch.pipeline(), ch.alloc(), ch.localAddress());
+    }
+
+    /**
+     * Set up the pipeline of a source channel for the listener it was accepted on.
+     *
+     * @param p            pipeline of the source channel
+     * @param alloc        allocator of the source channel
+     * @param localAddress address the source channel was accepted on
+     */
+    void initPipeline(ChannelPipeline p, ByteBufAllocator alloc, InetSocketAddress localAddress) {
+        String host = localAddress.getHostName();
+        int port = localAddress.getPort();
 
         String id = host + ":" + port;
         ListenerConfiguration listenerConfiguration = listenerConfigurationMap.get(id);
-        if (sslConfigMap.get(id) != null) {
-            SslHandler sslHandler = new SSLHandlerFactory(sslConfigMap.get(id)).create();
-            ch.pipeline().addLast("ssl", sslHandler);
-        } else if (sslConfig != null) {
-            SslHandler sslHandler = new SSLHandlerFactory(sslConfig).create();
-            ch.pipeline().addLast("ssl", sslHandler);
+        boolean http2 = listenerConfiguration != null && listenerConfiguration.isHttp2();
+        SSLConfig channelSslConfig = sslConfigMap.get(id) != null ? sslConfigMap.get(id) : sslConfig;
+        if (channelSslConfig != null) {
+            SSLHandlerFactory sslHandlerFactory = SSLHandlerFactory.getInstance(channelSslConfig);
+            String listenerId = listenerConfiguration != null ? listenerConfiguration.getId() : id;
+            ChannelHandler handshakeHandler = handshakeLimiters.computeIfAbsent(listenerId,
+                    key -> new SSLHandshakeLimiter(channelSslConfig.getHandshakeMaxActive(),
+                            channelSslConfig.getHandshakeMaxQueued())).newHandler();
+            if (http2) {
+                try {
+                    p.addLast("ssl", sslHandlerFactory.isSNIEnabled() ? sslHandlerFactory.createSNIHandler(true)
+                            : sslHandlerFactory.createHttp2TLSHandler(alloc));
+                    p.addLast("handshake", handshakeHandler);
+                    p.addLast("alpn", new ProtocolNegotiationHandler(listenerConfiguration));
+                    return;
+                } catch (SSLException e) {
+                    log.warn("HTTP/2 cannot be negotiated on listener " + id + ", accepting HTTP/1.1 only", e);
+                }
+            }
+            if (sslHandlerFactory.isSNIEnabled()) {
+                // Replaced by the SslHandler of the certificate asked for once the ClientHello is read
+                p.addLast("ssl", sslHandlerFactory.createSNIHandler(false));
+            } else {
+                SslHandler sslHandler = sslHandlerFactory.create(alloc);
+                p.addLast("ssl", sslHandler);
+            }
+            p.addLast("handshake", handshakeHandler);
+        } else if (http2) {
+            p.addLast("h2c-detector", new CleartextHttp2Detector(listenerConfiguration));
+            return;
         }
-        ChannelPipeline p = ch.pipeline();
+        configureHttpPipeline(p, listenerConfiguration, false);
+    }
+
+    /**
+     * Add the HTTP/1.1 handlers to the end of a pipeline.
+     *
+     * @param p                     pipeline of the source channel
+     * @param listenerConfiguration configuration of the listener the channel was accepted on
+     * @param h2cUpgrade            whether requests may upgrade the connection to cleartext HTTP/2
+     */
+    private void configureHttpPipeline(ChannelPipeline p, ListenerConfiguration listenerConfiguration,
+            boolean h2cUpgrade) {
         p.addLast("encoder", new HttpResponseEncoder());
         if (RequestSizeValidationConfiguration.getInstance().isHeaderSizeValidation()) {
             p.addLast("decoder", new CustomHttpRequestDecoder());
         } else {
             p.addLast("decoder", new HttpRequestDecoder());
         }
+        if (h2cUpgrade) {
+            p.addLast("h2c-upgrade", new HttpServerUpgradeHandler(ctx -> removeHttpHandlers(ctx.pipeline()),
+                    protocol -> Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME.contentEquals(protocol)
+                            ? new Http2ServerUpgradeCodec(newHttp2SourceHandler(listenerConfiguration)) : null,
+                    RequestSizeValidationConfiguration.getInstance().getRequestMaxSize()));
+        }
         if (RequestSizeValidationConfiguration.getInstance().isRequestSizeValidation()) {
             p.addLast("custom-aggregator", new CustomHttpObjectAggregator());
         }
@@ -114,6 +187,34 @@ public class CarbonHTTPServerInitializer extends ChannelInitializer<SocketChanne
         }
     }
 
+    /**
+     * Remove the HTTP/1.1 handlers once the connection is upgraded to HTTP/2.
+     */
+    private void removeHttpHandlers(ChannelPipeline p) {
+        ChannelHandlerContext handlerContext = p.context("handler");
+        if (handlerContext != null && HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            // The HTTP/1.1 connection ends here, the HTTP/2 handler reports the connection from now on
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor()
+                    .executeAtSourceConnectionTermination(Integer.toString(handlerContext.hashCode()));
+        }
+        for (String name : new String[] { "handler", "chunkWriter", "compressor", "custom-aggregator", "encoder",
+                "decoder" }) {
+            if (p.get(name) != null) {
+                p.remove(name);
+            }
+        }
+    }
+
+    private Http2SourceHandler newHttp2SourceHandler(ListenerConfiguration listenerConfiguration) {
+        SourceHandler sourceHandler;
+        try {
+            sourceHandler = new SourceHandler(connectionManager, listenerConfiguration);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot create SourceHandler", e);
+        }
+        return new Http2SourceHandler.Builder(sourceHandler).build();
+    }
+
     @Override
     public boolean isServerInitializer() {
         return true;
@@ -127,4 +228,58 @@ public class CarbonHTTPServerInitializer extends ChannelInitializer<SocketChanne
         this.sslConfigMap = sslConfigMap;
     }
 
+    /**
+     * Sets up the pipeline for the protocol agreed on through ALPN during the TLS handshake.
+     */
+    private class ProtocolNegotiationHandler extends ApplicationProtocolNegotiationHandler {
+
+        private final ListenerConfiguration listenerConfiguration;
+
+        private ProtocolNegotiationHandler(ListenerConfiguration listenerConfiguration) {
+            super(ApplicationProtocolNames.HTTP_1_1);
+            this.listenerConfiguration = listenerConfiguration;
+        }
+
+        @Override
+        protected void configurePipeline(ChannelHandlerContext ctx, String protocol) throws Exception {
+            if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                ctx.pipeline().addLast("http2", newHttp2SourceHandler(listenerConfiguration));
+            } else if (ApplicationProtocolNames.HTTP_1_1.equals(protocol)) {
+                configureHttpPipeline(ctx.pipeline(), listenerConfiguration, false);
+            } else {
+                throw new IllegalStateException("Unsupported application protocol: " + protocol);
+            }
+        }
+    }
+
+    /**
+     * Tells cleartext HTTP/2 with prior knowledge apart from HTTP/1.1 by the connection preface. HTTP/1.1
+     * connections may still be upgraded to HTTP/2 by a request.
+     */
+    private class CleartextHttp2Detector extends ByteToMessageDecoder {
+
+        private final ListenerConfiguration listenerConfiguration;
+
+        private CleartextHttp2Detector(ListenerConfiguration listenerConfiguration) {
+            this.listenerConfiguration = listenerConfiguration;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+            ByteBuf preface = Http2CodecUtil.connectionPrefaceBuf();
+            try {
+                int length = Math.min(in.readableBytes(), preface.readableBytes());
+                if (!ByteBufUtil.equals(preface, preface.readerIndex(), in, in.readerIndex(), length)) {
+                    configureHttpPipeline(ctx.pipeline(), listenerConfiguration, true);
+                    ctx.pipeline().remove(this);
+                } else if (length == preface.readableBytes()) {
+                    ctx.pipeline().addLast("http2", newHttp2SourceHandler(listenerConfiguration));
+                    ctx.pipeline().remove(this);
+                }
+                // Otherwise wait for the rest of the preface, the bytes read so far are passed on once decided
+            } finally {
+                preface.release();
+            }
+        }
+    }
 }
@@ -23,7 +23,7 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
-import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpMessage;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
@@ -33,7 +33,6 @@ import org.wso2.carbon.transport.http.netty.common.Constants;
 
 import java.nio.charset.Charset;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -47,39 +46,38 @@ public class CustomHttpObjectAggregator extends HttpObjectAggregator {
         super(RequestSizeValidationConfiguration.getInstance().getRequestMaxSize());
     }
 
+    /**
+     * Netty 4.1 no longer fails the decode of an oversized message, the reject response is sent from this hook.
+     */
     @Override
-    protected void decode(ChannelHandlerContext ctx, HttpObject msg, List<Object> out) throws Exception {
-        try {
-            super.decode(ctx, msg, out);
-        } catch (Exception e) {
-            log.warn("Message length validation failed");
+    protected void handleOversizedMessage(ChannelHandlerContext ctx, HttpMessage oversized) throws Exception {
+        log.warn("Message length validation failed");
 
-            Iterator<Map.Entry<String, ChannelHandler>> iterator = ctx.pipeline().iterator();
+        Iterator<Map.Entry<String, ChannelHandler>> iterator = ctx.pipeline().iterator();
 
-            boolean canRemove = false;
-            while (iterator.hasNext()) {
-                Map.Entry<String, ChannelHandler> channelHandlerEntry = iterator.next();
-                if (channelHandlerEntry.getKey().equalsIgnoreCase(ctx.name())) {
-                    canRemove = true;
-                }
-                if (canRemove && !channelHandlerEntry.getKey().equalsIgnoreCase(ctx.name())) {
-                    ctx.pipeline().remove(channelHandlerEntry.getKey());
-                }
+        boolean canRemove = false;
+        while (iterator.hasNext()) {
+            Map.Entry<String, ChannelHandler> channelHandlerEntry = iterator.next();
+            if (channelHandlerEntry.getKey().equalsIgnoreCase(ctx.name())) {
+                canRemove = true;
             }
+            if (canRemove && !channelHandlerEntry.getKey().equalsIgnoreCase(ctx.name())) {
+                ctx.pipeline().remove(channelHandlerEntry.getKey());
+            }
+        }
 
-            String rejectMessage = RequestSizeValidationConfiguration.getInstance().getRequestRejectMessage();
-            byte[] errorMessageBytes = rejectMessage.getBytes(Charset.defaultCharset());
-            ByteBuf content = Unpooled.wrappedBuffer(errorMessageBytes);
-            DefaultFullHttpResponse rejectResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
-                    HttpResponseStatus
-                            .valueOf(RequestSizeValidationConfiguration.getInstance().getRequestRejectStatusCode()),
-                    content);
-            rejectResponse.headers().set(Constants.HTTP_CONTENT_LENGTH, errorMessageBytes.length);
-            rejectResponse.headers().set(Constants.HTTP_CONTENT_TYPE,
-                    RequestSizeValidationConfiguration.getInstance().getRequestRejectMsgContentType());
+        String rejectMessage = RequestSizeValidationConfiguration.getInstance().getRequestRejectMessage();
+        byte[] errorMessageBytes = rejectMessage.getBytes(Charset.defaultCharset());
+        ByteBuf content = Unpooled.wrappedBuffer(errorMessageBytes);
+        DefaultFullHttpResponse rejectResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus
+                        .valueOf(RequestSizeValidationConfiguration.getInstance().getRequestRejectStatusCode()),
+                content);
+        rejectResponse.headers().set(Constants.HTTP_CONTENT_LENGTH, errorMessageBytes.length);
+        rejectResponse.headers().set(Constants.HTTP_CONTENT_TYPE,
+                RequestSizeValidationConfiguration.getInstance().getRequestRejectMsgContentType());
 
-            ctx.writeAndFlush(rejectResponse);
-        }
+        ctx.writeAndFlush(rejectResponse);
     }
 
 }
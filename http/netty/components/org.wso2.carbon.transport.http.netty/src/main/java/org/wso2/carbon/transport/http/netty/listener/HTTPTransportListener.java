@@ -21,21 +21,27 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.carbon.messaging.CarbonMessageProcessor;
 import org.wso2.carbon.messaging.TransportListener;
 import org.wso2.carbon.messaging.TransportListenerManager;
+import org.wso2.carbon.transport.http.netty.common.AllocatorConfiguration;
 import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HostNameResolver;
+import org.wso2.carbon.transport.http.netty.common.NativeTransport;
+import org.wso2.carbon.transport.http.netty.common.ssl.KeyStoreReloader;
 import org.wso2.carbon.transport.http.netty.common.ssl.SSLConfig;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLHandlerFactory;
 import org.wso2.carbon.transport.http.netty.config.ListenerConfiguration;
 import org.wso2.carbon.transport.http.netty.config.Parameter;
 import org.wso2.carbon.transport.http.netty.config.TransportProperty;
 import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -56,9 +62,12 @@ public class HTTPTransportListener extends TransportListener {
     private int bossGroupSize;
     private int workerGroupSize;
 
+    private int acceptorCount = 1;
+
     private ServerBootstrap bootstrap;
     private ListenerConfiguration defaultListenerConfig;
-    private Map<Integer, ChannelFuture> channelFutureMap = new ConcurrentHashMap<>();
+    //Listening channels of the default listener and each bound interface keyed by the listener id, one per acceptor
+    private Map<String, List<ChannelFuture>> channelFutureMap = new ConcurrentHashMap<>();
     //Map used for cache listener configurations
     private Map<String, ListenerConfiguration> listenerConfigurationMap = new HashMap<>();
     //Map used for  map listener configurations with host and post as key for used in channel initializer
@@ -118,12 +127,17 @@ public class HTTPTransportListener extends TransportListener {
     private void startTransport() {
         //Create Bootstrap Configuration from listener parameters
         ServerBootstrapConfiguration.createBootStrapConfiguration(transportProperties);
+        HostNameResolver.createHostNameResolver(transportProperties);
+        AllocatorConfiguration.createAllocatorConfiguration(transportProperties);
+        KeyStoreReloader.createKeyStoreReloader(transportProperties);
         ServerBootstrapConfiguration serverBootstrapConfiguration = ServerBootstrapConfiguration.getInstance();
-        //boss group is for accepting channels
-        bossGroup = new NioEventLoopGroup(
-                bossGroupSize != 0 ? bossGroupSize : Runtime.getRuntime().availableProcessors());
+        boolean nativeTransport = serverBootstrapConfiguration.isNativeTransport();
+        acceptorCount = serverBootstrapConfiguration.getAcceptorCount();
+        //boss group is for accepting channels, each acceptor socket is registered to its own boss event loop
+        bossGroup = NativeTransport.newEventLoopGroup(nativeTransport, Math.max(acceptorCount,
+                bossGroupSize != 0 ? bossGroupSize : Runtime.getRuntime().availableProcessors()));
         //worker group is for processing IO
-        workerGroup = new NioEventLoopGroup(
+        workerGroup = NativeTransport.newEventLoopGroup(nativeTransport,
                 workerGroupSize != 0 ? workerGroupSize : Runtime.getRuntime().availableProcessors() * 2);
         log.debug("Netty Boss group size " + bossGroup);
         log.debug("Netty Worker group Size" + workerGroup);
@@ -131,10 +145,18 @@ public class HTTPTransportListener extends TransportListener {
         bootstrap.option(ChannelOption.SO_BACKLOG, serverBootstrapConfiguration.getSoBackLog());
         log.debug("Netty Server Socket BACKLOG " + serverBootstrapConfiguration.getSoBackLog());
 
-        bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class);
+        bootstrap.group(bossGroup, workerGroup).channel(NativeTransport.getServerChannelClass(nativeTransport));
+        log.debug("Netty Server native transport " + nativeTransport);
+        if (acceptorCount > 1) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            log.debug("Netty Server Socket SO_REUSEPORT with " + acceptorCount + " acceptors");
+        }
 
         addChannelInitializer();
 
+        bootstrap.option(ChannelOption.ALLOCATOR, AllocatorConfiguration.getAllocator());
+        bootstrap.childOption(ChannelOption.ALLOCATOR, AllocatorConfiguration.getAllocator());
+
         bootstrap.childOption(ChannelOption.TCP_NODELAY, serverBootstrapConfiguration.isTcpNoDelay());
         log.debug("Netty Server Socket TCP_NODELAY " + serverBootstrapConfiguration.isTcpNoDelay());
         bootstrap.option(ChannelOption.SO_KEEPALIVE, serverBootstrapConfiguration.isKeepAlive());
@@ -150,12 +172,17 @@ public class HTTPTransportListener extends TransportListener {
         log.debug("Netty Server Socket SO_RCVBUF " + serverBootstrapConfiguration.getReciveBufferSize());
         bootstrap.childOption(ChannelOption.SO_SNDBUF, serverBootstrapConfiguration.getSendBufferSize());
         log.debug("Netty Server Socket SO_SNDBUF " + serverBootstrapConfiguration.getSendBufferSize());
+        bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                serverBootstrapConfiguration.getWriteBufferLowWaterMark(),
+                serverBootstrapConfiguration.getWriteBufferHighWaterMark()));
+        log.debug("Netty Server Socket WRITE_BUFFER_WATER_MARK " + serverBootstrapConfiguration
+                .getWriteBufferLowWaterMark() + "-" + serverBootstrapConfiguration.getWriteBufferHighWaterMark());
 
         try {
-            ChannelFuture future = bootstrap
-                    .bind(new InetSocketAddress(defaultListenerConfig.getHost(), defaultListenerConfig.getPort()))
-                    .sync();
-            if (future.isSuccess()) {
+            List<ChannelFuture> futures = bindAcceptors(defaultListenerConfig.getHost(),
+                    defaultListenerConfig.getPort());
+            if (futures != null) {
+                channelFutureMap.put(defaultListenerConfig.getId(), futures);
                 TransportListenerManager artifactDeployer = HTTPTransportContextHolder.getInstance().getManager();
                 if (artifactDeployer != null) {
                     artifactDeployer.registerTransportListener(this);
@@ -174,10 +201,37 @@ public class HTTPTransportListener extends TransportListener {
         }
     }
 
+    /**
+     * Bind a listening socket to the address for each acceptor. With more than one acceptor the sockets share the
+     * address through SO_REUSEPORT and the kernel spreads incoming connections across them. Each socket is registered
+     * to the next boss event loop, hence accepts are handled by as many threads.
+     *
+     * @return bound channel futures, or null if any of the sockets could not be bound
+     */
+    private List<ChannelFuture> bindAcceptors(String host, int port) throws InterruptedException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        List<ChannelFuture> futures = new ArrayList<>(acceptorCount);
+        for (int i = 0; i < acceptorCount; i++) {
+            ChannelFuture future = bootstrap.bind(address).await();
+            if (!future.isSuccess()) {
+                log.error("Cannot bind acceptor " + i + " to host " + host + " port " + port, future.cause());
+                futures.forEach(bound -> bound.channel().close());
+                return null;
+            }
+            futures.add(future);
+        }
+        return futures;
+    }
+
     //Channel Initializer is responsible for create channel pipeline
     private void addChannelInitializer() {
         CarbonHTTPServerInitializer handler = new CarbonHTTPServerInitializer(listenerConfigMapWithHostPort);
-        handler.setSslConfig(defaultListenerConfig.getSslConfig());
+        SSLConfig defaultSslConfig = defaultListenerConfig.getSslConfig();
+        if (defaultSslConfig != null) {
+            // Key stores are loaded once at bind time, connections only create engines from the shared context
+            SSLHandlerFactory.getInstance(defaultSslConfig);
+        }
+        handler.setSslConfig(defaultSslConfig);
         handler.setSslConfigMap(sslConfigMap);
         List<Parameter> parameters = defaultListenerConfig.getParameters();
         Map<String, String> paramMap = new HashMap<>();
@@ -194,6 +248,7 @@ public class HTTPTransportListener extends TransportListener {
     public void stop() {
         log.info("Stopping HTTP transport " + id + " on port " + defaultListenerConfig.getPort());
         shutdownEventLoops();
+        channelFutureMap.clear();
     }
 
     @Override
@@ -207,11 +262,36 @@ public class HTTPTransportListener extends TransportListener {
     public void endMaintenance() {
         log.info("Ending maintenance mode for HTTP transport " + id + " running on port " + defaultListenerConfig
                 .getPort());
-        bossGroup = new NioEventLoopGroup(
-                bossGroupSize != 0 ? bossGroupSize : Runtime.getRuntime().availableProcessors());
-        workerGroup = new NioEventLoopGroup(
-                workerGroupSize != 0 ? workerGroupSize : Runtime.getRuntime().availableProcessors());
         startTransport();
+        rebindInterfaces();
+    }
+
+    /**
+     * Bind the interfaces bound through {@link #bind(String)} to the event loops created when maintenance ends, as
+     * their listening channels were closed along with the previous ones.
+     */
+    private void rebindInterfaces() {
+        for (String interfaceId : new ArrayList<>(channelFutureMap.keySet())) {
+            ListenerConfiguration listenerConfiguration = listenerConfigurationMap.get(interfaceId);
+            if (listenerConfiguration == null || interfaceId.equals(defaultListenerConfig.getId())) {
+                continue;
+            }
+            List<ChannelFuture> futures = null;
+            try {
+                futures = bindAcceptors(listenerConfiguration.getHost(), listenerConfiguration.getPort());
+            } catch (InterruptedException e) {
+                log.error(e.getMessage(), e);
+            }
+            if (futures != null) {
+                channelFutureMap.put(interfaceId, futures);
+                log.info("Interface " + interfaceId + " restarted on host " + listenerConfiguration.getHost()
+                        + " and port " + listenerConfiguration.getPort());
+            } else {
+                log.error("Cannot bind port for host " + listenerConfiguration.getHost() + " port "
+                        + listenerConfiguration.getPort() + " after maintenance, unbinding interface " + interfaceId);
+                unBind(interfaceId);
+            }
+        }
     }
 
     private void shutdownEventLoops() {
@@ -241,6 +321,7 @@ public class HTTPTransportListener extends TransportListener {
 
                 SSLConfig sslConfig = listenerConfiguration.getSslConfig();
                 if (sslConfig != null) {
+                    SSLHandlerFactory.getInstance(sslConfig);
                     sslConfigMap.put(id, sslConfig);
                     if (listenerConfiguration.getHost().equals(Constants.DEFAULT_ADDRESS) || listenerConfiguration
                             .getHost().equals(Constants.LOCALHOST) || listenerConfiguration.getHost()
@@ -256,10 +337,10 @@ public class HTTPTransportListener extends TransportListener {
                 }
 
                 if (!interfaceId.equals(defaultListenerConfig.getId())) {
-                    ChannelFuture future = bootstrap.bind(new InetSocketAddress(listenerConfiguration.getHost(),
-                            listenerConfiguration.getPort())).sync();
-                    if (future.isSuccess()) {
-                        channelFutureMap.put(listenerConfiguration.getPort(), future);
+                    List<ChannelFuture> futures = bindAcceptors(listenerConfiguration.getHost(),
+                            listenerConfiguration.getPort());
+                    if (futures != null) {
+                        channelFutureMap.put(interfaceId, futures);
                         if (listenerConfiguration.getSslConfig() == null) {
                             log.info("HTTP Interface " + interfaceId + " starting on host  " + listenerConfiguration
                                     .getHost() + " and port " + listenerConfiguration.getPort());
@@ -291,12 +372,14 @@ public class HTTPTransportListener extends TransportListener {
         if (listenerConfiguration != null && !defaultListenerConfig.getId().equals(listenerConfiguration.getId())) {
             String id = listenerConfiguration.getHost() + ":" + listenerConfiguration.getPort();
             //Remove cached channels and close them.
-            ChannelFuture future = channelFutureMap.remove(listenerConfiguration.getPort());
-            if (future != null) {
-                if (sslConfigMap.get(id) != null) {
-                    sslConfigMap.remove(id);
+            List<ChannelFuture> futures = channelFutureMap.remove(interfaceId);
+            if (futures != null) {
+                SSLConfig sslConfig = sslConfigMap.remove(id);
+                if (sslConfig != null && !sslConfigMap.containsValue(sslConfig)
+                        && !sslConfig.equals(defaultListenerConfig.getSslConfig())) {
+                    SSLHandlerFactory.evict(sslConfig);
                 }
-                future.channel().close();
+                futures.forEach(future -> future.channel().close());
                 if (listenerConfiguration.getSslConfig() == null) {
                     log.info("HTTP Listener stopped on listening interface " + interfaceId + " attached to   host  "
                             + listenerConfiguration.getHost() + " and port " + listenerConfiguration.getPort());
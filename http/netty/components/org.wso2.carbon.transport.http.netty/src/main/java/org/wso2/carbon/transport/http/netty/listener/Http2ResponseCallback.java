@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.listener;
+
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.messaging.CarbonCallback;
+import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.messaging.MessageDataSource;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.Util;
+import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
+
+/**
+ * Writes the response of a request received over HTTP/2 back to the stream the request arrived on.
+ * <p>
+ * The headers are submitted to the event loop of the connection ahead of the content, hence they are always
+ * written first.
+ */
+public class Http2ResponseCallback implements CarbonCallback {
+
+    private static final Logger logger = LoggerFactory.getLogger(Http2ResponseCallback.class);
+
+    private final Http2SourceHandler handler;
+    private final int streamId;
+
+    public Http2ResponseCallback(Http2SourceHandler handler, int streamId) {
+        this.handler = handler;
+        this.streamId = streamId;
+    }
+
+    @Override
+    public void done(CarbonMessage cMsg) {
+        if (cMsg.isAlreadyRead()) {
+            MessageDataSource messageDataSource = cMsg.getMessageDataSource();
+            if (messageDataSource != null) {
+                messageDataSource.serializeData();
+                cMsg.setEndOfMsgAdded(true);
+                cMsg.getHeaders().remove(Constants.HTTP_CONTENT_LENGTH);
+            } else {
+                logger.error("Message is already built but cannot find the MessageDataSource");
+            }
+        }
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtSourceResponseReceiving(cMsg);
+        }
+        // Connection specific headers such as Transfer-Encoding are dropped by the conversion
+        HttpResponse response = Util.createHttpResponse(cMsg);
+        Http2Headers headers = HttpConversionUtil.toHttp2Headers(response, true);
+
+        handler.execute(() -> handler.writeHeaders(streamId, headers, false));
+        handler.writeContent(streamId, cMsg, () -> onResponseSent(cMsg));
+    }
+
+    private static void onResponseSent(CarbonMessage cMsg) {
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtSourceResponseSending(cMsg);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.listener;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.AbstractHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2ConnectionDecoder;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2EventAdapter;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.messaging.CarbonMessageProcessor;
+import org.wso2.carbon.transport.http.netty.common.BaseHttp2ConnectionHandler;
+import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
+import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
+
+/**
+ * Handles an HTTP/2 connection of a listener.
+ * <p>
+ * Each stream is published to the {@link CarbonMessageProcessor} as an {@link HTTPCarbonMessage} as soon as its
+ * headers are read, and the data frames of the stream are added to the message as they arrive. The response is
+ * written back to the same stream through an {@link Http2ResponseCallback}. Data frames are only acknowledged to the
+ * client through the flow control window of their stream once their content is consumed, so a slow consumer holds
+ * up its own stream rather than the whole connection.
+ * <p>
+ * The given {@link SourceHandler} is not part of the pipeline. It represents the connection towards the sender,
+ * so that the requests of all the streams are sent from the event loop of the connection.
+ */
+public class Http2SourceHandler extends BaseHttp2ConnectionHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(Http2SourceHandler.class);
+
+    // Stream of the request which upgraded a cleartext connection to HTTP/2
+    private static final int UPGRADE_STREAM_ID = 1;
+
+    private final SourceHandler sourceHandler;
+
+    // Only accessed from the event loop of the connection
+    private final IntObjectMap<HTTPCarbonMessage> requests = new IntObjectHashMap<>();
+
+    private Http2SourceHandler(Http2ConnectionDecoder decoder, Http2ConnectionEncoder encoder,
+            Http2Settings initialSettings, SourceHandler sourceHandler) {
+        super(decoder, encoder, initialSettings);
+        this.sourceHandler = sourceHandler;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        super.handlerAdded(ctx);
+        sourceHandler.bindHttp2Connection(ctx);
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor()
+                    .executeAtSourceConnectionInitiation(Integer.toString(ctx.hashCode()));
+        }
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof HttpServerUpgradeHandler.UpgradeEvent) {
+            // The request which carried the h2c upgrade is answered on stream 1
+            FullHttpRequest upgradeRequest = ((HttpServerUpgradeHandler.UpgradeEvent) evt).upgradeRequest();
+            upgradeRequest.headers().remove(HttpHeaderNames.CONNECTION).remove(HttpHeaderNames.UPGRADE)
+                    .remove(Http2CodecUtil.HTTP_UPGRADE_SETTINGS_HEADER);
+            // Content of the upgrade request was read over HTTP/1.1, outside of flow control
+            HTTPCarbonMessage cMsg = onRequest(UPGRADE_STREAM_ID, upgradeRequest, false, false);
+            onContent(UPGRADE_STREAM_ID, cMsg,
+                    new DefaultLastHttpContent(upgradeRequest.content().retain()));
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        requests.clear();
+        sourceHandler.cancelTargetRequests();
+        super.channelInactive(ctx);
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor()
+                    .executeAtSourceConnectionTermination(Integer.toString(ctx.hashCode()));
+        }
+    }
+
+    private HTTPCarbonMessage onRequest(int streamId, HttpRequest request, boolean endOfStream,
+            boolean flowControlled) {
+        // Extension headers only describe the HTTP/2 stream, they must not reach the message
+        for (HttpConversionUtil.ExtensionHeaderNames name : HttpConversionUtil.ExtensionHeaderNames.values()) {
+            request.headers().remove(name.text());
+        }
+        HTTPCarbonMessage cMsg = new HTTPCarbonMessage();
+        if (flowControlled) {
+            cMsg.setConsumedBytesListener(bytes -> consumeBytes(streamId, bytes));
+        }
+        cMsg.setTransportMetadata(sourceHandler.getSourceConnectionMetadata(), request);
+        cMsg.setHttpHeaders(request.headers());
+        requests.put(streamId, cMsg);
+
+        publishToMessageProcessor(streamId, cMsg);
+        if (endOfStream) {
+            onContent(streamId, cMsg, LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+        return cMsg;
+    }
+
+    private void onContent(int streamId, HTTPCarbonMessage cMsg, HttpContent httpContent) {
+        if (requests.get(streamId) != cMsg) {
+            // The stream was reset as its request could not be processed
+            httpContent.release();
+            return;
+        }
+        cMsg.addHttpContent(httpContent);
+        if (httpContent instanceof LastHttpContent) {
+            requests.remove(streamId);
+            cMsg.setEndOfMsgAdded(true);
+            if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+                HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtSourceRequestSending(cMsg);
+            }
+        }
+    }
+
+    private void publishToMessageProcessor(int streamId, HTTPCarbonMessage cMsg) {
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtSourceRequestReceiving(cMsg);
+        }
+
+        Http2ResponseCallback responseCallback = new Http2ResponseCallback(this, streamId);
+
+        boolean continueRequest = true;
+
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+
+            continueRequest = HTTPTransportContextHolder.getInstance().getHandlerExecutor()
+                    .executeRequestContinuationValidator(cMsg, responseCallback::done);
+
+        }
+        if (continueRequest) {
+            CarbonMessageProcessor carbonMessageProcessor = HTTPTransportContextHolder.getInstance()
+                    .getMessageProcessor();
+            if (carbonMessageProcessor != null) {
+                try {
+                    carbonMessageProcessor.receive(cMsg, responseCallback);
+                } catch (Exception e) {
+                    log.error("Error while submitting CarbonMessage to CarbonMessageProcessor", e);
+                    rejectStream(streamId);
+                }
+            } else {
+                log.error("Cannot find registered MessageProcessor for forward the message");
+                rejectStream(streamId);
+                cMsg.release();
+            }
+        }
+    }
+
+    /**
+     * Reset the stream of a request which is not going to be answered, so that the stream and its share of the
+     * concurrent streams of the connection are freed rather than held until the client gives up. Content arriving
+     * for the stream afterwards is dropped.
+     */
+    private void rejectStream(int streamId) {
+        requests.remove(streamId);
+        resetStream(ctx, streamId, Http2Error.INTERNAL_ERROR.code(), ctx.newPromise());
+        ctx.flush();
+    }
+
+    /**
+     * Turns the frames of the connection into carbon messages.
+     */
+    private class StreamListener extends Http2EventAdapter {
+
+        @Override
+        public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers, int padding,
+                boolean endOfStream) throws Http2Exception {
+            HTTPCarbonMessage cMsg = requests.get(streamId);
+            if (cMsg == null) {
+                onRequest(streamId, HttpConversionUtil.toHttpRequest(streamId, headers, true), endOfStream, true);
+            } else {
+                // Headers following the data of a stream are its trailers
+                LastHttpContent trailers = new DefaultLastHttpContent();
+                HttpConversionUtil.addHttp2ToHttpHeaders(streamId, headers, trailers.trailingHeaders(),
+                        HttpVersion.HTTP_1_1, true, true);
+                onContent(streamId, cMsg, trailers);
+            }
+        }
+
+        @Override
+        public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers, int streamDependency,
+                short weight, boolean exclusive, int padding, boolean endOfStream) throws Http2Exception {
+            onHeadersRead(ctx, streamId, headers, padding, endOfStream);
+        }
+
+        @Override
+        public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
+                boolean endOfStream) throws Http2Exception {
+            HTTPCarbonMessage cMsg = requests.get(streamId);
+            if (cMsg == null) {
+                return data.readableBytes() + padding;
+            }
+            // The frame is released by the codec once read, the message keeps its own reference
+            HttpContent httpContent = endOfStream ? new DefaultLastHttpContent(data.retain())
+                    : new DefaultHttpContent(data.retain());
+            onContent(streamId, cMsg, httpContent);
+            // The data is acknowledged once the message hands it to its consumer
+            return padding;
+        }
+
+        @Override
+        public void onRstStreamRead(ChannelHandlerContext ctx, int streamId, long errorCode) {
+            requests.remove(streamId);
+        }
+    }
+
+    /**
+     * Builds an {@link Http2SourceHandler} on top of the default HTTP/2 codec.
+     */
+    static final class Builder extends AbstractHttp2ConnectionHandlerBuilder<Http2SourceHandler, Builder> {
+
+        private final SourceHandler sourceHandler;
+
+        Builder(SourceHandler sourceHandler) {
+            this.sourceHandler = sourceHandler;
+        }
+
+        @Override
+        public Http2SourceHandler build() {
+            return super.build();
+        }
+
+        @Override
+        protected Http2SourceHandler build(Http2ConnectionDecoder decoder, Http2ConnectionEncoder encoder,
+                Http2Settings initialSettings) {
+            Http2SourceHandler handler = new Http2SourceHandler(decoder, encoder, initialSettings, sourceHandler);
+            frameListener(handler.new StreamListener());
+            return handler;
+        }
+    }
+}
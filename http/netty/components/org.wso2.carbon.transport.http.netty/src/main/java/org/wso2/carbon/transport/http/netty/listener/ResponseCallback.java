@@ -16,12 +16,10 @@
 package org.wso2.carbon.transport.http.netty.listener;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.DefaultHttpContent;
-import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.LastHttpContent;
 import org.slf4j.Logger;
@@ -33,6 +31,7 @@ import org.wso2.carbon.messaging.MessageDataSource;
 import org.wso2.carbon.transport.http.netty.common.Constants;
 import org.wso2.carbon.transport.http.netty.common.Util;
 import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
+import org.wso2.carbon.transport.http.netty.message.ChannelContentWriter;
 import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
 
 import java.nio.ByteBuffer;
@@ -43,6 +42,7 @@ import java.nio.ByteBuffer;
 public class ResponseCallback implements CarbonCallback {
 
     private ChannelHandlerContext ctx;
+    private ResponseSlotQueue.Slot slot;
 
     private static final Logger logger = LoggerFactory.getLogger(ResponseCallback.class);
     private static final String HTTP_CONNECTION_CLOSE = "close";
@@ -51,41 +51,53 @@ public class ResponseCallback implements CarbonCallback {
         this.ctx = channelHandlerContext;
     }
 
+    /**
+     * @param channelHandlerContext context of the source channel
+     * @param slot                  position of the response among the responses pipelined on the source channel
+     */
+    ResponseCallback(ChannelHandlerContext channelHandlerContext, ResponseSlotQueue.Slot slot) {
+        this.ctx = channelHandlerContext;
+        this.slot = slot;
+    }
+
     public void done(CarbonMessage cMsg) {
         handleResponsesWithoutContentLength(cMsg);
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
             HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtSourceResponseReceiving(cMsg);
         }
+        if (slot == null) {
+            writeResponse(cMsg);
+        } else if ((cMsg instanceof HTTPCarbonMessage && cMsg.isBufferContent()) || ctx.executor().inEventLoop()) {
+            // Written without blocking, hence it may be started from the event loop once earlier responses are out
+            slot.write(() -> writeResponse(cMsg));
+        } else {
+            slot.awaitTurn();
+            writeResponse(cMsg);
+        }
+    }
+
+    private void writeResponse(CarbonMessage cMsg) {
         final HttpResponse response = Util.createHttpResponse(cMsg);
         ctx.write(response);
 
         if (!cMsg.isBufferContent()) {
-            cMsg.setWriter(new ResponseContentWriter(ctx));
+            cMsg.setWriter(new ResponseContentWriter(ctx, this::onResponseWritten));
         } else {
 
             if (cMsg instanceof HTTPCarbonMessage) {
-                HTTPCarbonMessage nettyCMsg = (HTTPCarbonMessage) cMsg;
-                while (true) {
-                    if (nettyCMsg.isEndOfMsgAdded() && nettyCMsg.isEmpty()) {
-                        ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
-                        break;
+                // Content is written from the event loop of the channel as it arrives, nothing blocks here
+                new ChannelContentWriter(ctx.channel(), (HTTPCarbonMessage) cMsg, future -> {
+                    if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+                        HTTPTransportContextHolder.getInstance().getHandlerExecutor().
+                                executeAtSourceResponseSending(cMsg);
                     }
-                    HttpContent httpContent = nettyCMsg.getHttpContent();
-                    if (httpContent instanceof LastHttpContent) {
-                        ctx.writeAndFlush(httpContent);
-                        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
-                            HTTPTransportContextHolder.getInstance().getHandlerExecutor().
-                                    executeAtSourceResponseSending(cMsg);
-                        }
-                        break;
-                    }
-                    ctx.write(httpContent);
-                }
+                    onResponseWritten();
+                }).start();
             } else if (cMsg instanceof DefaultCarbonMessage) {
                 DefaultCarbonMessage defaultCMsg = (DefaultCarbonMessage) cMsg;
                 while (true) {
                     ByteBuffer byteBuffer = defaultCMsg.getMessageBody();
-                    ByteBuf bbuf = Unpooled.wrappedBuffer(byteBuffer);
+                    ByteBuf bbuf = Util.copiedBuffer(ctx.alloc(), byteBuffer);
                     DefaultHttpContent httpContent = new DefaultHttpContent(bbuf);
                     ctx.write(httpContent);
                     if (defaultCMsg.isEndOfMsgAdded() && defaultCMsg.isEmpty()) {
@@ -98,6 +110,7 @@ public class ResponseCallback implements CarbonCallback {
                         if (connection != null && HTTP_CONNECTION_CLOSE.equalsIgnoreCase(connection)) {
                             future.addListener(ChannelFutureListener.CLOSE);
                         }
+                        onResponseWritten();
                         break;
                     }
                 }
@@ -105,6 +118,12 @@ public class ResponseCallback implements CarbonCallback {
         }
     }
 
+    private void onResponseWritten() {
+        if (slot != null) {
+            slot.complete();
+        }
+    }
+
     private void handleResponsesWithoutContentLength(CarbonMessage cMsg) {
         if (cMsg.isAlreadyRead()) {
             MessageDataSource messageDataSource = cMsg.getMessageDataSource();
@@ -118,8 +137,12 @@ public class ResponseCallback implements CarbonCallback {
         }
         if (cMsg.getHeader(Constants.HTTP_TRANSFER_ENCODING) == null
                 && cMsg.getHeader(Constants.HTTP_CONTENT_LENGTH) == null) {
-            cMsg.setHeader(Constants.HTTP_CONTENT_LENGTH, String.valueOf(cMsg.getFullMessageLength()));
-
+            if (cMsg instanceof HTTPCarbonMessage && !((HTTPCarbonMessage) cMsg).isContentLengthKnown()) {
+                // Do not wait for the rest of the body to compute the length, stream it in chunks instead
+                cMsg.setHeader(Constants.HTTP_TRANSFER_ENCODING, Constants.CHUNKED);
+            } else {
+                cMsg.setHeader(Constants.HTTP_CONTENT_LENGTH, String.valueOf(cMsg.getFullMessageLength()));
+            }
         }
     }
 }
@@ -19,7 +19,6 @@
 package org.wso2.carbon.transport.http.netty.listener;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -28,6 +27,7 @@ import io.netty.handler.codec.http.LastHttpContent;
 import org.wso2.carbon.messaging.CarbonMessage;
 import org.wso2.carbon.messaging.Writer;
 import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.Util;
 import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
 
 import java.nio.ByteBuffer;
@@ -38,6 +38,7 @@ import java.nio.ByteBuffer;
 public class ResponseContentWriter implements Writer {
 
     private ChannelHandlerContext channelHandlerContext;
+    private Runnable onComplete;
 
     private static final String HTTP_CONNECTION_CLOSE = "close";
 
@@ -45,11 +46,25 @@ public class ResponseContentWriter implements Writer {
         this.channelHandlerContext = channelHandlerContext;
     }
 
+    /**
+     * @param channelHandlerContext context of the source channel
+     * @param onComplete            invoked once the end of the response is handed to the channel
+     */
+    public ResponseContentWriter(ChannelHandlerContext channelHandlerContext, Runnable onComplete) {
+        this.channelHandlerContext = channelHandlerContext;
+        this.onComplete = onComplete;
+    }
+
     @Override
     public void write(ByteBuffer byteBuffer) {
-        ByteBuf bbuf = Unpooled.copiedBuffer(byteBuffer);
+        ByteBuf bbuf = Util.copiedBuffer(channelHandlerContext.alloc(), byteBuffer);
         DefaultHttpContent httpContent = new DefaultHttpContent(bbuf);
-        this.channelHandlerContext.write(httpContent);
+        ChannelFuture future = this.channelHandlerContext.write(httpContent);
+        if (!channelHandlerContext.channel().isWritable() && !channelHandlerContext.executor().inEventLoop()) {
+            // Hold the writing thread until the client catches up rather than buffering without bound
+            channelHandlerContext.flush();
+            future.awaitUninterruptibly();
+        }
     }
 
     @Override
@@ -63,5 +78,8 @@ public class ResponseContentWriter implements Writer {
         if (connection != null && HTTP_CONNECTION_CLOSE.equalsIgnoreCase(connection)) {
             future.addListener(ChannelFutureListener.CLOSE);
         }
+        if (onComplete != null) {
+            onComplete.run();
+        }
     }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.listener;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.common.ReadPauseArbiter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the responses of the requests pipelined on an HTTP/1.1 connection in the order of the requests.
+ * <p>
+ * A slot is taken for each request as it is read. Responses may be produced in any order, but a response is only
+ * written once the responses of all earlier requests are handed to the connection. Responses written from the event
+ * loop are started from there when their turn comes, other threads wait for their turn like they wait for the
+ * connection to become writable.
+ * <p>
+ * Reading from the connection is paused while the configured number of requests await their responses. Only
+ * requests which are read in full count towards the limit, so that a request is never kept from reading its own
+ * body, which its response may depend on. The pause is arbitrated with other reasons to pause reading through
+ * {@link ReadPauseArbiter}. A response
+ * which waits for its turn longer than the configured timeout closes the connection, as an earlier request is not
+ * going to be answered.
+ */
+class ResponseSlotQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseSlotQueue.class);
+
+    private final ChannelHandlerContext ctx;
+    private final int maxPipelinedRequests;
+    private final long timeoutNanos;
+
+    // Guarded by this, the head is the slot whose response is being written
+    private final Deque<Slot> slots = new ArrayDeque<>();
+    // Guarded by this, slots of requests read in full whose responses are not written yet
+    private int awaitingResponses;
+    private boolean closed;
+
+    // Only accessed from the event loop of the connection
+    private boolean readPaused;
+
+    /**
+     * @param ctx                  context of the source channel
+     * @param maxPipelinedRequests requests read in full which may await their responses before reading is paused
+     * @param timeoutSeconds       seconds a response waits for its turn, 0 waits without a limit
+     */
+    ResponseSlotQueue(ChannelHandlerContext ctx, int maxPipelinedRequests, int timeoutSeconds) {
+        this.ctx = ctx;
+        this.maxPipelinedRequests = Math.max(1, maxPipelinedRequests);
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(0, timeoutSeconds));
+    }
+
+    /**
+     * Take the slot of a request whose head was just read. Only called from the event loop of the connection.
+     *
+     * @return slot of the response to the request
+     */
+    Slot acquire() {
+        Slot slot = new Slot();
+        synchronized (this) {
+            slots.offerLast(slot);
+        }
+        return slot;
+    }
+
+    private void requestRead(Slot slot) {
+        int awaiting;
+        synchronized (this) {
+            if (slot.completed || slot.requestRead) {
+                return;
+            }
+            slot.requestRead = true;
+            awaiting = ++awaitingResponses;
+        }
+        if (awaiting >= maxPipelinedRequests && !readPaused) {
+            readPaused = true;
+            ReadPauseArbiter.pause(ctx.channel());
+            log.debug("Paused reading from {} as {} requests await their responses", ctx.channel(), awaiting);
+        }
+    }
+
+    /**
+     * Release the slots of a closed connection. Responses waiting for their turn are written to the closed
+     * connection, which fails them.
+     */
+    synchronized void close() {
+        closed = true;
+        for (Slot slot : slots) {
+            slot.cancelTimeout();
+        }
+        slots.clear();
+        notifyAll();
+    }
+
+    private void complete(Slot slot) {
+        Runnable next = null;
+        synchronized (this) {
+            if (slots.peekFirst() != slot) {
+                return;
+            }
+            slots.pollFirst();
+            slot.completed = true;
+            if (slot.requestRead) {
+                awaitingResponses--;
+            }
+            Slot head = slots.peekFirst();
+            if (head != null && head.writeTask != null) {
+                next = head.writeTask;
+                head.writeTask = null;
+                head.cancelTimeout();
+            }
+            notifyAll();
+        }
+        execute(this::resumeRead);
+        if (next != null) {
+            execute(next);
+        }
+    }
+
+    private void resumeRead() {
+        int awaiting;
+        synchronized (this) {
+            awaiting = awaitingResponses;
+        }
+        if (readPaused && awaiting < maxPipelinedRequests) {
+            readPaused = false;
+            ReadPauseArbiter.resume(ctx.channel());
+            log.debug("Pipelined requests no longer keep {} from reading", ctx.channel());
+        }
+    }
+
+    /**
+     * Close the connection once what was handed to it is written.
+     */
+    private void closeConnection() {
+        ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private void timedOut(Slot slot) {
+        synchronized (this) {
+            if (closed || slot.writeTask == null) {
+                return;
+            }
+            slot.writeTask = null;
+            slot.timeout = null;
+        }
+        log.warn("Closing {} as a response waited for the responses of earlier requests longer than {}s",
+                ctx.channel(), TimeUnit.NANOSECONDS.toSeconds(timeoutNanos));
+        ctx.channel().close();
+    }
+
+    private void execute(Runnable task) {
+        if (ctx.executor().inEventLoop()) {
+            task.run();
+        } else {
+            ctx.executor().execute(task);
+        }
+    }
+
+    /**
+     * Position of a response in the order of the requests of the connection.
+     */
+    final class Slot {
+
+        // Guarded by the queue
+        private Runnable writeTask;
+        private ScheduledFuture<?> timeout;
+        private boolean requestRead;
+        private boolean completed;
+
+        private Slot() {
+        }
+
+        /**
+         * Write the response right away if all earlier responses are written, otherwise from the event loop once they
+         * are. The task must call {@link #complete()} once the end of the response is handed to the connection.
+         *
+         * @param task writes the response without blocking
+         */
+        void write(Runnable task) {
+            synchronized (ResponseSlotQueue.this) {
+                if (!closed && slots.peekFirst() != this) {
+                    writeTask = task;
+                    if (timeoutNanos > 0) {
+                        timeout = ctx.executor().schedule(() -> timedOut(this), timeoutNanos, TimeUnit.NANOSECONDS);
+                    }
+                    return;
+                }
+            }
+            task.run();
+        }
+
+        /**
+         * Block the calling thread until all earlier responses are written, or close the connection if that takes
+         * longer than the timeout. Must not be called from the event loop.
+         */
+        void awaitTurn() {
+            long deadline = System.nanoTime() + timeoutNanos;
+            synchronized (ResponseSlotQueue.this) {
+                while (!closed && slots.peekFirst() != this) {
+                    try {
+                        if (timeoutNanos == 0) {
+                            ResponseSlotQueue.this.wait();
+                            continue;
+                        }
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(ResponseSlotQueue.this, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (closed || slots.peekFirst() == this) {
+                    return;
+                }
+            }
+            log.warn("Closing {} as a response waited for the responses of earlier requests longer than {}s",
+                    ctx.channel(), TimeUnit.NANOSECONDS.toSeconds(timeoutNanos));
+            ctx.channel().close();
+        }
+
+        /**
+         * Give up on the response, as the request could not be handed over. The responses of later requests would be
+         * taken for this one, hence the connection is closed once the responses of earlier requests are written.
+         */
+        void abandon() {
+            write(ResponseSlotQueue.this::closeConnection);
+        }
+
+        // Called with the queue locked once the write task is taken
+        private void cancelTimeout() {
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+        }
+
+        /**
+         * Count the request towards the limit of pipelined requests once its last content is read. Only called from
+         * the event loop of the connection.
+         */
+        void requestRead() {
+            ResponseSlotQueue.this.requestRead(this);
+        }
+
+        /**
+         * Let the response of the next request go out, once the end of this response is handed to the connection.
+         */
+        void complete() {
+            ResponseSlotQueue.this.complete(this);
+        }
+    }
+}
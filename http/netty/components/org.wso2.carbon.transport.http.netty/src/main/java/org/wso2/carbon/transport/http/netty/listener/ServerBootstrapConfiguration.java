@@ -15,7 +15,10 @@
 
 package org.wso2.carbon.transport.http.netty.listener;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.NativeTransport;
 import org.wso2.carbon.transport.http.netty.config.TransportProperty;
 
 import java.util.Set;
@@ -25,6 +28,8 @@ import java.util.Set;
  */
 public class ServerBootstrapConfiguration {
 
+    private static final Logger log = LoggerFactory.getLogger(ServerBootstrapConfiguration.class);
+
     private static ServerBootstrapConfiguration bootstrapConfig;
 
     private boolean tcpNoDelay = true;
@@ -43,6 +48,14 @@ public class ServerBootstrapConfiguration {
 
     private int socketTimeOut = 15;
 
+    private int writeBufferHighWaterMark = 64 * 1024;
+
+    private int writeBufferLowWaterMark = 32 * 1024;
+
+    private boolean nativeTransport = false;
+
+    private int acceptorCount = 1;
+
     private ServerBootstrapConfiguration(Set<TransportProperty> properties) {
 
         if (properties != null) {
@@ -63,9 +76,25 @@ public class ServerBootstrapConfiguration {
                     soBackLog = (Integer) (parameter.getValue());
                 } else if (Constants.SERVER_BOOTSTRAP_SO_TIMEOUT.equals(parameter.getName())) {
                     socketTimeOut = (Integer) (parameter.getValue());
+                } else if (Constants.SERVER_BOOTSTRAP_WRITE_BUFFER_HIGH_WATER_MARK.equals(parameter.getName())) {
+                    writeBufferHighWaterMark = (Integer) (parameter.getValue());
+                } else if (Constants.SERVER_BOOTSTRAP_WRITE_BUFFER_LOW_WATER_MARK.equals(parameter.getName())) {
+                    writeBufferLowWaterMark = (Integer) (parameter.getValue());
+                } else if (Constants.SERVER_BOOTSTRAP_NATIVE_TRANSPORT.equals(parameter.getName())) {
+                    nativeTransport = (Boolean) (parameter.getValue());
+                } else if (Constants.SERVER_BOOTSTRAP_ACCEPTOR_COUNT.equals(parameter.getName())) {
+                    acceptorCount = (Integer) (parameter.getValue());
                 }
             });
         }
+        nativeTransport = NativeTransport.resolve(nativeTransport, Constants.SERVER_BOOTSTRAP_NATIVE_TRANSPORT);
+        if (acceptorCount > 1 && !nativeTransport) {
+            log.warn(Constants.SERVER_BOOTSTRAP_ACCEPTOR_COUNT + " requires SO_REUSEPORT of the native transport, "
+                    + "hence a single acceptor is used");
+            acceptorCount = 1;
+        } else if (acceptorCount < 1) {
+            acceptorCount = 1;
+        }
     }
 
     public boolean isTcpNoDelay() {
@@ -96,6 +125,28 @@ public class ServerBootstrapConfiguration {
         return soBackLog;
     }
 
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * @return true if the native epoll transport is configured and available
+     */
+    public boolean isNativeTransport() {
+        return nativeTransport;
+    }
+
+    /**
+     * @return number of listening sockets bound to each address with SO_REUSEPORT
+     */
+    public int getAcceptorCount() {
+        return acceptorCount;
+    }
+
     public static ServerBootstrapConfiguration getInstance() {
         return bootstrapConfig;
     }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.listener;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpRequest;
+import org.wso2.carbon.transport.http.netty.common.ConnectionInfo;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
+import org.wso2.carbon.transport.http.netty.message.TransportMetadata;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Transport properties of the requests received over a single source connection.
+ * <p>
+ * Connection level values are computed once and shared by every request of the connection, request level values
+ * are read from the {@link HttpRequest} held by the message. Nothing is put into the property map of a message until
+ * the property is read.
+ */
+public class SourceConnectionMetadata implements TransportMetadata {
+
+    private static final Set<String> PROPERTY_KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            Constants.PORT, Constants.HOST, Constants.TO, Constants.CHNL_HNDLR_CTX, Constants.SRC_HNDLR,
+            Constants.HTTP_VERSION, Constants.HTTP_METHOD, org.wso2.carbon.messaging.Constants.LISTENER_PORT,
+            org.wso2.carbon.messaging.Constants.LISTENER_INTERFACE_ID, org.wso2.carbon.messaging.Constants.PROTOCOL,
+            Constants.IS_SECURED_CONNECTION, Constants.LOCAL_ADDRESS, Constants.LOCAL_NAME, Constants.REMOTE_ADDRESS,
+            Constants.REMOTE_HOST, Constants.REMOTE_PORT, Constants.REQUEST_URL, Constants.CHANNEL_ID)));
+
+    private final ConnectionInfo connectionInfo;
+    private final ChannelHandlerContext ctx;
+    private final SourceHandler sourceHandler;
+    private final String listenerId;
+    private final boolean secured;
+
+    public SourceConnectionMetadata(ConnectionInfo connectionInfo, ChannelHandlerContext ctx,
+            SourceHandler sourceHandler) {
+        this.connectionInfo = connectionInfo;
+        this.ctx = ctx;
+        this.sourceHandler = sourceHandler;
+        this.listenerId = sourceHandler.getListenerConfiguration().getId();
+        this.secured = sourceHandler.getListenerConfiguration().getSslConfig() != null;
+    }
+
+    public ConnectionInfo getConnectionInfo() {
+        return connectionInfo;
+    }
+
+    public boolean isSecured() {
+        return secured;
+    }
+
+    @Override
+    public Set<String> getPropertyKeys() {
+        return PROPERTY_KEYS;
+    }
+
+    @Override
+    public Object getProperty(String key, HTTPCarbonMessage carbonMessage) {
+        HttpRequest httpRequest = carbonMessage.getHttpRequest();
+        switch (key) {
+        case Constants.PORT:
+        case Constants.REMOTE_PORT:
+            return connectionInfo.getRemotePort();
+        case Constants.HOST:
+        case Constants.REMOTE_HOST:
+            return connectionInfo.getRemoteHost();
+        case Constants.REMOTE_ADDRESS:
+            return connectionInfo.getRemoteAddress();
+        case Constants.LOCAL_ADDRESS:
+            return connectionInfo.getLocalAddress();
+        case Constants.LOCAL_NAME:
+            return connectionInfo.getLocalHost();
+        case org.wso2.carbon.messaging.Constants.LISTENER_PORT:
+            return connectionInfo.getLocalPort();
+        case Constants.CHNL_HNDLR_CTX:
+            return ctx;
+        case Constants.SRC_HNDLR:
+            return sourceHandler;
+        case org.wso2.carbon.messaging.Constants.LISTENER_INTERFACE_ID:
+        case Constants.CHANNEL_ID:
+            return listenerId;
+        case Constants.IS_SECURED_CONNECTION:
+            return secured;
+        case Constants.TO:
+        case Constants.REQUEST_URL:
+            return httpRequest != null ? httpRequest.getUri() : null;
+        case Constants.HTTP_VERSION:
+            return httpRequest != null ? httpRequest.getProtocolVersion().text() : null;
+        case Constants.HTTP_METHOD:
+            return httpRequest != null ? httpRequest.getMethod().name() : null;
+        case org.wso2.carbon.messaging.Constants.PROTOCOL:
+            return httpRequest != null ? httpRequest.getProtocolVersion().protocolName() : null;
+        default:
+            return null;
+        }
+    }
+}
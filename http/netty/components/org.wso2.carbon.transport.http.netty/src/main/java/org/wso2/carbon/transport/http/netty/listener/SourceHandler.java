@@ -18,7 +18,6 @@ package org.wso2.carbon.transport.http.netty.listener;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelPipeline;
@@ -30,25 +29,24 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
-import org.apache.commons.pool.impl.GenericObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.wso2.carbon.messaging.CarbonCallback;
 import org.wso2.carbon.messaging.CarbonMessage;
 import org.wso2.carbon.messaging.CarbonMessageProcessor;
-import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.ConnectionInfo;
 import org.wso2.carbon.transport.http.netty.common.HttpRoute;
-import org.wso2.carbon.transport.http.netty.common.Util;
 import org.wso2.carbon.transport.http.netty.config.ListenerConfiguration;
 import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
+import org.wso2.carbon.transport.http.netty.message.ChannelContentWriter;
 import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
 import org.wso2.carbon.transport.http.netty.sender.channel.TargetChannel;
 import org.wso2.carbon.transport.http.netty.sender.channel.pool.ConnectionManager;
 
-import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A Class responsible for handle  incoming message through netty inbound pipeline.
@@ -60,9 +58,17 @@ public class SourceHandler extends ChannelInboundHandlerAdapter {
     protected HTTPCarbonMessage cMsg;
     protected ConnectionManager connectionManager;
     private Map<String, TargetChannel> channelFutureMap = new HashMap<>();
-    protected Map<String, GenericObjectPool> targetChannelPool;
+    // Target channels with requests of this connection in flight, only accessed from the event loop
+    private Set<TargetChannel> inFlightTargetChannels = new HashSet<>();
     protected ListenerConfiguration listenerConfiguration;
+    private SourceConnectionMetadata sourceConnectionMetadata;
     private WebSocketServerHandshaker handshaker;
+    private boolean multiplexed;
+    private ResponseSlotQueue responseSlots;
+    // Slot of the request being read, until its last content is read
+    private ResponseSlotQueue.Slot readingSlot;
+    // Set up once per connection, by handlerAdded or channelActive whichever sees the channel active first
+    private boolean connectionStarted;
 
 
     public ListenerConfiguration getListenerConfiguration() {
@@ -75,8 +81,21 @@ public class SourceHandler extends ChannelInboundHandlerAdapter {
         this.connectionManager = connectionManager;
     }
 
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        // Added once HTTP/1.1 is chosen on a connection which is already active, no channelActive follows then.
+        // Accepted connections are active when the initializer adds the handler too, but channelActive follows.
+        if (ctx.channel().isActive()) {
+            channelActive(ctx);
+        }
+    }
+
     @Override
     public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        if (connectionStarted) {
+            return;
+        }
+        connectionStarted = true;
         // Start the server connection Timer
 
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
@@ -86,8 +105,12 @@ public class SourceHandler extends ChannelInboundHandlerAdapter {
         }
 
         this.ctx = ctx;
-        this.targetChannelPool = connectionManager.getTargetChannelPool();
-
+        // Address details are computed once per connection rather than for each request
+        getSourceConnectionMetadata();
+        ListenerConfiguration config = listenerConfiguration != null ? listenerConfiguration
+                : new ListenerConfiguration();
+        responseSlots = new ResponseSlotQueue(ctx, config.getMaxPipelinedRequests(),
+                config.getPipelinedResponseTimeout());
     }
 
     @SuppressWarnings("unchecked")
@@ -100,6 +123,7 @@ public class SourceHandler extends ChannelInboundHandlerAdapter {
             ByteBuf content = ((FullHttpMessage) msg).content();
             cMsg.addHttpContent(new DefaultLastHttpContent(content));
             cMsg.setEndOfMsgAdded(true);
+            onRequestRead();
             if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
                 HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtSourceRequestSending(cMsg);
             }
@@ -136,6 +160,7 @@ public class SourceHandler extends ChannelInboundHandlerAdapter {
                     cMsg.addHttpContent(httpContent);
                     if (msg instanceof LastHttpContent) {
                         cMsg.setEndOfMsgAdded(true);
+                        onRequestRead();
                         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
 
                             HTTPTransportContextHolder.getInstance().getHandlerExecutor().
@@ -174,17 +199,17 @@ public class SourceHandler extends ChannelInboundHandlerAdapter {
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
             HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtSourceRequestReceiving(cMsg);
         }
+        // Pipelined requests are answered in the order they are read, whichever response is ready first
+        ResponseSlotQueue.Slot slot = responseSlots.acquire();
+        readingSlot = slot;
+        ResponseCallback responseCallback = new ResponseCallback(this.ctx, slot);
 
         boolean continueRequest = true;
 
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
 
             continueRequest = HTTPTransportContextHolder.getInstance().getHandlerExecutor()
-                    .executeRequestContinuationValidator(cMsg, carbonMessage -> {
-                        CarbonCallback responseCallback = (CarbonCallback) cMsg
-                                .getProperty(org.wso2.carbon.messaging.Constants.CALL_BACK);
-                        responseCallback.done(carbonMessage);
-                    });
+                    .executeRequestContinuationValidator(cMsg, responseCallback::done);
 
         }
         if (continueRequest) {
@@ -192,30 +217,81 @@ public class SourceHandler extends ChannelInboundHandlerAdapter {
                     .getMessageProcessor();
             if (carbonMessageProcessor != null) {
                 try {
-                    carbonMessageProcessor.receive(cMsg, new ResponseCallback(this.ctx));
+                    carbonMessageProcessor.receive(cMsg, responseCallback);
                 } catch (Exception e) {
                     log.error("Error while submitting CarbonMessage to CarbonMessageProcessor", e);
+                    slot.abandon();
                 }
             } else {
                 log.error("Cannot find registered MessageProcessor for forward the message");
+                slot.abandon();
             }
         }
 
     }
 
+    /**
+     * Let the request which was read in full count towards the limit of pipelined requests.
+     */
+    private void onRequestRead() {
+        if (readingSlot != null) {
+            readingSlot.requestRead();
+            readingSlot = null;
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // Response content waiting for the client to catch up, reading from the BE is paused meanwhile
+        ChannelContentWriter.writabilityChanged(ctx.channel());
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         // Stop the connector timer
         ctx.close();
+        if (responseSlots != null) {
+            responseSlots.close();
+        }
+        cancelTargetRequests();
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
             HTTPTransportContextHolder.getInstance().getHandlerExecutor()
                     .executeAtSourceConnectionTermination(Integer.toString(ctx.hashCode()));
         }
-        connectionManager.notifyChannelInactive();
     }
 
     public void addTargetChannel(HttpRoute route, TargetChannel targetChannel) {
         channelFutureMap.put(route.toString(), targetChannel);
+        inFlightTargetChannels.add(targetChannel);
+        if (ctx != null && !ctx.channel().isActive() && targetChannel.getTargetHandler() != null) {
+            // The client went away while the connection was being established
+            targetChannel.getTargetHandler().cancelRequests(this);
+        }
+    }
+
+    /**
+     * Stop tracking a target channel once none of the requests of this connection are pending on it.
+     *
+     * @param targetChannel target channel the requests were sent through
+     */
+    public void removeInFlightTargetChannel(TargetChannel targetChannel) {
+        inFlightTargetChannels.remove(targetChannel);
+    }
+
+    /**
+     * Cancel the requests of this connection still in flight to BEs, as their responses can no longer be written.
+     */
+    void cancelTargetRequests() {
+        Set<TargetChannel> targetChannels = new HashSet<>(inFlightTargetChannels);
+        targetChannels.addAll(channelFutureMap.values());
+        inFlightTargetChannels.clear();
+        channelFutureMap.clear();
+        for (TargetChannel targetChannel : targetChannels) {
+            if (targetChannel.getTargetHandler() != null) {
+                targetChannel.getTargetHandler().cancelRequests(this);
+            }
+        }
     }
 
     public void removeChannelFuture(HttpRoute route) {
@@ -227,8 +303,42 @@ public class SourceHandler extends ChannelInboundHandlerAdapter {
         return channelFutureMap.get(route.toString());
     }
 
-    public Map<String, GenericObjectPool> getTargetChannelPool() {
-        return targetChannelPool;
+    /**
+     * Provide the address details of the source connection, computed once per connection.
+     *
+     * @param ctx context of the source channel
+     * @return ConnectionInfo of the source connection
+     */
+    protected ConnectionInfo getConnectionInfo(ChannelHandlerContext ctx) {
+        if (sourceConnectionMetadata == null) {
+            sourceConnectionMetadata = new SourceConnectionMetadata(new ConnectionInfo(ctx.channel()), ctx, this);
+        }
+        return sourceConnectionMetadata.getConnectionInfo();
+    }
+
+    /**
+     * Bind this handler to an HTTP/2 connection instead of adding it to the pipeline. It then only represents the
+     * source connection towards the sender, so that target channels share the event loop of the connection.
+     *
+     * @param ctx context of the HTTP/2 connection handler
+     */
+    void bindHttp2Connection(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        this.multiplexed = true;
+        getSourceConnectionMetadata();
+    }
+
+    /**
+     * @return true if requests of the source connection are in flight concurrently, in which case target channels
+     * must not be cached per source connection
+     */
+    public boolean isMultiplexed() {
+        return multiplexed;
+    }
+
+    SourceConnectionMetadata getSourceConnectionMetadata() {
+        getConnectionInfo(ctx);
+        return sourceConnectionMetadata;
     }
 
     public ChannelHandlerContext getInboundChannelContext() {
@@ -244,39 +354,15 @@ public class SourceHandler extends ChannelInboundHandlerAdapter {
 
     protected CarbonMessage setupCarbonMessage(Object msg) {
         cMsg = new HTTPCarbonMessage();
+        cMsg.setProducerChannel(ctx.channel());
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
             HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtSourceRequestReceiving(cMsg);
         }
-        cMsg.setProperty(Constants.PORT, ((InetSocketAddress) ctx.channel().remoteAddress()).getPort());
-        cMsg.setProperty(Constants.HOST, ((InetSocketAddress) ctx.channel().remoteAddress()).getHostName());
-
         HttpRequest httpRequest = (HttpRequest) msg;
+        // Transport properties are resolved from the connection metadata when a processor reads them
+        cMsg.setTransportMetadata(getSourceConnectionMetadata(), httpRequest);
 
-        cMsg.setProperty(Constants.TO, httpRequest.getUri());
-        cMsg.setProperty(Constants.CHNL_HNDLR_CTX, this.ctx);
-        cMsg.setProperty(Constants.SRC_HNDLR, this);
-        cMsg.setProperty(Constants.HTTP_VERSION, httpRequest.getProtocolVersion().text());
-        cMsg.setProperty(Constants.HTTP_METHOD, httpRequest.getMethod().name());
-        cMsg.setProperty(org.wso2.carbon.messaging.Constants.LISTENER_PORT,
-                ((InetSocketAddress) ctx.channel().localAddress()).getPort());
-        cMsg.setProperty(org.wso2.carbon.messaging.Constants.LISTENER_INTERFACE_ID, listenerConfiguration.getId());
-        cMsg.setProperty(org.wso2.carbon.messaging.Constants.PROTOCOL, httpRequest.getProtocolVersion().protocolName());
-        if (listenerConfiguration.getSslConfig() != null) {
-            cMsg.setProperty(Constants.IS_SECURED_CONNECTION, true);
-        } else {
-            cMsg.setProperty(Constants.IS_SECURED_CONNECTION, false);
-        }
-        cMsg.setProperty(Constants.LOCAL_ADDRESS, ctx.channel().localAddress());
-        cMsg.setProperty(Constants.LOCAL_NAME, ((InetSocketAddress) ctx.channel().localAddress()).getHostName());
-        cMsg.setProperty(Constants.REMOTE_ADDRESS, ctx.channel().remoteAddress());
-        cMsg.setProperty(Constants.REMOTE_HOST, ((InetSocketAddress) ctx.channel().remoteAddress()).getHostName());
-        cMsg.setProperty(Constants.REMOTE_PORT, ((InetSocketAddress) ctx.channel().remoteAddress()).getPort());
-        cMsg.setProperty(Constants.REQUEST_URL, httpRequest.getUri());
-        ChannelHandler handler = ctx.handler();
-
-        cMsg.setProperty(Constants.CHANNEL_ID, ((SourceHandler) handler).getListenerConfiguration().getId());
-
-        cMsg.setHeaders(Util.getHeaders(httpRequest).getAll());
+        cMsg.setHttpHeaders(httpRequest.headers());
         return cMsg;
     }
 }
@@ -32,13 +32,13 @@ import org.wso2.carbon.messaging.websocket.BinaryWebSocketCarbonMessage;
 import org.wso2.carbon.messaging.websocket.CloseWebSocketCarbonMessage;
 import org.wso2.carbon.messaging.websocket.TextWebSocketCarbonMessage;
 import org.wso2.carbon.messaging.websocket.WebSocketResponder;
+import org.wso2.carbon.transport.http.netty.common.ConnectionInfo;
 import org.wso2.carbon.transport.http.netty.common.Constants;
 import org.wso2.carbon.transport.http.netty.config.ListenerConfiguration;
 import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
 import org.wso2.carbon.transport.http.netty.internal.WebSocketResponderImpl;
 import org.wso2.carbon.transport.http.netty.sender.channel.pool.ConnectionManager;
 
-import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.ByteBuffer;
 
@@ -66,7 +66,9 @@ public class WebSocketSourceHandler extends SourceHandler {
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         super.channelActive(ctx);
         //Only one WebSocketResponder is needed for a pipeline
-        webSocketResponder = new WebSocketResponderImpl(this.ctx);
+        if (webSocketResponder == null) {
+            webSocketResponder = new WebSocketResponderImpl(this.ctx);
+        }
     }
 
     /**
@@ -144,19 +146,19 @@ public class WebSocketSourceHandler extends SourceHandler {
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
             HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtSourceRequestReceiving(cMsg);
         }
-        cMsg.setProperty(Constants.PORT, ((InetSocketAddress) ctx.channel().remoteAddress()).getPort());
-        cMsg.setProperty(Constants.HOST, ((InetSocketAddress) ctx.channel().remoteAddress()).getHostName());
+        ConnectionInfo connection = getConnectionInfo(ctx);
+        cMsg.setProperty(Constants.PORT, connection.getRemotePort());
+        cMsg.setProperty(Constants.HOST, connection.getRemoteHost());
 
         cMsg.setProperty(Constants.TO, this.uri);
 
-        cMsg.setProperty(org.wso2.carbon.messaging.Constants.LISTENER_PORT,
-                         ((InetSocketAddress) ctx.channel().localAddress()).getPort());
+        cMsg.setProperty(org.wso2.carbon.messaging.Constants.LISTENER_PORT, connection.getLocalPort());
 
-        cMsg.setProperty(Constants.LOCAL_ADDRESS, ctx.channel().localAddress());
-        cMsg.setProperty(Constants.LOCAL_NAME, ((InetSocketAddress) ctx.channel().localAddress()).getHostName());
-        cMsg.setProperty(Constants.REMOTE_ADDRESS, ctx.channel().remoteAddress());
-        cMsg.setProperty(Constants.REMOTE_HOST, ((InetSocketAddress) ctx.channel().remoteAddress()).getHostName());
-        cMsg.setProperty(Constants.REMOTE_PORT, ((InetSocketAddress) ctx.channel().remoteAddress()).getPort());
+        cMsg.setProperty(Constants.LOCAL_ADDRESS, connection.getLocalAddress());
+        cMsg.setProperty(Constants.LOCAL_NAME, connection.getLocalHost());
+        cMsg.setProperty(Constants.REMOTE_ADDRESS, connection.getRemoteAddress());
+        cMsg.setProperty(Constants.REMOTE_HOST, connection.getRemoteHost());
+        cMsg.setProperty(Constants.REMOTE_PORT, connection.getRemotePort());
         cMsg.setProperty(Constants.CHANNEL_ID, ctx.channel().toString());
     }
 }
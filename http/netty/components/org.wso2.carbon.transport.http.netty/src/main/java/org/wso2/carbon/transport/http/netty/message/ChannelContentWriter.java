@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.message;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Writes the content of a {@link HTTPCarbonMessage} to a channel as it arrives.
+ * <p>
+ * The writer registers itself as the content listener of the message and drains whatever is available on the event
+ * loop of the channel, so that no thread waits for the remaining content. Writes are flushed once per drain.
+ * <p>
+ * Once the queued content is drained, content added from the same event loop, such as passthrough traffic between a
+ * source and a target channel registered on one loop, is written as it is handed over without going through the
+ * queue of the message. The reference count of the content moves to the channel along with it.
+ * <p>
+ * Content is only written while the channel is writable. The rest stays queued in the message, which in turn pauses
+ * reading from the producer channel, until the handler of the channel reports the change of writability through
+ * {@link #writabilityChanged(Channel)}.
+ * <p>
+ * Subclasses writing to a part of a channel, such as an HTTP/2 stream, override how content is written, how
+ * writability is checked and how the writer is registered to be resumed.
+ */
+public class ChannelContentWriter implements Runnable {
+
+    private static final AttributeKey<ChannelContentWriter> WRITER = AttributeKey.valueOf("ChannelContentWriter");
+
+    private final Channel channel;
+    private final HTTPCarbonMessage carbonMessage;
+    private final Consumer<ChannelFuture> completionHandler;
+    // Collapses notifications from a foreign producer thread into a single pending drain task
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // Only accessed from the event loop of the channel
+    private boolean completed;
+
+    /**
+     * @param channel           channel to write the content to
+     * @param carbonMessage     message whose content is written
+     * @param completionHandler invoked with the future of the last write once the whole message is written
+     */
+    public ChannelContentWriter(Channel channel, HTTPCarbonMessage carbonMessage,
+            Consumer<ChannelFuture> completionHandler) {
+        this.channel = channel;
+        this.carbonMessage = carbonMessage;
+        this.completionHandler = completionHandler;
+    }
+
+    /**
+     * Start writing the content. Anything written to the channel before this call is written ahead of the content.
+     */
+    public void start() {
+        carbonMessage.setContentWriter(this);
+        register();
+        carbonMessage.setContentListener(this::schedule);
+        schedule();
+    }
+
+    /**
+     * Resume writing content once the destination becomes writable again.
+     */
+    public void resume() {
+        if (isWritable()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Resume writing content to the channel once it becomes writable again.
+     *
+     * @param channel channel whose writability changed
+     */
+    public static void writabilityChanged(Channel channel) {
+        ChannelContentWriter writer = channel.attr(WRITER).get();
+        if (writer != null) {
+            writer.resume();
+        }
+    }
+
+    @Override
+    public void run() {
+        scheduled.set(false);
+        if (completed) {
+            return;
+        }
+        HttpContent httpContent;
+        while (isWritable() && (httpContent = carbonMessage.pollHttpContent()) != null) {
+            if (httpContent instanceof LastHttpContent) {
+                complete(write(httpContent, true));
+                return;
+            }
+            write(httpContent, false);
+        }
+        if (carbonMessage.isEndOfMsgAdded() && carbonMessage.isEmpty()) {
+            complete(write(LastHttpContent.EMPTY_LAST_CONTENT, true));
+            return;
+        }
+        flush();
+        carbonMessage.setDirectWriter(this);
+    }
+
+    /**
+     * Write content as it is added to the message, bypassing the queue of the message.
+     *
+     * @param httpContent content added to the message
+     * @return false if the content must be queued instead, as the caller is not on the event loop of the channel,
+     * the channel is not writable or queued content is still to be written
+     */
+    boolean writeDirect(HttpContent httpContent) {
+        if (completed || !isWritable() || !channel.eventLoop().inEventLoop() || !carbonMessage.isEmpty()) {
+            return false;
+        }
+        if (httpContent instanceof LastHttpContent) {
+            complete(write(httpContent, true));
+        } else {
+            write(httpContent, true);
+        }
+        return true;
+    }
+
+    /**
+     * Stop writing as the message is released, then run the release from the event loop of the channel, where the
+     * writer takes content from the message. A message stopped before its end is written leaves the destination with
+     * a truncated message, which is aborted.
+     *
+     * @param release releases the content of the message
+     */
+    void stop(Runnable release) {
+        Runnable task = () -> {
+            if (!completed) {
+                completed = true;
+                detach();
+                abort();
+            }
+            release.run();
+        };
+        EventLoop eventLoop = channel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            task.run();
+        } else {
+            eventLoop.execute(task);
+        }
+    }
+
+    /**
+     * Abort a message whose content is not going to be written in full, by closing the channel.
+     */
+    protected void abort() {
+        channel.close();
+    }
+
+    /**
+     * Write content to the destination. Only called from the event loop of the channel.
+     *
+     * @param httpContent content to write, its reference count moves to the destination
+     * @param flush       whether to flush the channel after the write
+     * @return future of the write
+     */
+    protected ChannelFuture write(HttpContent httpContent, boolean flush) {
+        return flush ? channel.writeAndFlush(httpContent) : channel.write(httpContent);
+    }
+
+    protected void flush() {
+        channel.flush();
+    }
+
+    /**
+     * @return whether content can be written without buffering beyond the write buffer watermarks
+     */
+    protected boolean isWritable() {
+        return channel.isWritable();
+    }
+
+    /**
+     * Register this writer to be resumed when the destination becomes writable.
+     */
+    protected void register() {
+        channel.attr(WRITER).set(this);
+    }
+
+    protected void unregister() {
+        channel.attr(WRITER).compareAndSet(this, null);
+    }
+
+    private void schedule() {
+        EventLoop eventLoop = channel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            run();
+        } else if (scheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this);
+        }
+    }
+
+    private void complete(ChannelFuture future) {
+        completed = true;
+        detach();
+        if (completionHandler != null) {
+            completionHandler.accept(future);
+        }
+    }
+
+    private void detach() {
+        carbonMessage.setContentListener(null);
+        carbonMessage.setDirectWriter(null);
+        carbonMessage.setContentWriter(null);
+        unregister();
+    }
+}
@@ -19,19 +19,32 @@
 package org.wso2.carbon.transport.http.netty.message;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.LastHttpContent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.messaging.Header;
+import org.wso2.carbon.messaging.Headers;
+import org.wso2.carbon.transport.http.netty.common.AllocatorConfiguration;
+import org.wso2.carbon.transport.http.netty.common.ReadPauseArbiter;
+import org.wso2.carbon.transport.http.netty.common.Util;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
 
 /**
  * HTTP based representation for CarbonMessage.
@@ -40,41 +53,224 @@ public class HTTPCarbonMessage extends CarbonMessage {
 
     private static final Logger LOG = LoggerFactory.getLogger(HTTPCarbonMessage.class);
 
-    private BlockingQueue<HttpContent> httpContentQueue = new LinkedBlockingQueue<>();
-    private BlockingQueue<HttpContent> outContentQueue = new LinkedBlockingQueue<>();
-    private BlockingQueue<HttpContent> garbageCollected = new LinkedBlockingQueue<>();
+    private HttpContentQueue httpContentQueue = new HttpContentQueue();
+    private HttpContentQueue outContentQueue = new HttpContentQueue();
+    private HttpContentQueue garbageCollected = new HttpContentQueue();
+
+    // Bytes added to the message so far, maintained by the producer as content is added
+    private final AtomicInteger contentLength = new AtomicInteger();
+    private int outContentLength;
+    private volatile CompletableFuture<Integer> contentLengthFuture = new CompletableFuture<>();
+
+    private volatile Runnable contentListener;
+    private volatile ChannelContentWriter directWriter;
+    // Writer taking content from the queue on the event loop of its channel, while it writes this message
+    private volatile ChannelContentWriter contentWriter;
+
+    // Channel the content is read from, reading is paused while too much of its content is queued
+    private volatile Channel producerChannel;
+    private final AtomicInteger queuedBytes = new AtomicInteger();
+    private final AtomicBoolean readPaused = new AtomicBoolean();
+    // Told the bytes of content leaving the message instead, if it is read from an HTTP/2 stream
+    private volatile IntConsumer consumedBytesListener;
+
+    // Transport properties are read through these typed fields and only put into the property map when read
+    private TransportMetadata transportMetadata;
+    private HttpRequest httpRequest;
+
+    private HttpHeadersView headersView;
+    private volatile Thread waitingReader;
 
     public void addHttpContent(HttpContent httpContent) {
-        try {
-            httpContentQueue.put(httpContent);
-        } catch (InterruptedException e) {
-            LOG.error("Cannot put content to queue", e);
+        contentLength.addAndGet(httpContent.content().readableBytes());
+        ChannelContentWriter writer = directWriter;
+        int bytes = httpContent.content().readableBytes();
+        if (writer == null || !writer.writeDirect(httpContent)) {
+            httpContentQueue.offer(httpContent);
+            onContentQueued(httpContent);
+            notifyContentAvailable();
+        } else {
+            onContentConsumed(bytes);
+        }
+        if (httpContent instanceof LastHttpContent) {
+            completeContentLength();
+            detachProducer();
         }
     }
 
+    /**
+     * Blocks until content is available. Event loop threads must use {@link #pollHttpContent()} instead.
+     *
+     * @return next content of the message or null if interrupted while waiting
+     */
     public HttpContent getHttpContent() {
-        try {
-            return httpContentQueue.take();
-        } catch (InterruptedException e) {
-            LOG.error("Error while retrieving http content from queue.", e);
+        if (!awaitContent(() -> !httpContentQueue.isEmpty())) {
+            LOG.error("Interrupted while retrieving http content from queue.");
             return null;
         }
+        return onContentDequeued(httpContentQueue.poll());
+    }
+
+    /**
+     * Retrieve the next content of the message without blocking.
+     *
+     * @return next content of the message or null if it has not arrived yet
+     */
+    public HttpContent pollHttpContent() {
+        return onContentDequeued(httpContentQueue.poll());
+    }
+
+    /**
+     * Set the channel the content of this message is read from. Reading from the channel is paused while more than
+     * its high write buffer watermark of content is queued in this message, and resumed once the queued content
+     * drops below its low watermark, so that a slow consumer bounds the memory held per connection. The pause is
+     * withdrawn as well once the last content is added or the message is released, as the channel may carry another
+     * message by then. Reading only resumes once no other reason, see {@link ReadPauseArbiter}, keeps it paused.
+     *
+     * @param producerChannel channel adding content to this message
+     */
+    public void setProducerChannel(Channel producerChannel) {
+        this.producerChannel = producerChannel;
+    }
+
+    /**
+     * Flow control the content of this message per HTTP/2 stream rather than by pausing the channel, which carries
+     * the other streams of the connection too. The listener is told the bytes of each content leaving this message,
+     * by whichever thread consumes it, and hands them back to the flow control window of the stream. The peer thereby
+     * stops sending on the stream while its content is not consumed.
+     *
+     * @param consumedBytesListener listener told the bytes of content taken from this message
+     */
+    public void setConsumedBytesListener(IntConsumer consumedBytesListener) {
+        this.consumedBytesListener = consumedBytesListener;
+    }
+
+    /**
+     * Register a listener which is run by the producing thread each time content is added to the message and when
+     * the end of the message is marked. Consumers should drain with {@link #pollHttpContent()} after registering, as
+     * content added before the registration does not trigger the listener.
+     *
+     * @param contentListener listener to run or null to remove the current one
+     */
+    public void setContentListener(Runnable contentListener) {
+        this.contentListener = contentListener;
+    }
+
+    /**
+     * Hand content added from the event loop of the writer straight to the writer instead of queueing it.
+     *
+     * @param directWriter writer draining this message or null to queue all content
+     */
+    void setDirectWriter(ChannelContentWriter directWriter) {
+        this.directWriter = directWriter;
+    }
+
+    /**
+     * @param contentWriter writer consuming the content of this message or null once it is done
+     */
+    void setContentWriter(ChannelContentWriter contentWriter) {
+        this.contentWriter = contentWriter;
+    }
+
+    /**
+     * Back the transport properties of this message by metadata shared across the connection.
+     *
+     * @param transportMetadata per connection metadata
+     * @param httpRequest       request this message represents, request level properties are derived from it
+     */
+    public void setTransportMetadata(TransportMetadata transportMetadata, HttpRequest httpRequest) {
+        this.transportMetadata = transportMetadata;
+        this.httpRequest = httpRequest;
+    }
+
+    public TransportMetadata getTransportMetadata() {
+        return transportMetadata;
+    }
+
+    public HttpRequest getHttpRequest() {
+        return httpRequest;
+    }
+
+    /**
+     * Back the headers of this message by decoded Netty headers, which are only copied if the headers are modified.
+     *
+     * @param httpHeaders headers of the received HTTP message
+     */
+    public void setHttpHeaders(HttpHeaders httpHeaders) {
+        this.headersView = new HttpHeadersView(httpHeaders);
+    }
+
+    @Override
+    public Headers getHeaders() {
+        return headersView != null ? headersView : super.getHeaders();
+    }
+
+    @Override
+    public String getHeader(String key) {
+        return headersView != null ? headersView.get(key) : super.getHeader(key);
+    }
+
+    @Override
+    public void setHeader(String key, String value) {
+        if (headersView != null) {
+            headersView.set(key, value);
+        } else {
+            super.setHeader(key, value);
+        }
     }
 
     @Override
-    public ByteBuffer getMessageBody() {
-        try {
-            HttpContent httpContent = httpContentQueue.take();
-            if (httpContent instanceof LastHttpContent) {
-                super.setEndOfMsgAdded(true);
+    public void setHeaders(Map<String, String> headerMap) {
+        if (headersView != null) {
+            headersView.set(headerMap);
+        } else {
+            super.setHeaders(headerMap);
+        }
+    }
+
+    @Override
+    public void setHeaders(List<Header> headerList) {
+        if (headersView != null) {
+            headersView.set(headerList);
+        } else {
+            super.setHeaders(headerList);
+        }
+    }
+
+    @Override
+    public Object getProperty(String key) {
+        Object value = super.getProperty(key);
+        if (value == null && transportMetadata != null) {
+            value = transportMetadata.getProperty(key, this);
+            if (value != null) {
+                super.setProperty(key, value);
             }
-            ByteBuf buf = httpContent.content();
-            garbageCollected.add(httpContent);
-            return buf.nioBuffer();
-        } catch (InterruptedException e) {
-            LOG.error("Error while retrieving message body from queue.", e);
+        }
+        return value;
+    }
+
+    @Override
+    public Map<String, Object> getProperties() {
+        if (transportMetadata != null) {
+            for (String key : transportMetadata.getPropertyKeys()) {
+                getProperty(key);
+            }
+        }
+        return super.getProperties();
+    }
+
+    @Override
+    public ByteBuffer getMessageBody() {
+        HttpContent httpContent = getHttpContent();
+        if (httpContent == null) {
             return null;
         }
+        if (httpContent instanceof LastHttpContent) {
+            super.setEndOfMsgAdded(true);
+        }
+        ByteBuf buf = httpContent.content();
+        garbageCollected.offer(httpContent);
+        return buf.nioBuffer();
     }
 
     @Override
@@ -83,17 +279,17 @@ public class HTTPCarbonMessage extends CarbonMessage {
 
         boolean isEndOfMessageProcessed = false;
         while (!isEndOfMessageProcessed) {
-            try {
-                HttpContent httpContent = httpContentQueue.take();
-                if (httpContent instanceof LastHttpContent) {
-                    isEndOfMessageProcessed = true;
-                }
-                ByteBuf buf = httpContent.content();
-                garbageCollected.add(httpContent);
-                byteBufferList.add(buf.nioBuffer());
-            } catch (InterruptedException e) {
-                LOG.error("Error while getting full message body", e);
+            HttpContent httpContent = getHttpContent();
+            if (httpContent == null) {
+                LOG.error("Error while getting full message body");
+                continue;
+            }
+            if (httpContent instanceof LastHttpContent) {
+                isEndOfMessageProcessed = true;
             }
+            ByteBuf buf = httpContent.content();
+            garbageCollected.offer(httpContent);
+            byteBufferList.add(buf.nioBuffer());
         }
 
         return byteBufferList;
@@ -104,29 +300,42 @@ public class HTTPCarbonMessage extends CarbonMessage {
         return this.httpContentQueue.isEmpty();
     }
 
+    /**
+     * Length of the full message body. Returns immediately once the whole body has arrived, otherwise waits for the
+     * rest of it. Event loop threads must check {@link #isContentLengthKnown()} or chain on
+     * {@link #getContentLengthFuture()} instead.
+     *
+     * @return length of the message body in bytes
+     */
     @Override
     public int getFullMessageLength() {
-        List<HttpContent> contentList = new ArrayList<>();
-        boolean isEndOfMessageProcessed = false;
-        while (!isEndOfMessageProcessed) {
-            try {
-                HttpContent httpContent = httpContentQueue.take();
-                if ((httpContent instanceof LastHttpContent) || (isEndOfMsgAdded() && httpContentQueue.isEmpty())) {
-                    isEndOfMessageProcessed = true;
-                }
-                contentList.add(httpContent);
-
-            } catch (InterruptedException e) {
-                LOG.error("Error while getting full message length", e);
-            }
+        CompletableFuture<Integer> future = contentLengthFuture;
+        if (future.isDone()) {
+            return future.getNow(contentLength.get());
         }
-        int size = 0;
-        for (HttpContent httpContent : contentList) {
-            size += httpContent.content().readableBytes();
-            httpContentQueue.add(httpContent);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted while getting full message length", e);
+        } catch (ExecutionException e) {
+            LOG.error("Error while getting full message length", e);
         }
+        return contentLength.get();
+    }
+
+    /**
+     * @return true if the whole body has arrived, hence {@link #getFullMessageLength()} does not wait
+     */
+    public boolean isContentLengthKnown() {
+        return contentLengthFuture.isDone();
+    }
 
-        return size;
+    /**
+     * @return future completed with the length of the message body once the whole body has arrived
+     */
+    public CompletableFuture<Integer> getContentLengthFuture() {
+        return contentLengthFuture;
     }
 
     @Override
@@ -137,9 +346,14 @@ public class HTTPCarbonMessage extends CarbonMessage {
     @Override
     public void addMessageBody(ByteBuffer msgBody) {
         if (isAlreadyRead()) {
-            outContentQueue.add(new DefaultHttpContent(Unpooled.copiedBuffer(msgBody)));
+            outContentLength += msgBody.remaining();
+            outContentQueue.offer(new DefaultHttpContent(
+                    Util.copiedBuffer(AllocatorConfiguration.getAllocator(), msgBody)));
         } else if (httpContentQueue.isEmpty()) {
-            httpContentQueue.add(new DefaultHttpContent(Unpooled.copiedBuffer(msgBody)));
+            contentLength.addAndGet(msgBody.remaining());
+            httpContentQueue.offer(new DefaultHttpContent(
+                    Util.copiedBuffer(AllocatorConfiguration.getAllocator(), msgBody)));
+            notifyContentAvailable();
         } else {
             LOG.error("Please don't add message body before reading existing values");
         }
@@ -150,17 +364,134 @@ public class HTTPCarbonMessage extends CarbonMessage {
     public void setEndOfMsgAdded(boolean endOfMsgAdded) {
         super.setEndOfMsgAdded(endOfMsgAdded);
         if (isAlreadyRead()) {
-            outContentQueue.forEach(buffer -> {
-                httpContentQueue.add(buffer);
-            });
-            outContentQueue.clear();
+            // The original body has been consumed, the message now carries the body added by the processor
+            contentLength.set(outContentLength);
+            outContentLength = 0;
+            if (contentLengthFuture.isDone()) {
+                contentLengthFuture = new CompletableFuture<>();
+            }
+            HttpContent httpContent;
+            while ((httpContent = outContentQueue.poll()) != null) {
+                httpContentQueue.offer(httpContent);
+            }
+        }
+        notifyContentAvailable();
+        if (endOfMsgAdded) {
+            completeContentLength();
         }
-
     }
 
+    /**
+     * Release the content of this message. Content queued for a writer is released from the event loop of its
+     * channel once the writer is stopped, as the queue allows a single consumer only.
+     */
     @Override
     public void release() {
-        httpContentQueue.forEach(content -> content.release());
-        garbageCollected.forEach(content -> content.release());
+        ChannelContentWriter writer = contentWriter;
+        if (writer != null) {
+            writer.stop(this::releaseContent);
+        } else {
+            releaseContent();
+        }
+    }
+
+    private void releaseContent() {
+        HttpContent httpContent;
+        while ((httpContent = onContentDequeued(httpContentQueue.poll())) != null) {
+            httpContent.release();
+        }
+        while ((httpContent = garbageCollected.poll()) != null) {
+            httpContent.release();
+        }
+        detachProducer();
+    }
+
+    // Runs on the event loop of the producer channel
+    private void onContentQueued(HttpContent httpContent) {
+        Channel channel = producerChannel;
+        int queued = queuedBytes.addAndGet(httpContent.content().readableBytes());
+        if (channel != null && queued > channel.config().getWriteBufferHighWaterMark()
+                && readPaused.compareAndSet(false, true)) {
+            ReadPauseArbiter.pause(channel);
+            LOG.debug("Paused reading from {} as {} bytes are queued", channel, queued);
+        }
+    }
+
+    private HttpContent onContentDequeued(HttpContent httpContent) {
+        if (httpContent == null) {
+            return null;
+        }
+        int bytes = httpContent.content().readableBytes();
+        onContentConsumed(bytes);
+        Channel channel = producerChannel;
+        int queued = queuedBytes.addAndGet(-bytes);
+        if (channel != null && readPaused.get() && queued < channel.config().getWriteBufferLowWaterMark()) {
+            // Resume on the producer loop so that it is ordered after the pause
+            channel.eventLoop().execute(() -> {
+                if (readPaused.compareAndSet(true, false)) {
+                    ReadPauseArbiter.resume(channel);
+                    LOG.debug("Queued content no longer keeps {} from reading", channel);
+                }
+            });
+        }
+        return httpContent;
+    }
+
+    private void onContentConsumed(int bytes) {
+        IntConsumer listener = consumedBytesListener;
+        if (listener != null && bytes > 0) {
+            listener.accept(bytes);
+        }
+    }
+
+    /**
+     * Stop pausing the producer channel once no more content is added to this message or nobody consumes it.
+     */
+    private void detachProducer() {
+        Channel channel = producerChannel;
+        producerChannel = null;
+        if (channel == null || !readPaused.compareAndSet(true, false)) {
+            return;
+        }
+        if (channel.eventLoop().inEventLoop()) {
+            ReadPauseArbiter.resume(channel);
+        } else {
+            channel.eventLoop().execute(() -> ReadPauseArbiter.resume(channel));
+        }
+        LOG.debug("Queued content no longer keeps {} from reading as it adds no more content", channel);
+    }
+
+    private void completeContentLength() {
+        contentLengthFuture.complete(contentLength.get());
+    }
+
+    private void notifyContentAvailable() {
+        Runnable listener = contentListener;
+        if (listener != null) {
+            listener.run();
+        }
+        Thread reader = waitingReader;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    // Park the calling thread until the condition holds, returns false if interrupted while waiting
+    private boolean awaitContent(BooleanSupplier condition) {
+        if (condition.getAsBoolean()) {
+            return true;
+        }
+        waitingReader = Thread.currentThread();
+        try {
+            while (!condition.getAsBoolean()) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            waitingReader = null;
+        }
     }
 }
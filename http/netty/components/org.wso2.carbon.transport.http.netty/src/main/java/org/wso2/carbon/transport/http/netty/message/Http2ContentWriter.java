@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.message;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import org.wso2.carbon.transport.http.netty.common.BaseHttp2ConnectionHandler;
+
+import java.util.function.Consumer;
+
+/**
+ * Writes the content of a {@link HTTPCarbonMessage} to a stream of an HTTP/2 connection as data frames. Writing
+ * pauses while either the connection or the flow control window of the stream is full.
+ */
+public class Http2ContentWriter extends ChannelContentWriter {
+
+    private final BaseHttp2ConnectionHandler handler;
+    private final int streamId;
+
+    public Http2ContentWriter(BaseHttp2ConnectionHandler handler, int streamId, HTTPCarbonMessage carbonMessage,
+            Consumer<ChannelFuture> completionHandler) {
+        super(handler.getChannel(), carbonMessage, completionHandler);
+        this.handler = handler;
+        this.streamId = streamId;
+    }
+
+    @Override
+    protected ChannelFuture write(HttpContent httpContent, boolean flush) {
+        ChannelFuture future;
+        if (httpContent instanceof LastHttpContent && !((LastHttpContent) httpContent).trailingHeaders().isEmpty()) {
+            handler.writeData(streamId, httpContent.content(), false);
+            future = handler.writeHeaders(streamId, HttpConversionUtil.toHttp2Headers(
+                    ((LastHttpContent) httpContent).trailingHeaders(), true), true);
+        } else {
+            future = handler.writeData(streamId, httpContent.content(), httpContent instanceof LastHttpContent);
+        }
+        if (flush) {
+            handler.flushStreams();
+        }
+        return future;
+    }
+
+    @Override
+    protected void abort() {
+        handler.cancelStream(streamId);
+    }
+
+    @Override
+    protected void flush() {
+        handler.flushStreams();
+    }
+
+    @Override
+    protected boolean isWritable() {
+        return handler.isWritable(streamId);
+    }
+
+    @Override
+    protected void register() {
+        handler.addWriter(streamId, this);
+    }
+
+    @Override
+    protected void unregister() {
+        handler.removeWriter(streamId, this);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.message;
+
+import io.netty.handler.codec.http.HttpContent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Unbounded, lock-free queue of {@link HttpContent} for exactly one producer thread and one consumer thread at a
+ * time.
+ * <p>
+ * Content is stored in fixed size chunks which are linked as they fill up, hence a node is allocated once per
+ * {@value #CHUNK_SIZE} elements instead of once per element. The producer only touches the tail chunk and the
+ * consumer only touches the head chunk, so neither side ever takes a lock or waits for the other.
+ * <p>
+ * Each side also counts the content it moved, so {@link #isEmpty()} only reads the counters and may be called from
+ * any thread.
+ */
+public class HttpContentQueue {
+
+    private static final int CHUNK_SIZE = 32;
+
+    // Producer side, only accessed by the producing thread
+    private Chunk tail = new Chunk();
+    private int tailIndex;
+
+    // Consumer side, only accessed by the consuming thread
+    private Chunk head = tail;
+    private int headIndex;
+
+    // Each counter is only written by one side
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong polled = new AtomicLong();
+
+    /**
+     * Add content to the end of the queue. Must only be called by the producer.
+     *
+     * @param httpContent content to add
+     */
+    public void offer(HttpContent httpContent) {
+        if (tailIndex == CHUNK_SIZE) {
+            Chunk next = new Chunk();
+            tail.next = next;
+            tail = next;
+            tailIndex = 0;
+        }
+        tail.slots.lazySet(tailIndex++, httpContent);
+        // Volatile store so that a consumer checking for content after registering for notification cannot miss it
+        offered.set(offered.get() + 1);
+    }
+
+    /**
+     * Remove the content at the head of the queue without blocking. Must only be called by the consumer.
+     *
+     * @return head of the queue or null if no content is available yet
+     */
+    public HttpContent poll() {
+        if (!advanceHead()) {
+            return null;
+        }
+        HttpContent httpContent = head.slots.get(headIndex);
+        if (httpContent == null) {
+            return null;
+        }
+        head.slots.lazySet(headIndex++, null);
+        polled.set(polled.get() + 1);
+        return httpContent;
+    }
+
+    /**
+     * May be called from any thread, it does not change the state of the queue.
+     *
+     * @return true if there is no content available to poll
+     */
+    public boolean isEmpty() {
+        // Polled first, as it never exceeds what was offered before
+        long polledCount = polled.get();
+        return offered.get() == polledCount;
+    }
+
+    // Move the consumer to the next chunk once the current one is fully consumed
+    private boolean advanceHead() {
+        if (headIndex < CHUNK_SIZE) {
+            return true;
+        }
+        Chunk next = head.next;
+        if (next == null) {
+            return false;
+        }
+        head = next;
+        headIndex = 0;
+        return true;
+    }
+
+    private static final class Chunk {
+        private final AtomicReferenceArray<HttpContent> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+        private volatile Chunk next;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.message;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import org.wso2.carbon.messaging.Header;
+import org.wso2.carbon.messaging.Headers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Headers} backed by the decoded Netty {@link HttpHeaders} of a message.
+ * <p>
+ * Reads are served from the Netty headers without copying them. The first modification copies the headers into
+ * Netty headers owned by this instance, so that the received message is left as it was decoded. Names are looked up
+ * case-insensitively before and after the copy, as HTTP header names are.
+ */
+public class HttpHeadersView extends Headers {
+
+    private HttpHeaders httpHeaders;
+
+    private boolean modified;
+
+    public HttpHeadersView(HttpHeaders httpHeaders) {
+        this.httpHeaders = httpHeaders;
+    }
+
+    /**
+     * @return the current headers, which are the received ones unless a modification was made. Outbound messages
+     * must copy them rather than share them
+     */
+    public HttpHeaders getHttpHeaders() {
+        return httpHeaders;
+    }
+
+    @Override
+    public String get(String key) {
+        return httpHeaders.get(key);
+    }
+
+    @Override
+    public List<Header> getAll() {
+        List<Header> headers = new ArrayList<>();
+        for (Map.Entry<String, String> entry : httpHeaders.entries()) {
+            headers.add(new Header(entry.getKey(), entry.getValue()));
+        }
+        return headers;
+    }
+
+    @Override
+    public List<Header> getAllBy(String key) {
+        List<Header> headers = new ArrayList<>();
+        for (String value : httpHeaders.getAll(key)) {
+            headers.add(new Header(key, value));
+        }
+        return headers;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return httpHeaders.contains(key);
+    }
+
+    @Override
+    public int size() {
+        return httpHeaders.size();
+    }
+
+    @Override
+    public void set(String key, String value) {
+        copyOnWrite();
+        httpHeaders.set(key, value);
+    }
+
+    @Override
+    public void set(List<Header> headerList) {
+        copyOnWrite();
+        for (Header header : headerList) {
+            httpHeaders.add(header.getName(), header.getValue());
+        }
+    }
+
+    @Override
+    public void set(Map<String, String> headerMap) {
+        copyOnWrite();
+        for (Map.Entry<String, String> entry : headerMap.entrySet()) {
+            httpHeaders.set(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        copyOnWrite();
+        httpHeaders.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        modified = true;
+        httpHeaders = new DefaultHttpHeaders(false);
+    }
+
+    private void copyOnWrite() {
+        if (!modified) {
+            modified = true;
+            httpHeaders = new DefaultHttpHeaders(false).set(httpHeaders);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.message;
+
+import java.util.Set;
+
+/**
+ * Source of transport properties of a {@link HTTPCarbonMessage} which are only computed when read.
+ * <p>
+ * An instance is shared by all messages of a connection. Values which differ per message are derived from the
+ * typed fields of the message passed in.
+ */
+public interface TransportMetadata {
+
+    /**
+     * @return keys of all the properties this metadata provides
+     */
+    Set<String> getPropertyKeys();
+
+    /**
+     * Compute the value of a transport property for a message.
+     *
+     * @param key           property key
+     * @param carbonMessage message the property is read from
+     * @return value of the property or null if this metadata does not provide the key
+     */
+    Object getProperty(String key, HTTPCarbonMessage carbonMessage);
+}
@@ -18,9 +18,11 @@ package org.wso2.carbon.transport.http.netty.sender;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
-import org.apache.commons.pool.impl.GenericObjectPool;
+import io.netty.util.concurrent.FutureListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.carbon.messaging.CarbonCallback;
@@ -29,9 +31,11 @@ import org.wso2.carbon.messaging.exceptions.MessagingException;
 import org.wso2.carbon.transport.http.netty.common.HttpRoute;
 import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
 import org.wso2.carbon.transport.http.netty.listener.SourceHandler;
+import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
 import org.wso2.carbon.transport.http.netty.sender.channel.ChannelUtils;
 import org.wso2.carbon.transport.http.netty.sender.channel.TargetChannel;
 import org.wso2.carbon.transport.http.netty.sender.channel.pool.ConnectionManager;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.TargetChannelPool;
 
 /**
  * Class Which handover incoming requests to be written to BE asynchronously.
@@ -48,14 +52,14 @@ public class ClientRequestWorker implements Runnable {
     private CarbonMessage carbonMessage;
     private HttpRequest httpRequest;
     private CarbonCallback carbonCallback;
-    private GenericObjectPool genericObjectPool;
+    private TargetChannelPool targetChannelPool;
     private ConnectionManager connectionManager;
     private EventLoopGroup eventLoopGroup;
     private Class aClass;
 
     public ClientRequestWorker(HttpRoute httpRoute, SourceHandler sourceHandler, SenderConfiguration senderConfig,
             HttpRequest httpRequest, CarbonMessage carbonMessage, CarbonCallback carbonCallback,
-            ConnectionManager.PoolManagementPolicy poolManagementPolicy, GenericObjectPool genericObjectPool,
+            ConnectionManager.PoolManagementPolicy poolManagementPolicy, TargetChannelPool targetChannelPool,
             ConnectionManager connectionManager, EventLoopGroup eventLoopGroup, Class aClass) {
         this.poolManagementPolicy = poolManagementPolicy;
         this.httpRequest = httpRequest;
@@ -64,7 +68,7 @@ public class ClientRequestWorker implements Runnable {
         this.carbonCallback = carbonCallback;
         this.carbonMessage = carbonMessage;
         this.httpRoute = httpRoute;
-        this.genericObjectPool = genericObjectPool;
+        this.targetChannelPool = targetChannelPool;
         this.connectionManager = connectionManager;
         this.eventLoopGroup = eventLoopGroup;
         this.aClass = aClass;
@@ -72,80 +76,132 @@ public class ClientRequestWorker implements Runnable {
 
     @Override
     public void run() {
-        Channel channel = null;
-        TargetChannel targetChannel = null;
-
         if (poolManagementPolicy == ConnectionManager.PoolManagementPolicy.
                 PER_SERVER_CHANNEL_ENDPOINT_CONNECTION_CACHING) {
-            targetChannel = new TargetChannel();
-            ChannelFuture future = ChannelUtils
-                    .getNewChannelFuture(targetChannel, eventLoopGroup, aClass, httpRoute, senderConfig);
-
-            try {
-                channel = ChannelUtils.openChannel(future, httpRoute);
-            } catch (Exception failedCause) {
-                String msg = "Error when creating channel for route " + httpRoute;
-                log.error(msg);
-                MessagingException messagingException = new MessagingException(msg, failedCause, 101503);
-                carbonMessage.setMessagingException(messagingException);
-                carbonCallback.done(carbonMessage);
-                return;
-            } finally {
-                if (channel != null) {
-                    targetChannel.setChannel(channel);
-                    targetChannel.setTargetHandler(targetChannel.getHTTPClientInitializer().getTargetHandler());
-                }
-            }
+            TargetChannel targetChannel = new TargetChannel();
+            ChannelUtils.getNewChannelFuture(targetChannel, eventLoopGroup, aClass, httpRoute, senderConfig);
+            processTargetChannel(targetChannel);
         } else {
-            targetChannel = processThroughConnectionPool();
+            targetChannelPool.acquire(isPipelined()).addListener((FutureListener<TargetChannel>) future -> {
+                if (future.isSuccess()) {
+                    processTargetChannel(future.getNow());
+                } else if (RequestDeadline.complete(carbonMessage)) {
+                    String msg = "Cannot borrow free channel from pool";
+                    log.error(msg, future.cause());
+                    MessagingException messagingException = new MessagingException(msg, 101503);
+                    carbonMessage.setMessagingException(messagingException);
+                    carbonCallback.done(carbonMessage);
+                }
+            });
+        }
+    }
+
+    private void processTargetChannel(TargetChannel targetChannel) {
+        targetChannel.setHttpRoute(httpRoute);
 
+        // Connect, borrow and first write are chained on the connect future, no thread waits for the connection.
+        ChannelFuture channelFuture = targetChannel.getChannelFuture();
+        if (channelFuture.isDone()) {
+            onConnectionComplete(targetChannel, channelFuture);
+        } else {
+            channelFuture.addListener(
+                    (ChannelFutureListener) future -> onConnectionComplete(targetChannel, future));
         }
-        if (targetChannel != null) {
-            targetChannel.setHttpRoute(httpRoute);
-            if (targetChannel.getTargetHandler() != null) {
-                targetChannel.getTargetHandler().setCallback(carbonCallback);
-                targetChannel.getTargetHandler().setIncomingMsg(carbonMessage);
-                targetChannel.getTargetHandler().setTargetChannel(targetChannel);
-                targetChannel.getTargetHandler().setConnectionManager(connectionManager);
-            } else {
-                log.error("Cannot find registered TargetHandler probably connection creation is failed");
-                String msg = "Connection creation failed for ";
-                MessagingException messagingException = new MessagingException(msg, 101503);
-                carbonMessage.setMessagingException(messagingException);
-                carbonCallback.done(carbonMessage);
-                return;
-            }
+    }
 
-            boolean written = false;
-            if (targetChannel.getChannel() != null) {
-                written = ChannelUtils.writeContent(targetChannel.getChannel(), httpRequest, carbonMessage);
-            }
-            if (written) {
-                targetChannel.setRequestWritten(true);
-            }
-            if (sourceHandler != null) {
-                targetChannel.setCorrelatedSource(sourceHandler);
-                sourceHandler.addTargetChannel(httpRoute, targetChannel);
+    private void onConnectionComplete(TargetChannel targetChannel, ChannelFuture channelFuture) {
+        if (!channelFuture.isSuccess()) {
+            invalidate(targetChannel);
+            if (!RequestDeadline.complete(carbonMessage)) {
+                return;
             }
+            String msg = "Error when creating channel for route " + httpRoute;
+            log.error(msg);
+            MessagingException messagingException = new MessagingException(msg,
+                    ChannelUtils.getConnectException(channelFuture, httpRoute), 101503);
+            carbonMessage.setMessagingException(messagingException);
+            carbonCallback.done(carbonMessage);
+            return;
         }
-    }
 
-    private TargetChannel processThroughConnectionPool() {
-        try {
-            Object obj = genericObjectPool.borrowObject();
-            if (obj != null) {
-                TargetChannel targetChannel = (TargetChannel) obj;
-                targetChannel.setTargetHandler(targetChannel.getHTTPClientInitializer().getTargetHandler());
-                return targetChannel;
+        Channel channel = channelFuture.channel();
+        targetChannel.setChannel(channel);
+        targetChannel.setTargetHandler(targetChannel.getHTTPClientInitializer().getTargetHandler());
+        RequestDeadline deadline = RequestDeadline.get(carbonMessage);
+        if (targetChannel.getTargetHandler() != null && deadline != null
+                && !deadline.onConnected(targetChannel.getTargetHandler(), channel.eventLoop())) {
+            // Already answered with a 504, the connection is of use to other requests
+            recycle(targetChannel);
+            return;
+        }
+        if (targetChannel.getTargetHandler() != null) {
+            targetChannel.getTargetHandler().addPendingRequest(carbonCallback, carbonMessage);
+            targetChannel.getTargetHandler().setTargetChannel(targetChannel);
+            targetChannel.getTargetHandler().setConnectionManager(connectionManager);
+        } else {
+            log.error("Cannot find registered TargetHandler probably connection creation is failed");
+            invalidate(targetChannel);
+            if (!RequestDeadline.complete(carbonMessage)) {
+                return;
             }
-        } catch (Exception e) {
-            String msg = "Cannot borrow free channel from pool";
-            log.error(msg, e);
+            String msg = "Connection creation failed for ";
             MessagingException messagingException = new MessagingException(msg, 101503);
             carbonMessage.setMessagingException(messagingException);
             carbonCallback.done(carbonMessage);
+            return;
+        }
+        if (sourceHandler != null) {
+            targetChannel.setCorrelatedSource(sourceHandler);
+            sourceHandler.addTargetChannel(httpRoute, targetChannel);
+        }
+
+        if (!(carbonMessage instanceof HTTPCarbonMessage) && channel.eventLoop().inEventLoop()
+                && !carbonMessage.isEndOfMsgAdded()) {
+            // Only HTTPCarbonMessage content is written without blocking, others must not be drained on the loop
+            connectionManager.getExecutorService().execute(() -> writeRequest(targetChannel));
+        } else {
+            writeRequest(targetChannel);
+        }
+    }
+
+    private void writeRequest(TargetChannel targetChannel) {
+        // Once the request is written, further requests may be pipelined behind it
+        Runnable onRequestWritten = targetChannel.isPipelined()
+                ? () -> targetChannelPool.requestWritten(targetChannel) : null;
+        boolean written = ChannelUtils.writeContent(targetChannel.getChannel(), httpRequest, carbonMessage,
+                onRequestWritten);
+        if (written) {
+            targetChannel.setRequestWritten(true);
+        }
+    }
+
+    /**
+     * Only idempotent requests are pipelined, as it cannot be told which of them the BE processed if the connection
+     * fails.
+     */
+    private boolean isPipelined() {
+        if (senderConfig.getMaxPipelinedRequests() <= 1) {
+            return false;
+        }
+        HttpMethod method = httpRequest.method();
+        return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.PUT.equals(method)
+                || HttpMethod.DELETE.equals(method) || HttpMethod.OPTIONS.equals(method)
+                || HttpMethod.TRACE.equals(method);
+    }
+
+    private void recycle(TargetChannel targetChannel) {
+        if (targetChannelPool != null) {
+            targetChannel.setWriteInProgress(false);
+            targetChannelPool.release(targetChannel);
+        } else {
+            targetChannel.getChannel().close();
+        }
+    }
+
+    private void invalidate(TargetChannel targetChannel) {
+        if (targetChannelPool != null) {
+            targetChannelPool.invalidate(targetChannel);
         }
-        return null;
     }
 
 }
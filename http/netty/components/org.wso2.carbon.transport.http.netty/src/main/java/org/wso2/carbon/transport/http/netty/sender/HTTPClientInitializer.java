@@ -24,6 +24,8 @@ import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLConfig;
 import org.wso2.carbon.transport.http.netty.common.ssl.SSLHandlerFactory;
 import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
 import org.wso2.carbon.transport.http.netty.sender.channel.BootstrapConfiguration;
@@ -36,13 +38,19 @@ public class HTTPClientInitializer extends ChannelInitializer<SocketChannel> {
     private static final Logger log = LoggerFactory.getLogger(HTTPClientInitializer.class);
 
     private SenderConfiguration senderConfiguration;
+    private HttpRoute httpRoute;
 
     protected static final String HANDLER = "handler";
     private TargetHandler handler;
     private int soTimeOut;
 
     public HTTPClientInitializer(SenderConfiguration senderConfiguration) {
+        this(senderConfiguration, null);
+    }
+
+    public HTTPClientInitializer(SenderConfiguration senderConfiguration, HttpRoute httpRoute) {
         this.senderConfiguration = senderConfiguration;
+        this.httpRoute = httpRoute;
         soTimeOut = BootstrapConfiguration.getInstance().getSocketTimeout();
     }
 
@@ -50,9 +58,14 @@ public class HTTPClientInitializer extends ChannelInitializer<SocketChannel> {
     protected void initChannel(SocketChannel ch) throws Exception {
         // Add the generic handlers to the pipeline
         // e.g. SSL handler
-        if (senderConfiguration.getSslConfig() != null) {
+        SSLConfig sslConfig = senderConfiguration.getSslConfig();
+        if (sslConfig != null) {
             log.debug("adding ssl handler");
-            SslHandler sslHandler = new SSLHandlerFactory(senderConfiguration.getSslConfig()).create();
+            // Engines created for the BE address resume its cached session on reconnects
+            SslHandler sslHandler = httpRoute != null
+                    ? SSLHandlerFactory.getInstance(sslConfig).create(ch.alloc(), httpRoute.getHost(),
+                            httpRoute.getPort())
+                    : SSLHandlerFactory.getInstance(sslConfig).create(ch.alloc());
             sslHandler.engine().setUseClientMode(true);
             ch.pipeline().addLast("ssl", sslHandler);
         }
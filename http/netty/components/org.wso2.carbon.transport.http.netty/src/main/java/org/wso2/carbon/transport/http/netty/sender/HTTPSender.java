@@ -23,15 +23,19 @@ import org.wso2.carbon.messaging.CarbonCallback;
 import org.wso2.carbon.messaging.CarbonMessage;
 import org.wso2.carbon.messaging.MessageProcessorException;
 import org.wso2.carbon.messaging.TransportSender;
+import org.wso2.carbon.transport.http.netty.common.AllocatorConfiguration;
 import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HostNameResolver;
 import org.wso2.carbon.transport.http.netty.common.HttpRoute;
 import org.wso2.carbon.transport.http.netty.common.Util;
+import org.wso2.carbon.transport.http.netty.common.ssl.KeyStoreReloader;
 import org.wso2.carbon.transport.http.netty.common.ssl.SSLConfig;
 import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
 import org.wso2.carbon.transport.http.netty.config.TransportProperty;
 import org.wso2.carbon.transport.http.netty.listener.SourceHandler;
 import org.wso2.carbon.transport.http.netty.sender.channel.BootstrapConfiguration;
 import org.wso2.carbon.transport.http.netty.sender.channel.ChannelUtils;
+import org.wso2.carbon.transport.http.netty.sender.channel.RequestDeadlineConfiguration;
 import org.wso2.carbon.transport.http.netty.sender.channel.TargetChannel;
 import org.wso2.carbon.transport.http.netty.sender.channel.pool.ConnectionManager;
 
@@ -69,6 +73,10 @@ public class HTTPSender implements TransportSender {
         }
 
         BootstrapConfiguration.createBootStrapConfiguration(this.transportProperties);
+        HostNameResolver.createHostNameResolver(this.transportProperties);
+        AllocatorConfiguration.createAllocatorConfiguration(this.transportProperties);
+        RequestDeadlineConfiguration.createRequestDeadlineConfiguration(this.transportProperties);
+        KeyStoreReloader.createKeyStoreReloader(this.transportProperties);
         this.connectionManager = ConnectionManager.getInstance(this.transportProperties);
     }
 
@@ -102,14 +110,23 @@ public class HTTPSender implements TransportSender {
                     + "listener side please copy property SRC_HNDLR from incoming message");
         }
 
+        // HTTP/2 streams are bounded by the stream timeout of their connection instead
+        RequestDeadline deadline = null;
+        if (!defaultSenderConfiguration.isHttp2()) {
+            deadline = RequestDeadline.start(route, msg, callback, connectionManager.getExecutorService());
+        }
+
         Channel outboundChannel = null;
         try {
             TargetChannel targetChannel = connectionManager
                     .getTargetChannel(route, srcHandler, defaultSenderConfiguration, httpRequest, msg, callback);
             if (targetChannel != null) {
                 outboundChannel = targetChannel.getChannel();
-                targetChannel.getTargetHandler().setCallback(callback);
-                targetChannel.getTargetHandler().setIncomingMsg(msg);
+                if (deadline != null && !deadline.onConnected(targetChannel.getTargetHandler(),
+                        outboundChannel.eventLoop())) {
+                    return false;
+                }
+                targetChannel.getTargetHandler().addPendingRequest(callback, msg);
                 targetChannel.getTargetHandler().setTargetChannel(targetChannel);
                 targetChannel.getTargetHandler().setConnectionManager(connectionManager);
                 boolean written = ChannelUtils.writeContent(outboundChannel, httpRequest, msg);
@@ -118,12 +135,27 @@ public class HTTPSender implements TransportSender {
                 }
             }
         } catch (Exception failedCause) {
+            if (deadline != null) {
+                deadline.complete();
+            }
             throw new MessageProcessorException(failedCause.getMessage(), failedCause);
         }
 
         return false;
     }
 
+    /**
+     * Release the connection pools and the event loop groups used by this sender for standalone requests, and stop
+     * the timer of the request deadlines.
+     */
+    public void shutdown() {
+        log.info("Shutting down HTTP sender " + id);
+        if (connectionManager != null) {
+            connectionManager.shutdownSenderEventLoops();
+        }
+        RequestDeadlineConfiguration.stopTimer();
+    }
+
     @Override
     public String getId() {
         return id;
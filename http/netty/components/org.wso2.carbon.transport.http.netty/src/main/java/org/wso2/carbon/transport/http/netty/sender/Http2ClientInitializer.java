@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.sender;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLConfig;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLHandlerFactory;
+import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.channel.BootstrapConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.Http2ConnectionPool;
+
+/**
+ * Initializes the pipeline of an HTTP/2 connection to a BE.
+ * <p>
+ * Over TLS, HTTP/2 is negotiated through ALPN and the connection is closed if the BE does not select it. Cleartext
+ * connections speak HTTP/2 right away, the BE is expected to support it with prior knowledge.
+ */
+public class Http2ClientInitializer extends ChannelInitializer<SocketChannel> {
+
+    private static final Logger log = LoggerFactory.getLogger(Http2ClientInitializer.class);
+
+    private static final String HANDLER = "handler";
+
+    private final SenderConfiguration senderConfiguration;
+    private final HttpRoute httpRoute;
+    private final Http2TargetHandler handler;
+
+    public Http2ClientInitializer(SenderConfiguration senderConfiguration, HttpRoute httpRoute,
+            Http2ConnectionPool pool) {
+        this.senderConfiguration = senderConfiguration;
+        this.httpRoute = httpRoute;
+        String scheme = senderConfiguration.getSslConfig() != null ? "https" : "http";
+        // Streams time out like HTTP/1.1 connections do when the BE stops sending
+        handler = new Http2TargetHandler.Builder(httpRoute, scheme, pool,
+                BootstrapConfiguration.getInstance().getSocketTimeout()).build();
+    }
+
+    @Override
+    protected void initChannel(SocketChannel ch) throws Exception {
+        SSLConfig sslConfig = senderConfiguration.getSslConfig();
+        if (sslConfig == null) {
+            ch.pipeline().addLast(HANDLER, handler);
+            return;
+        }
+        log.debug("adding ssl handler");
+        ch.pipeline().addLast("ssl", SSLHandlerFactory.getInstance(sslConfig)
+                .createHttp2ClientTLSHandler(ch.alloc(), httpRoute.getHost(), httpRoute.getPort()));
+        ch.pipeline().addLast("alpn", new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+            @Override
+            protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+                if (!ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                    // Closes the connection, which fails the requests waiting for it
+                    throw new IllegalStateException("BE did not select HTTP/2, selected protocol: " + protocol);
+                }
+                ctx.pipeline().addLast(HANDLER, handler);
+            }
+        });
+    }
+
+    public Http2TargetHandler getHandler() {
+        return handler;
+    }
+}
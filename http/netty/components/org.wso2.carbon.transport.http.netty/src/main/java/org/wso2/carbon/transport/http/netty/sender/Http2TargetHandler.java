@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.sender;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.AbstractHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
+import io.netty.handler.codec.http2.Http2ConnectionDecoder;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2EventAdapter;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.messaging.CarbonCallback;
+import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.messaging.CarbonMessageProcessor;
+import org.wso2.carbon.messaging.exceptions.MessagingException;
+import org.wso2.carbon.transport.http.netty.common.BaseHttp2ConnectionHandler;
+import org.wso2.carbon.transport.http.netty.common.ConnectionInfo;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
+import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.Http2ConnectionPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles an HTTP/2 connection to a BE, over which the requests of many senders are in flight concurrently.
+ * <p>
+ * A stream is reserved through the {@link Http2ConnectionPool} before a request is sent. Reservations never exceed
+ * the SETTINGS_MAX_CONCURRENT_STREAMS announced by the BE. Until its settings are received the connection is not
+ * used and at most {@link #INITIAL_MAX_CONCURRENT_STREAMS} streams are reserved on it. Each stream gives its
+ * reservation back once it is closed, at which point the pool hands it to a waiting request.
+ * <p>
+ * A stream on which the BE sends nothing for the socket timeout of the sender is reset, which frees its reservation.
+ * Its request is answered with a 504, or its response is ended with an error if it has started.
+ */
+public class Http2TargetHandler extends BaseHttp2ConnectionHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(Http2TargetHandler.class);
+
+    // Minimum limit the specification recommends a peer to allow
+    private static final int INITIAL_MAX_CONCURRENT_STREAMS = 100;
+
+    private final HttpRoute httpRoute;
+    private final String scheme;
+    private final Http2ConnectionPool pool;
+    private final Promise<Http2TargetHandler> readyPromise;
+    private final long streamTimeoutNanos;
+
+    // Only accessed from the event loop of the connection
+    private final IntObjectMap<StreamContext> streams = new IntObjectHashMap<>();
+    private int maxConcurrentStreams = INITIAL_MAX_CONCURRENT_STREAMS;
+    private int reservedStreams;
+    private boolean closed;
+    private ConnectionInfo connectionInfo;
+
+    private Http2TargetHandler(Http2ConnectionDecoder decoder, Http2ConnectionEncoder encoder,
+            Http2Settings initialSettings, HttpRoute httpRoute, String scheme, Http2ConnectionPool pool,
+            int streamTimeoutSeconds) {
+        super(decoder, encoder, initialSettings);
+        this.httpRoute = httpRoute;
+        this.scheme = scheme;
+        this.pool = pool;
+        this.readyPromise = pool.getEventLoop().newPromise();
+        this.streamTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(0, streamTimeoutSeconds));
+        connection().addListener(new Http2ConnectionAdapter() {
+            @Override
+            public void onStreamClosed(Http2Stream stream) {
+                StreamContext streamContext = streams.remove(stream.id());
+                if (streamContext != null) {
+                    onStreamClosed(streamContext);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        super.handlerAdded(ctx);
+        // Added once HTTP/2 is negotiated on a connection which is already active, no channelActive follows
+        if (ctx.channel().isActive()) {
+            onConnectionActive(ctx);
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        onConnectionActive(ctx);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // Streams are closed along with the connection, none of them may be handed out again
+        closed = true;
+        super.channelInactive(ctx);
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor()
+                    .executeAtTargetConnectionTermination(Integer.toString(ctx.hashCode()));
+        }
+        log.debug("HTTP/2 target channel closed.");
+    }
+
+    /**
+     * @return future completed once the settings of the BE are received, or failed if the connection cannot be
+     * established
+     */
+    public Future<Http2TargetHandler> getReadyFuture() {
+        return readyPromise;
+    }
+
+    /**
+     * Reserve a stream for a request. Only called from the event loop of the connection.
+     *
+     * @return false if the connection is closing or all the streams it allows are in use
+     */
+    public boolean tryReserveStream() {
+        if (closed || reservedStreams >= maxConcurrentStreams || connection().goAwayReceived()) {
+            return false;
+        }
+        reservedStreams++;
+        return true;
+    }
+
+    /**
+     * Give back a reservation which is not used for a request. Only called from the event loop of the connection.
+     */
+    public void releaseStream() {
+        reservedStreams--;
+        pool.onStreamAvailable(this);
+    }
+
+    /**
+     * Mark the connection as unusable and fail requests waiting for it to become ready.
+     *
+     * @param cause reason the connection is unusable
+     */
+    public void connectionFailed(Throwable cause) {
+        closed = true;
+        readyPromise.tryFailure(cause);
+    }
+
+    /**
+     * Send a request on a reserved stream. Only called from the event loop of the connection once it is ready.
+     *
+     * @param httpRequest     request line and headers
+     * @param carbonMessage   message carrying the content of the request
+     * @param carbonCallback  callback the response is handed to
+     * @param executorService executor reading the content of messages which cannot be written without blocking
+     */
+    public void sendRequest(HttpRequest httpRequest, CarbonMessage carbonMessage, CarbonCallback carbonCallback,
+            ExecutorService executorService) {
+        int streamId = connection().local().incrementAndGetNextStreamId();
+        StreamContext streamContext = new StreamContext(streamId, carbonMessage, carbonCallback);
+        streams.put(streamId, streamContext);
+        if (streamTimeoutNanos > 0) {
+            streamContext.lastReadTime = System.nanoTime();
+            scheduleTimeout(streamId, streamContext, streamTimeoutNanos);
+        }
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor().
+                    executeAtTargetRequestReceiving(carbonMessage);
+        }
+
+        CharSequence authority = httpRequest.headers().get(HttpHeaderNames.HOST);
+        // Connection specific headers such as Host and Transfer-Encoding are dropped by the conversion
+        Http2Headers headers = HttpConversionUtil.toHttp2Headers(httpRequest.headers(), true)
+                .method(httpRequest.method().asciiName())
+                .path(httpRequest.uri())
+                .scheme(scheme)
+                .authority(authority != null ? authority : httpRoute.getHost() + ":" + httpRoute.getPort());
+        writeHeaders(streamId, headers, false).addListener((ChannelFutureListener) future -> {
+            // A stream which could not be opened is never closed, hence it is failed here
+            if (!future.isSuccess() && streams.remove(streamId) != null) {
+                log.error("Cannot open stream to " + httpRoute, future.cause());
+                cancelTimeout(streamContext);
+                fail(streamContext, "Cannot open stream to " + httpRoute);
+                releaseStream();
+            }
+        });
+
+        Runnable onRequestSent = () -> {
+            if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+                HTTPTransportContextHolder.getInstance().getHandlerExecutor().
+                        executeAtTargetRequestSending(carbonMessage);
+            }
+        };
+        if (!(carbonMessage instanceof HTTPCarbonMessage) && carbonMessage.isBufferContent()
+                && !carbonMessage.isEndOfMsgAdded()) {
+            // Only HTTPCarbonMessage content is written without blocking, others must not be drained on the loop
+            executorService.execute(() -> writeContent(streamId, carbonMessage, onRequestSent));
+        } else {
+            writeContent(streamId, carbonMessage, onRequestSent);
+        }
+    }
+
+    private void onConnectionActive(ChannelHandlerContext ctx) {
+        if (connectionInfo != null) {
+            return;
+        }
+        connectionInfo = new ConnectionInfo(ctx.channel());
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor()
+                    .executeAtTargetConnectionInitiation(Integer.toString(ctx.hashCode()));
+        }
+    }
+
+    private void onStreamClosed(StreamContext streamContext) {
+        cancelTimeout(streamContext);
+        if (streamContext.response == null) {
+            fail(streamContext, "Stream closed before a response was received from " + httpRoute);
+        } else if (!streamContext.response.isEndOfMsgAdded()) {
+            log.warn("Stream closed before the whole response was received from {}", httpRoute);
+            onContent(streamContext, LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+        releaseStream();
+    }
+
+    private void scheduleTimeout(int streamId, StreamContext streamContext, long delayNanos) {
+        streamContext.timeout = ctx.executor().schedule(() -> checkTimeout(streamId, streamContext), delayNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    private static void cancelTimeout(StreamContext streamContext) {
+        if (streamContext.timeout != null) {
+            streamContext.timeout.cancel(false);
+            streamContext.timeout = null;
+        }
+    }
+
+    /**
+     * Give up on a stream the BE sent nothing on for the stream timeout. The stream is reset, and its reservation is
+     * given back here as the stream is no longer tracked once it is closed.
+     */
+    private void checkTimeout(int streamId, StreamContext streamContext) {
+        if (streams.get(streamId) != streamContext) {
+            return;
+        }
+        long idleNanos = System.nanoTime() - streamContext.lastReadTime;
+        if (idleNanos < streamTimeoutNanos) {
+            scheduleTimeout(streamId, streamContext, streamTimeoutNanos - idleNanos);
+            return;
+        }
+        streams.remove(streamId);
+        streamContext.timeout = null;
+        String reason = "Stream timeout of " + TimeUnit.NANOSECONDS.toSeconds(streamTimeoutNanos)
+                + " s exceeded for endpoint " + httpRoute;
+        log.warn(reason);
+        if (streamContext.response == null) {
+            TargetHandler.sendErrorMessage(reason, streamContext.callback);
+        } else if (!streamContext.response.isEndOfMsgAdded()) {
+            streamContext.response.setMessagingException(new MessagingException(reason, 101504));
+            onContent(streamContext, LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+        resetStream(ctx, streamId, Http2Error.CANCEL.code(), ctx.newPromise());
+        flushStreams();
+        releaseStream();
+    }
+
+    private void fail(StreamContext streamContext, String msg) {
+        MessagingException messagingException = new MessagingException(msg, 101503);
+        streamContext.request.setMessagingException(messagingException);
+        streamContext.callback.done(streamContext.request);
+    }
+
+    private void onResponse(StreamContext streamContext, HttpResponse httpResponse) {
+        // Extension headers only describe the HTTP/2 stream, they must not reach the message
+        for (HttpConversionUtil.ExtensionHeaderNames name : HttpConversionUtil.ExtensionHeaderNames.values()) {
+            httpResponse.headers().remove(name.text());
+        }
+        HTTPCarbonMessage cMsg = new HTTPCarbonMessage();
+        // Flow controlled per stream, pausing the connection would hold up the responses of all its streams
+        int streamId = streamContext.streamId;
+        cMsg.setConsumedBytesListener(bytes -> consumeBytes(streamId, bytes));
+        cMsg.setProperty(Constants.PORT, connectionInfo.getRemotePort());
+        cMsg.setProperty(Constants.HOST, connectionInfo.getRemoteHost());
+        cMsg.setProperty(org.wso2.carbon.messaging.Constants.DIRECTION,
+                org.wso2.carbon.messaging.Constants.DIRECTION_RESPONSE);
+        cMsg.setProperty(org.wso2.carbon.messaging.Constants.CALL_BACK, streamContext.callback);
+        cMsg.setProperty(Constants.HTTP_STATUS_CODE, httpResponse.status().code());
+        cMsg.setHttpHeaders(httpResponse.headers());
+        cMsg.setProperty(Constants.EXECUTOR_WORKER_POOL,
+                streamContext.request.getProperty(Constants.EXECUTOR_WORKER_POOL));
+        streamContext.response = cMsg;
+
+        if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+            HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtTargetResponseReceiving(cMsg);
+        }
+        CarbonMessageProcessor carbonMessageProcessor = HTTPTransportContextHolder.getInstance()
+                .getMessageProcessor();
+        if (carbonMessageProcessor != null) {
+            try {
+                carbonMessageProcessor.receive(cMsg, streamContext.callback);
+            } catch (Exception e) {
+                log.error("Error while handover response to MessageProcessor ", e);
+            }
+        } else {
+            log.error("Cannot correlate callback with request callback is null ");
+        }
+    }
+
+    private void onContent(StreamContext streamContext, HttpContent httpContent) {
+        HTTPCarbonMessage cMsg = streamContext.response;
+        cMsg.addHttpContent(httpContent);
+        if (httpContent instanceof LastHttpContent) {
+            cMsg.setEndOfMsgAdded(true);
+            if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+                HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtTargetResponseSending(cMsg);
+            }
+        }
+    }
+
+    /**
+     * Request and response of a stream.
+     */
+    private static final class StreamContext {
+        private final int streamId;
+        private final CarbonMessage request;
+        private final CarbonCallback callback;
+        private HTTPCarbonMessage response;
+        // Time the BE last sent a frame on the stream, and the check of the stream timeout
+        private long lastReadTime;
+        private ScheduledFuture<?> timeout;
+
+        private StreamContext(int streamId, CarbonMessage request, CarbonCallback callback) {
+            this.streamId = streamId;
+            this.request = request;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Turns the frames of the connection into response messages.
+     */
+    private class ResponseListener extends Http2EventAdapter {
+
+        @Override
+        public void onSettingsRead(ChannelHandlerContext ctx, Http2Settings settings) {
+            Long maxStreams = settings.maxConcurrentStreams();
+            if (maxStreams != null) {
+                maxConcurrentStreams = (int) Math.min(maxStreams, Integer.MAX_VALUE);
+            } else if (!readyPromise.isDone()) {
+                // No limit is announced, hence there is none
+                maxConcurrentStreams = Integer.MAX_VALUE;
+            }
+            if (readyPromise.trySuccess(Http2TargetHandler.this)) {
+                log.debug("HTTP/2 connection to {} is ready, max concurrent streams: {}", httpRoute,
+                        maxConcurrentStreams);
+            }
+            pool.onStreamAvailable(Http2TargetHandler.this);
+        }
+
+        @Override
+        public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers, int padding,
+                boolean endOfStream) throws Http2Exception {
+            StreamContext streamContext = streams.get(streamId);
+            if (streamContext == null) {
+                return;
+            }
+            streamContext.lastReadTime = System.nanoTime();
+            if (streamContext.response == null) {
+                HttpResponse httpResponse = HttpConversionUtil.toHttpResponse(streamId, headers, true);
+                if (httpResponse.status().codeClass() == HttpStatusClass.INFORMATIONAL) {
+                    // Interim responses such as 100 Continue precede the final response
+                    return;
+                }
+                onResponse(streamContext, httpResponse);
+                if (endOfStream) {
+                    onContent(streamContext, LastHttpContent.EMPTY_LAST_CONTENT);
+                }
+            } else {
+                // Headers following the data of a stream are its trailers
+                LastHttpContent trailers = new DefaultLastHttpContent();
+                HttpConversionUtil.addHttp2ToHttpHeaders(streamId, headers, trailers.trailingHeaders(),
+                        HttpVersion.HTTP_1_1, true, false);
+                onContent(streamContext, trailers);
+            }
+        }
+
+        @Override
+        public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers, int streamDependency,
+                short weight, boolean exclusive, int padding, boolean endOfStream) throws Http2Exception {
+            onHeadersRead(ctx, streamId, headers, padding, endOfStream);
+        }
+
+        @Override
+        public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
+                boolean endOfStream) throws Http2Exception {
+            StreamContext streamContext = streams.get(streamId);
+            if (streamContext != null) {
+                streamContext.lastReadTime = System.nanoTime();
+            }
+            if (streamContext == null || streamContext.response == null) {
+                return data.readableBytes() + padding;
+            }
+            // The frame is released by the codec once read, the message keeps its own reference
+            HttpContent httpContent = endOfStream ? new DefaultLastHttpContent(data.retain())
+                    : new DefaultHttpContent(data.retain());
+            onContent(streamContext, httpContent);
+            // The data is acknowledged once the message hands it to its consumer
+            return padding;
+        }
+    }
+
+    /**
+     * Builds an {@link Http2TargetHandler} on top of the default HTTP/2 codec.
+     */
+    static final class Builder extends AbstractHttp2ConnectionHandlerBuilder<Http2TargetHandler, Builder> {
+
+        private final HttpRoute httpRoute;
+        private final String scheme;
+        private final Http2ConnectionPool pool;
+        private final int streamTimeoutSeconds;
+
+        /**
+         * @param streamTimeoutSeconds seconds a stream waits for a frame from the BE, 0 waits without a limit
+         */
+        Builder(HttpRoute httpRoute, String scheme, Http2ConnectionPool pool, int streamTimeoutSeconds) {
+            this.httpRoute = httpRoute;
+            this.scheme = scheme;
+            this.pool = pool;
+            this.streamTimeoutSeconds = streamTimeoutSeconds;
+            server(false);
+        }
+
+        @Override
+        public Http2TargetHandler build() {
+            return super.build();
+        }
+
+        @Override
+        protected Http2TargetHandler build(Http2ConnectionDecoder decoder, Http2ConnectionEncoder encoder,
+                Http2Settings initialSettings) {
+            Http2TargetHandler handler = new Http2TargetHandler(decoder, encoder, initialSettings, httpRoute, scheme,
+                    pool, streamTimeoutSeconds);
+            frameListener(handler.new ResponseListener());
+            return handler;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.sender;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.messaging.CarbonCallback;
+import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.sender.channel.RequestDeadlineConfiguration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadlines of a single request sent to a BE: establishing the connection, the first byte of the response and the
+ * whole exchange.
+ * <p>
+ * Whoever answers the request first claims it through {@link #complete()}, either the response, a failure, or an
+ * expired deadline, which answers with a 504. A deadline expiring before the request is bound to a connection is
+ * answered right away and the connection is recycled once it arrives. Later on, the {@link TargetHandler} of the
+ * connection answers it from its event loop and closes the connection, as the responses of the requests behind it
+ * could no longer be correlated.
+ */
+public class RequestDeadline {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestDeadline.class);
+
+    private final HttpRoute httpRoute;
+    private final CarbonCallback callback;
+    private final ExecutorService executorService;
+    private final long firstByteTimeout;
+
+    // Guarded by this
+    private boolean done;
+    private TargetHandler targetHandler;
+    private EventLoop eventLoop;
+    private Timeout connectTimer;
+    private Timeout firstByteTimer;
+    private Timeout totalTimer;
+
+    private RequestDeadline(HttpRoute httpRoute, CarbonCallback callback, ExecutorService executorService,
+            long firstByteTimeout) {
+        this.httpRoute = httpRoute;
+        this.callback = callback;
+        this.executorService = executorService;
+        this.firstByteTimeout = firstByteTimeout;
+    }
+
+    /**
+     * Start the deadlines of a request about to be sent.
+     *
+     * @param httpRoute       BE address
+     * @param request         request sent to the BE, the deadline is kept as its property
+     * @param callback        callback the request is answered through
+     * @param executorService executor answering requests which expire before they are bound to a connection
+     * @return deadline of the request, or null if none applies to it
+     */
+    public static RequestDeadline start(HttpRoute httpRoute, CarbonMessage request, CarbonCallback callback,
+            ExecutorService executorService) {
+        RequestDeadlineConfiguration config = RequestDeadlineConfiguration.getInstance();
+        // Without configured deadlines only requests carrying their own are tracked, sparing the route lookups
+        if (config == null || (config.isEmpty() && !carriesTimeout(request))) {
+            return null;
+        }
+        long connectTimeout = config.getConnectTimeout(httpRoute, request);
+        long firstByteTimeout = config.getFirstByteTimeout(httpRoute, request);
+        long totalTimeout = config.getTotalTimeout(httpRoute, request);
+        if (connectTimeout <= 0 && firstByteTimeout <= 0 && totalTimeout <= 0) {
+            return null;
+        }
+
+        RequestDeadline deadline = new RequestDeadline(httpRoute, callback, executorService, firstByteTimeout);
+        synchronized (deadline) {
+            deadline.connectTimer = deadline.schedule("Connect", connectTimeout);
+            deadline.totalTimer = deadline.schedule("Total", totalTimeout);
+        }
+        request.setProperty(Constants.REQUEST_DEADLINE, deadline);
+        return deadline;
+    }
+
+    private static boolean carriesTimeout(CarbonMessage request) {
+        return request.getProperty(Constants.REQUEST_CONNECT_TIMEOUT) != null
+                || request.getProperty(Constants.REQUEST_FIRST_BYTE_TIMEOUT) != null
+                || request.getProperty(Constants.REQUEST_TOTAL_TIMEOUT) != null;
+    }
+
+    /**
+     * @param request request sent to the BE
+     * @return deadline of the request, or null if none applies to it
+     */
+    public static RequestDeadline get(CarbonMessage request) {
+        return (RequestDeadline) request.getProperty(Constants.REQUEST_DEADLINE);
+    }
+
+    /**
+     * Claim a request about to be answered with a failure, stopping its deadlines.
+     *
+     * @param request request sent to the BE
+     * @return false if the request was already answered because a deadline expired
+     */
+    public static boolean complete(CarbonMessage request) {
+        RequestDeadline deadline = get(request);
+        return deadline == null || deadline.complete();
+    }
+
+    /**
+     * Claim the request for its answer, stopping its deadlines. Cancelling only unlinks the timers from the wheel.
+     *
+     * @return false if the request was already answered
+     */
+    public synchronized boolean complete() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        cancel(connectTimer);
+        cancel(firstByteTimer);
+        cancel(totalTimer);
+        return true;
+    }
+
+    /**
+     * Bind the request to the connection it is written to, starting the wait for the first byte of the response.
+     *
+     * @param targetHandler handler of the connection
+     * @param eventLoop     event loop of the connection
+     * @return false if the request was already answered, in which case it must not be written
+     */
+    synchronized boolean onConnected(TargetHandler targetHandler, EventLoop eventLoop) {
+        if (done) {
+            return false;
+        }
+        this.targetHandler = targetHandler;
+        this.eventLoop = eventLoop;
+        cancel(connectTimer);
+        firstByteTimer = schedule("First byte", firstByteTimeout);
+        return true;
+    }
+
+    /**
+     * Stop waiting for the first byte once the response has started.
+     */
+    synchronized void onFirstByte() {
+        cancel(firstByteTimer);
+    }
+
+    synchronized boolean isDone() {
+        return done;
+    }
+
+    CarbonCallback getCallback() {
+        return callback;
+    }
+
+    private Timeout schedule(String deadline, long timeout) {
+        if (timeout <= 0) {
+            return null;
+        }
+        String reason = deadline + " deadline of " + timeout + " ms exceeded for endpoint " + httpRoute;
+        return RequestDeadlineConfiguration.getTimer()
+                .newTimeout(timer -> expire(reason), timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(String reason) {
+        TargetHandler handler;
+        EventLoop loop;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            handler = targetHandler;
+            loop = eventLoop;
+            if (handler == null) {
+                complete();
+            }
+        }
+        if (handler != null) {
+            // Answered along with the responses read from the connection, so only one of them wins
+            loop.execute(() -> handler.deadlineExpired(this, reason));
+            return;
+        }
+        log.warn(reason);
+        executorService.execute(() -> TargetHandler.sendErrorMessage(reason, callback));
+    }
+
+    private static void cancel(Timeout timeout) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+}
@@ -20,8 +20,10 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.carbon.messaging.CarbonCallback;
@@ -29,29 +31,47 @@ import org.wso2.carbon.messaging.CarbonMessage;
 import org.wso2.carbon.messaging.CarbonMessageProcessor;
 import org.wso2.carbon.messaging.DefaultCarbonMessage;
 import org.wso2.carbon.messaging.exceptions.MessagingException;
+import org.wso2.carbon.transport.http.netty.common.ConnectionInfo;
 import org.wso2.carbon.transport.http.netty.common.Constants;
-import org.wso2.carbon.transport.http.netty.common.Util;
 import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
+import org.wso2.carbon.transport.http.netty.listener.SourceHandler;
+import org.wso2.carbon.transport.http.netty.message.ChannelContentWriter;
 import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
 import org.wso2.carbon.transport.http.netty.sender.channel.TargetChannel;
 import org.wso2.carbon.transport.http.netty.sender.channel.pool.ConnectionManager;
 
-import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A class responsible for handling responses coming from BE.
+ * <p>
+ * Requests written to the connection are kept in the order they were written, each response is correlated with the
+ * oldest request still waiting for one. More than one request is pending only when requests are pipelined.
  */
 public class TargetHandler extends ReadTimeoutHandler {
     protected static final Logger LOG = LoggerFactory.getLogger(TargetHandler.class);
 
+    // Remainder of a cancelled response which is read to keep the connection, rather than closing it
+    private static final long MAX_DRAINED_BYTES = 64 * 1024;
+
     protected CarbonCallback callback;
     protected CarbonMessage cMsg;
     protected ConnectionManager connectionManager;
     protected TargetChannel targetChannel;
     protected CarbonMessage incomingMsg;
+    protected ConnectionInfo connectionInfo;
+
+    // Requests written to the BE whose responses are still to be read, oldest first
+    private final Queue<PendingRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+
+    // Progress of the response being read, only accessed from the event loop
+    private long responseContentLength;
+    private long responseBytesRead;
+    private boolean discardingResponse;
 
     public TargetHandler(int timeoutSeconds) {
         super(timeoutSeconds);
@@ -63,7 +83,7 @@ public class TargetHandler extends ReadTimeoutHandler {
             HTTPTransportContextHolder.getInstance().getHandlerExecutor()
                     .executeAtTargetConnectionInitiation(Integer.toString(ctx.hashCode()));
         }
-
+        connectionInfo = new ConnectionInfo(ctx.channel());
         super.channelActive(ctx);
     }
 
@@ -71,6 +91,49 @@ public class TargetHandler extends ReadTimeoutHandler {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (msg instanceof HttpResponse) {
+            PendingRequest pendingRequest = pendingRequests.peek();
+            if (pendingRequest == null) {
+                // Nothing to correlate it with, the connection is out of step so it is closed after the response
+                LOG.warn("Discarding response from {} as no request is pending", ctx.channel().remoteAddress());
+                ReferenceCountUtil.release(msg);
+                cMsg = null;
+                ctx.channel().close();
+                return;
+            }
+            HttpResponse httpResponse = (HttpResponse) msg;
+            responseContentLength = HttpUtil.getContentLength(httpResponse, -1L);
+            responseBytesRead = 0;
+            if (pendingRequest.cancelled) {
+                // The client went away, the response is read off the connection and dropped if it is short enough
+                pendingRequest.responseReceived = true;
+                cMsg = null;
+                ReferenceCountUtil.release(msg);
+                if (isDrainable()) {
+                    discardingResponse = true;
+                } else {
+                    LOG.debug("Closing connection to {} rather than draining a long response", ctx.channel());
+                    if (targetChannel != null) {
+                        closeConnection(targetChannel);
+                    } else {
+                        ctx.channel().close();
+                    }
+                }
+                return;
+            }
+            if (pendingRequest.deadline != null) {
+                if (pendingRequest.deadline.isDone()) {
+                    // Already answered, the response and the connection are of no use anymore
+                    ReferenceCountUtil.release(msg);
+                    cMsg = null;
+                    exchangeEnded(pendingRequests.poll());
+                    ctx.channel().close();
+                    return;
+                }
+                pendingRequest.deadline.onFirstByte();
+            }
+            pendingRequest.responseReceived = true;
+            callback = pendingRequest.callback;
+            incomingMsg = pendingRequest.incomingMsg;
 
             cMsg = setUpCarbonMessage(ctx, msg);
             if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
@@ -90,7 +153,17 @@ public class TargetHandler extends ReadTimeoutHandler {
             }
 
         } else {
-            if (cMsg != null) {
+            if (msg instanceof HttpContent) {
+                responseBytesRead += ((HttpContent) msg).content().readableBytes();
+            }
+            if (discardingResponse) {
+                ReferenceCountUtil.release(msg);
+                if (msg instanceof LastHttpContent) {
+                    discardingResponse = false;
+                    exchangeEnded(pendingRequests.poll());
+                    connectionManager.returnChannel(targetChannel);
+                }
+            } else if (cMsg != null) {
                 if (msg instanceof LastHttpContent) {
                     HttpContent httpContent = (LastHttpContent) msg;
                     ((HTTPCarbonMessage) cMsg).addHttpContent(httpContent);
@@ -99,19 +172,35 @@ public class TargetHandler extends ReadTimeoutHandler {
                         HTTPTransportContextHolder.getInstance().getHandlerExecutor().
                                 executeAtTargetResponseSending(cMsg);
                     }
-                    targetChannel.setRequestWritten(false);
+                    cMsg = null;
+                    PendingRequest pendingRequest = pendingRequests.poll();
+                    if (pendingRequest != null && pendingRequest.deadline != null) {
+                        pendingRequest.deadline.complete();
+                    }
+                    exchangeEnded(pendingRequest);
                     connectionManager.returnChannel(targetChannel);
                 } else {
                     HttpContent httpContent = (DefaultHttpContent) msg;
                     ((HTTPCarbonMessage) cMsg).addHttpContent(httpContent);
                 }
+            } else {
+                // Content of a response no message was created for
+                ReferenceCountUtil.release(msg);
             }
         }
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // Request content waiting for the BE to catch up, reading from the client is paused meanwhile
+        ChannelContentWriter.writabilityChanged(ctx.channel());
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         ctx.close();
+        failPendingRequests();
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
             HTTPTransportContextHolder.getInstance().getHandlerExecutor()
                     .executeAtTargetConnectionTermination(Integer.toString(ctx.hashCode()));
@@ -119,16 +208,124 @@ public class TargetHandler extends ReadTimeoutHandler {
         LOG.debug("Target channel closed.");
     }
 
-    public void setCallback(CarbonCallback callback) {
-        this.callback = callback;
+    /**
+     * Correlate the next response read from the BE with a request, which is about to be written.
+     *
+     * @param callback    callback the response is handed to
+     * @param incomingMsg request message, properties of which are copied to the response
+     */
+    public void addPendingRequest(CarbonCallback callback, CarbonMessage incomingMsg) {
+        pendingRequests.offer(new PendingRequest(callback, incomingMsg, RequestDeadline.get(incomingMsg)));
     }
 
-    public void setConnectionManager(ConnectionManager connectionManager) {
-        this.connectionManager = connectionManager;
+    /**
+     * Answer a request whose deadline expired after it was bound to this connection with a 504, or end its response
+     * if it has already started. The connection is closed, failing the requests pipelined behind it.
+     *
+     * @param deadline deadline of the request
+     * @param reason   description of the expired deadline
+     */
+    void deadlineExpired(RequestDeadline deadline, String reason) {
+        if (!deadline.complete()) {
+            return;
+        }
+        LOG.warn(reason);
+        PendingRequest expired = null;
+        for (PendingRequest pendingRequest : pendingRequests) {
+            if (pendingRequest.deadline == deadline) {
+                expired = pendingRequest;
+                break;
+            }
+        }
+        if (expired != null && expired.responseReceived) {
+            if (cMsg != null) {
+                cMsg.setMessagingException(new MessagingException(reason, 101504));
+                ((HTTPCarbonMessage) cMsg).addHttpContent(LastHttpContent.EMPTY_LAST_CONTENT);
+                cMsg.setEndOfMsgAdded(true);
+                cMsg = null;
+            }
+        } else {
+            sendErrorMessage(reason, deadline.getCallback());
+        }
+        if (targetChannel != null && targetChannel.getChannel() != null) {
+            targetChannel.getChannel().close();
+        }
+    }
+
+    /**
+     * Give up on the requests of a closed source connection, as their responses can no longer be written. The
+     * connection is kept if its responses are short enough to be drained, or if requests of other sources are
+     * pipelined on it, otherwise it is closed so the BE stops working on the request. Responses longer than
+     * {@link #MAX_DRAINED_BYTES} are never drained, the connection is closed and the requests of other sources
+     * pipelined behind them fail along with it.
+     *
+     * @param sourceHandler handler of the closed source connection
+     */
+    public void cancelRequests(SourceHandler sourceHandler) {
+        TargetChannel channel = targetChannel;
+        if (channel == null || channel.getChannel() == null) {
+            return;
+        }
+        if (!channel.getChannel().eventLoop().inEventLoop()) {
+            channel.getChannel().eventLoop().execute(() -> cancelRequests(sourceHandler));
+            return;
+        }
+
+        boolean cancelled = false;
+        boolean othersPending = false;
+        for (PendingRequest pendingRequest : pendingRequests) {
+            if (!pendingRequest.isFrom(sourceHandler)) {
+                othersPending = true;
+            } else if (pendingRequest.claim()) {
+                pendingRequest.cancelled = true;
+                cancelled = true;
+            }
+        }
+        if (cancelled) {
+            PendingRequest head = pendingRequests.peek();
+            if (head != null && head.cancelled && head.responseReceived && cMsg != null) {
+                // Nobody reads the rest, end the response handed over and drop what follows
+                ((HTTPCarbonMessage) cMsg).addHttpContent(LastHttpContent.EMPTY_LAST_CONTENT);
+                cMsg.setEndOfMsgAdded(true);
+                cMsg = null;
+                discardingResponse = true;
+            }
+            boolean draining = head != null && head.cancelled && head.responseReceived;
+            // Requests of other sources are only waited for as long as the response ahead of them is short
+            boolean keep = draining ? isDrainable() && (othersPending || channel.getTargetChannelPool() != null)
+                    : othersPending;
+            if (keep) {
+                LOG.debug("Draining responses of cancelled requests from {}", channel.getHttpRoute());
+                return;
+            }
+        } else if (channel.getTargetChannelPool() != null || othersPending) {
+            return;
+        }
+        // Connections cached for the source connection only are of no use either
+        LOG.debug("Closing connection to {} as its client went away", channel.getHttpRoute());
+        closeConnection(channel);
     }
 
-    public void setIncomingMsg(CarbonMessage incomingMsg) {
-        this.incomingMsg = incomingMsg;
+    /**
+     * @return whether the rest of the response being read is short enough to be read and dropped
+     */
+    private boolean isDrainable() {
+        return responseContentLength >= 0 && responseContentLength - responseBytesRead <= MAX_DRAINED_BYTES;
+    }
+
+    /**
+     * Close a connection, failing the requests pipelined on it which are not cancelled.
+     */
+    private void closeConnection(TargetChannel channel) {
+        if (channel.getTargetChannelPool() != null) {
+            channel.getTargetChannelPool().invalidate(channel);
+        } else if (channel.getChannel() != null) {
+            channel.getChannel().close();
+        }
+    }
+
+    public void setConnectionManager(ConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
     }
 
     public void setTargetChannel(TargetChannel targetChannel) {
@@ -147,34 +344,65 @@ public class TargetHandler extends ReadTimeoutHandler {
             CarbonMessageProcessor carbonMessageProcessor = HTTPTransportContextHolder.getInstance()
                     .getMessageProcessor();
 
-            if (carbonMessageProcessor != null) {
-                try {
-                    HTTPTransportContextHolder.getInstance().getMessageProcessor()
-                            .receive(createErrorMessage(payload), callback);
-                } catch (Exception e) {
-                    LOG.error("Error while handover response to MessageProcessor ", e);
+            // Every request pipelined on the connection times out along with it
+            PendingRequest pendingRequest;
+            while ((pendingRequest = pendingRequests.poll()) != null) {
+                exchangeEnded(pendingRequest);
+                if (pendingRequest.cancelled || !pendingRequest.claim()) {
+                    continue;
+                }
+                callback = pendingRequest.callback;
+                if (carbonMessageProcessor != null) {
+                    try {
+                        carbonMessageProcessor.receive(createErrorMessage(payload), callback);
+                    } catch (Exception e) {
+                        LOG.error("Error while handover response to MessageProcessor ", e);
+                    }
+                } else {
+                    LOG.error("Cannot correlate callback with request callback is null ");
                 }
-            } else {
-                LOG.error("Cannot correlate callback with request callback is null ");
             }
         }
 
     }
 
+    /**
+     * Answer a request with a 504 through the message processor.
+     *
+     * @param reason   description of the timeout
+     * @param callback callback of the request
+     */
+    static void sendErrorMessage(String reason, CarbonCallback callback) {
+        String payload = "<errorMessage>" + reason + "</errorMessage>";
+        CarbonMessageProcessor carbonMessageProcessor = HTTPTransportContextHolder.getInstance()
+                .getMessageProcessor();
+        if (carbonMessageProcessor != null) {
+            try {
+                carbonMessageProcessor.receive(createErrorMessage(payload, callback, reason), callback);
+            } catch (Exception e) {
+                LOG.error("Error while handover response to MessageProcessor ", e);
+            }
+        } else {
+            LOG.error("Cannot correlate callback with request callback is null ");
+        }
+    }
+
     protected CarbonMessage setUpCarbonMessage(ChannelHandlerContext ctx, Object msg) {
-        cMsg = new HTTPCarbonMessage();
+        HTTPCarbonMessage httpCarbonMessage = new HTTPCarbonMessage();
+        httpCarbonMessage.setProducerChannel(ctx.channel());
+        cMsg = httpCarbonMessage;
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
             HTTPTransportContextHolder.getInstance().getHandlerExecutor().executeAtTargetResponseReceiving(cMsg);
         }
-        cMsg.setProperty(Constants.PORT, ((InetSocketAddress) ctx.channel().remoteAddress()).getPort());
-        cMsg.setProperty(Constants.HOST, ((InetSocketAddress) ctx.channel().remoteAddress()).getHostName());
+        cMsg.setProperty(Constants.PORT, connectionInfo.getRemotePort());
+        cMsg.setProperty(Constants.HOST, connectionInfo.getRemoteHost());
         cMsg.setProperty(org.wso2.carbon.messaging.Constants.DIRECTION,
                 org.wso2.carbon.messaging.Constants.DIRECTION_RESPONSE);
         cMsg.setProperty(org.wso2.carbon.messaging.Constants.CALL_BACK, callback);
         HttpResponse httpResponse = (HttpResponse) msg;
 
         cMsg.setProperty(Constants.HTTP_STATUS_CODE, httpResponse.getStatus().code());
-        cMsg.setHeaders(Util.getHeaders(httpResponse).getAll());
+        httpCarbonMessage.setHttpHeaders(httpResponse.headers());
 
         //copy required properties for service chaining from incoming carbon message to the response carbon message
         //copy shared worker pool
@@ -186,6 +414,10 @@ public class TargetHandler extends ReadTimeoutHandler {
     }
 
     protected CarbonMessage createErrorMessage(String payload) {
+        return createErrorMessage(payload, callback, "Read Timeout");
+    }
+
+    private static CarbonMessage createErrorMessage(String payload, CarbonCallback callback, String error) {
         DefaultCarbonMessage response = new DefaultCarbonMessage();
 
         response.setStringMessageBody(payload);
@@ -203,16 +435,82 @@ public class TargetHandler extends ReadTimeoutHandler {
         response.setProperty(org.wso2.carbon.messaging.Constants.DIRECTION,
                 org.wso2.carbon.messaging.Constants.DIRECTION_RESPONSE);
         response.setProperty(org.wso2.carbon.messaging.Constants.CALL_BACK, callback);
-        MessagingException messagingException = new MessagingException("Read Timeout", 101504);
+        MessagingException messagingException = new MessagingException(error, 101504);
         response.setMessagingException(messagingException);
         return response;
 
     }
 
+    /**
+     * Fail the requests the closed connection did not respond to.
+     */
+    private void failPendingRequests() {
+        PendingRequest pendingRequest;
+        while ((pendingRequest = pendingRequests.poll()) != null) {
+            exchangeEnded(pendingRequest);
+            if (pendingRequest.cancelled || pendingRequest.responseReceived || !pendingRequest.claim()) {
+                continue;
+            }
+            String msg = "Connection closed before a response was received from " + (targetChannel != null
+                    ? targetChannel.getHttpRoute() : "BE");
+            LOG.error(msg);
+            MessagingException messagingException = new MessagingException(msg, 101503);
+            pendingRequest.incomingMsg.setMessagingException(messagingException);
+            pendingRequest.callback.done(pendingRequest.incomingMsg);
+        }
+    }
+
+    /**
+     * Stop tracking the connection for the source of a request once none of its requests are pending on it.
+     */
+    private void exchangeEnded(PendingRequest ended) {
+        if (pendingRequests.isEmpty() && targetChannel != null) {
+            targetChannel.setRequestWritten(false);
+        }
+        if (ended == null || !(ended.incomingMsg.getProperty(Constants.SRC_HNDLR) instanceof SourceHandler)) {
+            return;
+        }
+        SourceHandler sourceHandler = (SourceHandler) ended.incomingMsg.getProperty(Constants.SRC_HNDLR);
+        for (PendingRequest pendingRequest : pendingRequests) {
+            if (pendingRequest.isFrom(sourceHandler)) {
+                return;
+            }
+        }
+        sourceHandler.removeInFlightTargetChannel(targetChannel);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         if (ctx != null && ctx.channel().isActive()) {
             ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
         }
     }
+
+    /**
+     * Request written to the BE along with the callback its response is handed to.
+     */
+    private static final class PendingRequest {
+        private final CarbonCallback callback;
+        private final CarbonMessage incomingMsg;
+        private final RequestDeadline deadline;
+        private volatile boolean responseReceived;
+        private volatile boolean cancelled;
+
+        private PendingRequest(CarbonCallback callback, CarbonMessage incomingMsg, RequestDeadline deadline) {
+            this.callback = callback;
+            this.incomingMsg = incomingMsg;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the request was already answered because its deadline expired
+         */
+        private boolean claim() {
+            return deadline == null || deadline.complete();
+        }
+
+        private boolean isFrom(SourceHandler sourceHandler) {
+            return incomingMsg.getProperty(Constants.SRC_HNDLR) == sourceHandler;
+        }
+    }
 }
@@ -18,6 +18,7 @@ package org.wso2.carbon.transport.http.netty.sender.channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.NativeTransport;
 import org.wso2.carbon.transport.http.netty.config.TransportProperty;
 
 import java.util.Iterator;
@@ -46,6 +47,12 @@ public class BootstrapConfiguration {
 
     private int socketTimeout = 15;
 
+    private int writeBufferHighWaterMark = 64 * 1024;
+
+    private int writeBufferLowWaterMark = 32 * 1024;
+
+    private boolean nativeTransport = false;
+
     private BootstrapConfiguration(Set<TransportProperty> transportPropertySet) {
 
         if (transportPropertySet != null && !transportPropertySet.isEmpty()) {
@@ -66,10 +73,17 @@ public class BootstrapConfiguration {
                     keepAlive = (Boolean) property.getValue();
                 } else if (property.getName().equals(Constants.CLINET_BOOTSTRAP_SO_REUSE)) {
                     socketReuse = (Boolean) property.getValue();
+                } else if (property.getName().equals(Constants.CLIENT_BOOTSTRAP_WRITE_BUFFER_HIGH_WATER_MARK)) {
+                    writeBufferHighWaterMark = (Integer) property.getValue();
+                } else if (property.getName().equals(Constants.CLIENT_BOOTSTRAP_WRITE_BUFFER_LOW_WATER_MARK)) {
+                    writeBufferLowWaterMark = (Integer) property.getValue();
+                } else if (property.getName().equals(Constants.CLIENT_BOOTSTRAP_NATIVE_TRANSPORT)) {
+                    nativeTransport = (Boolean) property.getValue();
                 }
             }
 
         }
+        nativeTransport = NativeTransport.resolve(nativeTransport, Constants.CLIENT_BOOTSTRAP_NATIVE_TRANSPORT);
         logger.debug(Constants.CLINET_BOOTSTRAP_TCP_NO_DELY + ": " + tcpNoDelay);
         logger.debug(Constants.CLINET_BOOTSTRAP_CONNECT_TIME_OUT + ":" + connectTimeOut);
         logger.debug(Constants.CLINET_BOOTSTRAP_RECEIVE_BUFFER_SIZE + ":" + reciveBufferSize);
@@ -77,6 +91,9 @@ public class BootstrapConfiguration {
         logger.debug(Constants.CLINET_BOOTSTRAP_SO_TIMEOUT + ":" + socketTimeout);
         logger.debug(Constants.CLINET_BOOTSTRAP_KEEPALIVE + ":" + keepAlive);
         logger.debug(Constants.CLINET_BOOTSTRAP_SO_REUSE + ":" + socketReuse);
+        logger.debug(Constants.CLIENT_BOOTSTRAP_WRITE_BUFFER_HIGH_WATER_MARK + ":" + writeBufferHighWaterMark);
+        logger.debug(Constants.CLIENT_BOOTSTRAP_WRITE_BUFFER_LOW_WATER_MARK + ":" + writeBufferLowWaterMark);
+        logger.debug(Constants.CLIENT_BOOTSTRAP_NATIVE_TRANSPORT + ":" + nativeTransport);
     }
 
     public boolean isTcpNoDelay() {
@@ -107,6 +124,21 @@ public class BootstrapConfiguration {
         return socketTimeout;
     }
 
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * @return true if the native epoll transport is configured and available
+     */
+    public boolean isNativeTransport() {
+        return nativeTransport;
+    }
+
     public static BootstrapConfiguration getInstance() {
         return bootstrapConfig;
     }
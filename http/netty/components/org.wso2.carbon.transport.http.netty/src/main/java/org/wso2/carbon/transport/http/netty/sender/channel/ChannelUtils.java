@@ -17,30 +17,32 @@ package org.wso2.carbon.transport.http.netty.sender.channel;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.ConnectTimeoutException;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.handler.codec.http.DefaultHttpContent;
-import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.LastHttpContent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.carbon.messaging.CarbonMessage;
 import org.wso2.carbon.messaging.DefaultCarbonMessage;
+import org.wso2.carbon.transport.http.netty.common.AllocatorConfiguration;
 import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.common.Util;
 import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
 import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
+import org.wso2.carbon.transport.http.netty.message.ChannelContentWriter;
 import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
 import org.wso2.carbon.transport.http.netty.sender.HTTPClientInitializer;
 
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class for Channel handling.
@@ -50,7 +52,8 @@ public class ChannelUtils {
     private static final Logger log = LoggerFactory.getLogger(ChannelUtils.class);
 
     /**
-     * Provides incomplete Netty channel future.
+     * Provides incomplete Netty channel future. The future is also registered with the given target channel so that
+     * the request can be written once the connection is established.
      *
      * @param targetChannel       Target channel which has channel specific parameters such as handler
      * @param eventLoopGroup      Event loop group of inbound IO workers
@@ -59,9 +62,30 @@ public class ChannelUtils {
      * @param senderConfiguration sender configuration
      * @return ChannelFuture
      */
-    @SuppressWarnings("unchecked")
     public static ChannelFuture getNewChannelFuture(TargetChannel targetChannel, EventLoopGroup eventLoopGroup,
             Class eventLoopClass, HttpRoute httpRoute, SenderConfiguration senderConfiguration) {
+        // set the pipeline factory, which creates the pipeline for each newly created channels
+        HTTPClientInitializer httpClientInitializer = new HTTPClientInitializer(senderConfiguration, httpRoute);
+        targetChannel.setHTTPClientInitializer(httpClientInitializer);
+
+        ChannelFuture channelFuture = connect(eventLoopGroup, eventLoopClass, httpRoute, httpClientInitializer);
+        targetChannel.setChannel(channelFuture.channel());
+        targetChannel.setChannelFuture(channelFuture);
+        return channelFuture;
+    }
+
+    /**
+     * Open a connection to the BE with the client bootstrap options of the transport.
+     *
+     * @param eventLoopGroup     Event loop group the channel is registered on
+     * @param eventLoopClass     Channel class matching the event loop group
+     * @param httpRoute          Http Route which represents BE connections
+     * @param channelInitializer Handler setting up the pipeline of the channel
+     * @return incomplete connect future
+     */
+    @SuppressWarnings("unchecked")
+    public static ChannelFuture connect(EventLoopGroup eventLoopGroup, Class eventLoopClass, HttpRoute httpRoute,
+            ChannelHandler channelInitializer) {
         BootstrapConfiguration bootstrapConfiguration = BootstrapConfiguration.getInstance();
         Bootstrap clientBootstrap = new Bootstrap();
         clientBootstrap.channel(eventLoopClass);
@@ -70,11 +94,11 @@ public class ChannelUtils {
         clientBootstrap.option(ChannelOption.TCP_NODELAY, bootstrapConfiguration.isTcpNoDelay());
         clientBootstrap.option(ChannelOption.SO_REUSEADDR, bootstrapConfiguration.isSocketReuse());
         clientBootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, bootstrapConfiguration.getConnectTimeOut());
-
-        // set the pipeline factory, which creates the pipeline for each newly created channels
-        HTTPClientInitializer httpClientInitializer = new HTTPClientInitializer(senderConfiguration);
-        targetChannel.setHTTPClientInitializer(httpClientInitializer);
-        clientBootstrap.handler(httpClientInitializer);
+        clientBootstrap.option(ChannelOption.ALLOCATOR, AllocatorConfiguration.getAllocator());
+        clientBootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                bootstrapConfiguration.getWriteBufferLowWaterMark(),
+                bootstrapConfiguration.getWriteBufferHighWaterMark()));
+        clientBootstrap.handler(channelInitializer);
         if (log.isDebugEnabled()) {
             log.debug("Created new TCP client bootstrap connecting to {}:{} with options: {}", httpRoute.getHost(),
                     httpRoute.getPort(), clientBootstrap);
@@ -84,63 +108,32 @@ public class ChannelUtils {
     }
 
     /**
-     * Open Channel for BE.
+     * Build the exception describing why a connection attempt to the BE did not succeed. Connection timeouts are
+     * enforced by the event loop of the channel through {@link ChannelOption#CONNECT_TIMEOUT_MILLIS}, hence no thread
+     * waits for the connect future to complete.
      *
-     * @param channelFuture ChannelFuture Object
+     * @param channelFuture Completed connect future
      * @param httpRoute     HttpRoute represents host and port for BE
-     * @return Channel
-     * @throws Exception Exception to notify any errors occur during opening the channel
+     * @return ConnectException describing the failure
      */
-    public static Channel openChannel(ChannelFuture channelFuture, HttpRoute httpRoute) throws Exception {
-
-        BootstrapConfiguration bootstrapConfiguration = BootstrapConfiguration.getInstance();
-        // blocking for channel to be done
-        if (log.isTraceEnabled()) {
-            log.trace("Waiting for operation to complete {} for {} millis", channelFuture,
-                    bootstrapConfiguration.getConnectTimeOut());
-        }
-
-        // here we need to wait it in other thread
-        final CountDownLatch channelLatch = new CountDownLatch(1);
-        channelFuture.addListener(cf -> channelLatch.countDown());
-
-        try {
-            boolean wait = channelLatch.await(bootstrapConfiguration.getConnectTimeOut(), TimeUnit.MILLISECONDS);
-            if (wait) {
-                log.debug("Waited for connection creation in Sender");
-            }
-        } catch (InterruptedException ex) {
-            throw new Exception("Interrupted while waiting for " + "connection to " + httpRoute.toString());
-        }
-
-        Channel channel = null;
-
-        if (channelFuture.isDone() && channelFuture.isSuccess()) {
-            channel = channelFuture.channel();
-            if (log.isDebugEnabled()) {
-                log.debug("Creating connector to address: {}", httpRoute.toString());
-            }
-        } else if (channelFuture.isDone() && channelFuture.isCancelled()) {
-            ConnectException cause = new ConnectException("Request Cancelled, " + httpRoute.toString());
-            if (channelFuture.cause() != null) {
-                cause.initCause(channelFuture.cause());
-            }
-            throw cause;
-        } else if (!channelFuture.isDone() && !channelFuture.isSuccess() &&
-                !channelFuture.isCancelled() && (channelFuture.cause() == null)) {
-            throw new ConnectException("Connection timeout, " + httpRoute.toString());
+    public static ConnectException getConnectException(ChannelFuture channelFuture, HttpRoute httpRoute) {
+        ConnectException cause;
+        if (channelFuture.isCancelled()) {
+            cause = new ConnectException("Request Cancelled, " + httpRoute.toString());
+        } else if (channelFuture.cause() instanceof ConnectTimeoutException) {
+            cause = new ConnectException("Connection timeout, " + httpRoute.toString());
         } else {
-            ConnectException cause = new ConnectException("Connection refused, " + httpRoute.toString());
-            if (channelFuture.cause() != null) {
-                cause.initCause(channelFuture.cause());
-            }
-            throw cause;
+            cause = new ConnectException("Connection refused, " + httpRoute.toString());
         }
-        return channel;
+        if (channelFuture.cause() != null) {
+            cause.initCause(channelFuture.cause());
+        }
+        return cause;
     }
 
     /**
-     * Method used to write content to outbound endpoint.
+     * Method used to write content to outbound endpoint. Content of a {@link HTTPCarbonMessage} is written
+     * asynchronously as it arrives, other messages are written by the calling thread.
      *
      * @param channel       OutboundChanel
      * @param httpRequest   HTTPRequest
@@ -148,6 +141,20 @@ public class ChannelUtils {
      * @return
      */
     public static boolean writeContent(Channel channel, HttpRequest httpRequest, CarbonMessage carbonMessage) {
+        return writeContent(channel, httpRequest, carbonMessage, null);
+    }
+
+    /**
+     * Method used to write content to outbound endpoint, notifying once the whole request is handed to the channel.
+     *
+     * @param channel          OutboundChanel
+     * @param httpRequest      HTTPRequest
+     * @param carbonMessage    Carbon Message
+     * @param onRequestWritten invoked once the end of the request is written, may be null
+     * @return
+     */
+    public static boolean writeContent(Channel channel, HttpRequest httpRequest, CarbonMessage carbonMessage,
+            Runnable onRequestWritten) {
         if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
             HTTPTransportContextHolder.getInstance().getHandlerExecutor().
                     executeAtTargetRequestReceiving(carbonMessage);
@@ -155,31 +162,21 @@ public class ChannelUtils {
         channel.write(httpRequest);
 
         if (carbonMessage instanceof HTTPCarbonMessage) {
-            while (true) {
-                HTTPCarbonMessage nettyCMsg = (HTTPCarbonMessage) carbonMessage;
-                if (nettyCMsg.isEndOfMsgAdded() && nettyCMsg.isEmpty()) {
-                    channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
-                    break;
+            // Content is written from the event loop of the channel as it arrives, nothing blocks here
+            new ChannelContentWriter(channel, (HTTPCarbonMessage) carbonMessage, future -> {
+                if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
+                    HTTPTransportContextHolder.getInstance().getHandlerExecutor().
+                            executeAtTargetRequestSending(carbonMessage);
                 }
-                HttpContent httpContent = nettyCMsg.getHttpContent();
-                if (httpContent instanceof LastHttpContent) {
-                    channel.writeAndFlush(httpContent);
-                    if (HTTPTransportContextHolder.getInstance().getHandlerExecutor() != null) {
-                        HTTPTransportContextHolder.getInstance().getHandlerExecutor().
-                                executeAtTargetRequestSending(carbonMessage);
-                    }
-                    break;
-                }
-                if (httpContent != null) {
-                    channel.write(httpContent);
+                if (onRequestWritten != null) {
+                    onRequestWritten.run();
                 }
-
-            }
+            }).start();
         } else if (carbonMessage instanceof DefaultCarbonMessage) {
             DefaultCarbonMessage defaultCMsg = (DefaultCarbonMessage) carbonMessage;
             while (true) {
                 ByteBuffer byteBuffer = defaultCMsg.getMessageBody();
-                ByteBuf bbuf = Unpooled.wrappedBuffer(byteBuffer);
+                ByteBuf bbuf = Util.copiedBuffer(channel.alloc(), byteBuffer);
                 DefaultHttpContent httpContent = new DefaultHttpContent(bbuf);
                 channel.write(httpContent);
                 if (defaultCMsg.isEndOfMsgAdded() && defaultCMsg.isEmpty()) {
@@ -188,6 +185,9 @@ public class ChannelUtils {
                         HTTPTransportContextHolder.getInstance().getHandlerExecutor().
                                 executeAtTargetRequestSending(carbonMessage);
                     }
+                    if (onRequestWritten != null) {
+                        onRequestWritten.run();
+                    }
                     break;
                 }
             }
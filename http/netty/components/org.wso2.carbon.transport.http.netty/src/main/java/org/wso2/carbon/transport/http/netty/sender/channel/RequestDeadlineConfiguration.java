@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.sender.channel;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.config.TransportProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A class represents the deadlines of requests sent to BEs, in milliseconds where 0 disables a deadline.
+ * <p>
+ * Each deadline is configured for all routes and may be overridden for a route by suffixing the property with
+ * ".host:port", or for a single request through the matching carbon message property. Deadlines of all requests are
+ * driven by one shared {@link HashedWheelTimer}, on which scheduling and cancelling are constant time operations.
+ * The timer is started on first use and stopped along with the sender through {@link #stopTimer()}.
+ */
+public class RequestDeadlineConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestDeadlineConfiguration.class);
+
+    private static RequestDeadlineConfiguration deadlineConfig;
+
+    private static volatile Timer timer;
+
+    private long connectTimeout = 0;
+
+    private long firstByteTimeout = 0;
+
+    private long totalTimeout = 0;
+
+    private final Map<String, Long> routeConnectTimeouts = new HashMap<>();
+
+    private final Map<String, Long> routeFirstByteTimeouts = new HashMap<>();
+
+    private final Map<String, Long> routeTotalTimeouts = new HashMap<>();
+
+    private final boolean empty;
+
+    private RequestDeadlineConfiguration(Set<TransportProperty> transportPropertySet) {
+        if (transportPropertySet != null) {
+            for (TransportProperty property : transportPropertySet) {
+                String name = property.getName();
+                if (name.equals(Constants.CLIENT_REQUEST_CONNECT_TIMEOUT)) {
+                    connectTimeout = getTimeout(property);
+                } else if (name.equals(Constants.CLIENT_REQUEST_FIRST_BYTE_TIMEOUT)) {
+                    firstByteTimeout = getTimeout(property);
+                } else if (name.equals(Constants.CLIENT_REQUEST_TOTAL_TIMEOUT)) {
+                    totalTimeout = getTimeout(property);
+                } else if (name.startsWith(Constants.CLIENT_REQUEST_CONNECT_TIMEOUT + ".")) {
+                    routeConnectTimeouts.put(getRoute(name, Constants.CLIENT_REQUEST_CONNECT_TIMEOUT),
+                            getTimeout(property));
+                } else if (name.startsWith(Constants.CLIENT_REQUEST_FIRST_BYTE_TIMEOUT + ".")) {
+                    routeFirstByteTimeouts.put(getRoute(name, Constants.CLIENT_REQUEST_FIRST_BYTE_TIMEOUT),
+                            getTimeout(property));
+                } else if (name.startsWith(Constants.CLIENT_REQUEST_TOTAL_TIMEOUT + ".")) {
+                    routeTotalTimeouts.put(getRoute(name, Constants.CLIENT_REQUEST_TOTAL_TIMEOUT),
+                            getTimeout(property));
+                }
+            }
+        }
+        empty = connectTimeout <= 0 && firstByteTimeout <= 0 && totalTimeout <= 0 && routeConnectTimeouts.isEmpty()
+                && routeFirstByteTimeouts.isEmpty() && routeTotalTimeouts.isEmpty();
+        logger.debug(Constants.CLIENT_REQUEST_CONNECT_TIMEOUT + ":" + connectTimeout + " " + routeConnectTimeouts);
+        logger.debug(Constants.CLIENT_REQUEST_FIRST_BYTE_TIMEOUT + ":" + firstByteTimeout + " "
+                + routeFirstByteTimeouts);
+        logger.debug(Constants.CLIENT_REQUEST_TOTAL_TIMEOUT + ":" + totalTimeout + " " + routeTotalTimeouts);
+    }
+
+    private static long getTimeout(TransportProperty property) {
+        Object value = property.getValue();
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(String.valueOf(value));
+    }
+
+    private static String getRoute(String name, String prefix) {
+        return name.substring(prefix.length() + 1);
+    }
+
+    /**
+     * @return true if no deadline is configured, in which case requests only carrying deadlines as message properties
+     * are tracked
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @param httpRoute BE address
+     * @param request   request sent to the BE
+     * @return time allowed until the request is written to an established connection
+     */
+    public long getConnectTimeout(HttpRoute httpRoute, CarbonMessage request) {
+        return getTimeout(request, Constants.REQUEST_CONNECT_TIMEOUT, routeConnectTimeouts, httpRoute,
+                connectTimeout);
+    }
+
+    /**
+     * @param httpRoute BE address
+     * @param request   request sent to the BE
+     * @return time allowed from writing the request until the response starts
+     */
+    public long getFirstByteTimeout(HttpRoute httpRoute, CarbonMessage request) {
+        return getTimeout(request, Constants.REQUEST_FIRST_BYTE_TIMEOUT, routeFirstByteTimeouts, httpRoute,
+                firstByteTimeout);
+    }
+
+    /**
+     * @param httpRoute BE address
+     * @param request   request sent to the BE
+     * @return time allowed from sending the request until the whole response is read
+     */
+    public long getTotalTimeout(HttpRoute httpRoute, CarbonMessage request) {
+        return getTimeout(request, Constants.REQUEST_TOTAL_TIMEOUT, routeTotalTimeouts, httpRoute, totalTimeout);
+    }
+
+    private static long getTimeout(CarbonMessage request, String property, Map<String, Long> routeTimeouts,
+            HttpRoute httpRoute, long defaultTimeout) {
+        Object value = request.getProperty(property);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        Long routeTimeout = routeTimeouts.get(httpRoute.getHost() + ":" + httpRoute.getPort());
+        return routeTimeout != null ? routeTimeout : defaultTimeout;
+    }
+
+    public static Timer getTimer() {
+        Timer current = timer;
+        if (current == null) {
+            synchronized (RequestDeadlineConfiguration.class) {
+                current = timer;
+                if (current == null) {
+                    // Deadlines are only as precise as the tick, which is plenty for timeouts of seconds
+                    current = new HashedWheelTimer(new DefaultThreadFactory("http-request-deadline-timer", true), 10,
+                            TimeUnit.MILLISECONDS);
+                    timer = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Stop the timer thread, dropping the deadlines still pending. A timer is started again if deadlines are
+     * scheduled afterwards.
+     */
+    public static void stopTimer() {
+        Timer current;
+        synchronized (RequestDeadlineConfiguration.class) {
+            current = timer;
+            timer = null;
+        }
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    public static RequestDeadlineConfiguration getInstance() {
+        return deadlineConfig;
+    }
+
+    public static void createRequestDeadlineConfiguration(Set<TransportProperty> transportProperties) {
+        deadlineConfig = new RequestDeadlineConfiguration(transportProperties);
+    }
+}
@@ -17,10 +17,12 @@ package org.wso2.carbon.transport.http.netty.sender.channel;
 
 
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import org.wso2.carbon.transport.http.netty.common.HttpRoute;
 import org.wso2.carbon.transport.http.netty.listener.SourceHandler;
 import org.wso2.carbon.transport.http.netty.sender.HTTPClientInitializer;
 import org.wso2.carbon.transport.http.netty.sender.TargetHandler;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.TargetChannelPool;
 
 /**
  * A class that encapsulate channel and state.
@@ -30,6 +32,8 @@ public class TargetChannel {
 
     private Channel channel;
 
+    private ChannelFuture channelFuture;
+
     private TargetHandler targetHandler;
 
     private HTTPClientInitializer httpClientInitializer;
@@ -40,6 +44,15 @@ public class TargetChannel {
 
     private boolean isRequestWritten;
 
+    private TargetChannelPool targetChannelPool;
+
+    private long idleSince;
+
+    // Pipelining state, only accessed from the event loop of the owning pool
+    private int pendingResponses;
+    private boolean pipelined;
+    private boolean writeInProgress;
+
     public boolean isRequestWritten() {
         return isRequestWritten;
     }
@@ -53,6 +66,23 @@ public class TargetChannel {
         return this;
     }
 
+    public ChannelFuture getChannelFuture() {
+        return channelFuture;
+    }
+
+    public void setChannelFuture(ChannelFuture channelFuture) {
+        this.channelFuture = channelFuture;
+    }
+
+    /**
+     * A target channel is usable while its connection is being established or once it is active.
+     *
+     * @return true if the connection is pending or active
+     */
+    public boolean isConnectingOrActive() {
+        return (channelFuture != null && !channelFuture.isDone()) || (channel != null && channel.isActive());
+    }
+
     public TargetHandler getTargetHandler() {
         return targetHandler;
     }
@@ -88,4 +118,53 @@ public class TargetChannel {
     public void setRequestWritten(boolean isRequestWritten) {
         this.isRequestWritten = isRequestWritten;
     }
+
+    public TargetChannelPool getTargetChannelPool() {
+        return targetChannelPool;
+    }
+
+    public void setTargetChannelPool(TargetChannelPool targetChannelPool) {
+        this.targetChannelPool = targetChannelPool;
+    }
+
+    public long getIdleSince() {
+        return idleSince;
+    }
+
+    public void setIdleSince(long idleSince) {
+        this.idleSince = idleSince;
+    }
+
+    /**
+     * @return number of requests borrowing this channel whose responses are still to be read
+     */
+    public int getPendingResponses() {
+        return pendingResponses;
+    }
+
+    public void setPendingResponses(int pendingResponses) {
+        this.pendingResponses = pendingResponses;
+    }
+
+    /**
+     * @return true if further idempotent requests may be written to this channel ahead of the pending responses
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * @return true while the last request borrowing this channel is still being written
+     */
+    public boolean isWriteInProgress() {
+        return writeInProgress;
+    }
+
+    public void setWriteInProgress(boolean writeInProgress) {
+        this.writeInProgress = writeInProgress;
+    }
 }
@@ -17,31 +17,32 @@ package org.wso2.carbon.transport.http.netty.sender.channel.pool;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.HttpRequest;
-import org.apache.commons.pool.impl.GenericObjectPool;
+import io.netty.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.carbon.messaging.CarbonCallback;
 import org.wso2.carbon.messaging.CarbonMessage;
 import org.wso2.carbon.messaging.exceptions.MessagingException;
 import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.common.NativeTransport;
+import org.wso2.carbon.transport.http.netty.common.TransportThreadFactory;
 import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
 import org.wso2.carbon.transport.http.netty.config.TransportProperty;
 import org.wso2.carbon.transport.http.netty.listener.SourceHandler;
 import org.wso2.carbon.transport.http.netty.sender.ClientRequestWorker;
+import org.wso2.carbon.transport.http.netty.sender.Http2TargetHandler;
+import org.wso2.carbon.transport.http.netty.sender.RequestDeadline;
+import org.wso2.carbon.transport.http.netty.sender.channel.BootstrapConfiguration;
 import org.wso2.carbon.transport.http.netty.sender.channel.TargetChannel;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A class which handles connection pool management.
@@ -54,53 +55,48 @@ public class ConnectionManager {
 
     private PoolConfiguration poolConfiguration;
 
-    private int poolCount;
+    //Target channel pools owned by each event loop, keyed by the route.
+    private final Map<EventLoop, Map<String, TargetChannelPool>> eventLoopPools;
 
-    private final List<Map<String, GenericObjectPool>> poolList;
+    //HTTP/2 connection pools owned by each event loop, keyed by the route.
+    private final Map<EventLoop, Map<String, Http2ConnectionPool>> eventLoopHttp2Pools;
 
-    //Connection Pool to be used  when Carbon transport HTTP Listeners are not used.
-    private final Map<String, GenericObjectPool> localConnectionMap;
+    //Event loop groups owned by each sender configuration, used when Carbon transport HTTP Listeners are not used.
+    private final Map<String, EventLoopGroup> senderEventLoopGroups;
 
     private PoolManagementPolicy poolManagementPolicy;
 
-    private AtomicInteger index = new AtomicInteger(1);
-
     private ExecutorService executorService;
 
     private ConnectionManager(PoolConfiguration poolConfiguration) {
         this.poolConfiguration = poolConfiguration;
-        this.poolCount = poolConfiguration.getNumberOfPools();
         this.executorService = Executors.newFixedThreadPool(poolConfiguration.getExecutorServiceThreads());
-        localConnectionMap = new ConcurrentHashMap<>();
+        eventLoopPools = new ConcurrentHashMap<>();
+        eventLoopHttp2Pools = new ConcurrentHashMap<>();
+        senderEventLoopGroups = new ConcurrentHashMap<>();
         if (poolConfiguration.getNumberOfPools() == 0) {
             this.poolManagementPolicy = PoolManagementPolicy.PER_SERVER_CHANNEL_ENDPOINT_CONNECTION_CACHING;
         } else {
             this.poolManagementPolicy = PoolManagementPolicy.GLOBAL_ENDPOINT_CONNECTION_CACHING;
         }
-
-        poolList = new ArrayList<>();
-        for (int i = 0; i < poolCount; i++) {
-            Map<String, GenericObjectPool> map = new ConcurrentHashMap<>();
-            poolList.add(map);
-        }
-
     }
 
-    private GenericObjectPool createPoolForRoute(HttpRoute httpRoute, EventLoopGroup eventLoopGroup,
-            Class eventLoopClass, SenderConfiguration senderConfiguration) {
-        GenericObjectPool.Config config = new GenericObjectPool.Config();
-        config.maxActive = poolConfiguration.getMaxActivePerPool();
-        config.maxIdle = poolConfiguration.getMaxIdlePerPool();
-        config.minIdle = poolConfiguration.getMinIdlePerPool();
-        config.testOnBorrow = poolConfiguration.isTestOnBorrow();
-        config.testWhileIdle = poolConfiguration.isTestWhileIdle();
-        config.timeBetweenEvictionRunsMillis = poolConfiguration.getTimeBetweenEvictionRuns();
-        config.minEvictableIdleTimeMillis = poolConfiguration.getMinEvictableIdleTime();
-        config.whenExhaustedAction = poolConfiguration.getExhaustedAction();
-        return new GenericObjectPool(
-                new PoolableTargetChannelFactory(httpRoute, eventLoopGroup, eventLoopClass, senderConfiguration),
-                config);
+    private TargetChannelPool getPoolForRoute(HttpRoute httpRoute, EventLoop eventLoop, Class eventLoopClass,
+            SenderConfiguration senderConfiguration) {
+        Map<String, TargetChannelPool> routePools = eventLoopPools
+                .computeIfAbsent(eventLoop, loop -> new ConcurrentHashMap<>());
+        return routePools.computeIfAbsent(httpRoute.toString(),
+                route -> new TargetChannelPool(httpRoute, eventLoop, eventLoopClass, senderConfiguration,
+                        poolConfiguration));
+    }
 
+    private Http2ConnectionPool getHttp2PoolForRoute(HttpRoute httpRoute, EventLoop eventLoop, Class eventLoopClass,
+            SenderConfiguration senderConfiguration) {
+        Map<String, Http2ConnectionPool> routePools = eventLoopHttp2Pools
+                .computeIfAbsent(eventLoop, loop -> new ConcurrentHashMap<>());
+        return routePools.computeIfAbsent(httpRoute.toString(),
+                route -> new Http2ConnectionPool(httpRoute, eventLoop, eventLoopClass, senderConfiguration,
+                        poolConfiguration));
     }
 
     public static ConnectionManager getInstance(Set<TransportProperty> transportPropertySet) {
@@ -129,7 +125,7 @@ public class ConnectionManager {
      * @param httpRequest         http request
      * @param carbonMessage       carbon message
      * @param carbonCallback      carbon call back
-     * @return TargetChannel
+     * @return TargetChannel, or null if the request is sent asynchronously
      * @throws Exception to notify any errors occur during retrieving the target channel
      */
     public TargetChannel getTargetChannel(HttpRoute httpRoute, SourceHandler sourceHandler,
@@ -138,70 +134,71 @@ public class ConnectionManager {
         TargetChannel targetChannel = null;
 
         Class cl = null;
-        EventLoopGroup group = null;
+        EventLoop eventLoop = null;
+        PoolManagementPolicy policy = poolManagementPolicy;
 
         if (sourceHandler != null) {
+            // The target channel shares the event loop of the source channel, hence it also uses its transport
             ChannelHandlerContext ctx = sourceHandler.getInboundChannelContext();
-            group = ctx.channel().eventLoop();
+            eventLoop = ctx.channel().eventLoop();
             cl = ctx.channel().getClass();
+            if (sourceHandler.isMultiplexed()) {
+                // Concurrent requests of one source connection cannot share a cached target channel
+                policy = PoolManagementPolicy.GLOBAL_ENDPOINT_CONNECTION_CACHING;
+            }
         } else {
-            cl = NioSocketChannel.class;
-            group = new NioEventLoopGroup(Integer.parseInt(senderConfiguration.getSenderWorkerThreads()));
-            poolManagementPolicy = PoolManagementPolicy.DEFAULT_POOLING;
+            cl = NativeTransport.getSocketChannelClass(isNativeTransport());
+            eventLoop = getSenderEventLoopGroup(senderConfiguration).next();
+            policy = PoolManagementPolicy.DEFAULT_POOLING;
         }
 
-        // Take connections from Global connection pool
-        if (poolManagementPolicy == PoolManagementPolicy.GLOBAL_ENDPOINT_CONNECTION_CACHING) {
-            Map<String, GenericObjectPool> objectPoolMap = sourceHandler.getTargetChannelPool();
-            GenericObjectPool pool = objectPoolMap.get(httpRoute.toString());
-            if (pool == null) {
-                pool = createPoolForRoute(httpRoute, group, cl, senderConfiguration);
-                objectPoolMap.put(httpRoute.toString(), pool);
-            }
+        if (senderConfiguration.isHttp2()) {
+            // Requests share the connections of the route as streams, nothing is bound to the source channel
+            sendHttp2Request(getHttp2PoolForRoute(httpRoute, eventLoop, cl, senderConfiguration), httpRequest,
+                    carbonMessage, carbonCallback);
+            return null;
+        }
+
+        // Take connections from the pool owned by the event loop
+        if (policy == PoolManagementPolicy.GLOBAL_ENDPOINT_CONNECTION_CACHING
+                || policy == PoolManagementPolicy.DEFAULT_POOLING) {
+            TargetChannelPool pool = getPoolForRoute(httpRoute, eventLoop, cl, senderConfiguration);
             try {
-                executorService.execute(
+                dispatch(eventLoop,
                         new ClientRequestWorker(httpRoute, sourceHandler, senderConfiguration, httpRequest,
-                                carbonMessage, carbonCallback, PoolManagementPolicy.
-                                GLOBAL_ENDPOINT_CONNECTION_CACHING, pool, this, group, cl));
+                                carbonMessage, carbonCallback, policy, pool, this, eventLoop, cl));
             } catch (Exception e) {
+                if (!RequestDeadline.complete(carbonMessage)) {
+                    return null;
+                }
                 String msg = "Cannot borrow free channel from pool ";
                 log.error(msg, e);
                 MessagingException messagingException = new MessagingException(msg, e, 101500);
                 carbonMessage.setMessagingException(messagingException);
                 carbonCallback.done(carbonMessage);
             }
-        } else if (poolManagementPolicy == PoolManagementPolicy.PER_SERVER_CHANNEL_ENDPOINT_CONNECTION_CACHING) {
+        } else if (policy == PoolManagementPolicy.PER_SERVER_CHANNEL_ENDPOINT_CONNECTION_CACHING) {
             // manage connections according to per inbound channel caching method
             if (!isRouteExists(httpRoute, sourceHandler)) {
-                executorService.
-                        execute(new ClientRequestWorker(httpRoute, sourceHandler, senderConfiguration, httpRequest,
+                dispatch(eventLoop,
+                        new ClientRequestWorker(httpRoute, sourceHandler, senderConfiguration, httpRequest,
                                 carbonMessage, carbonCallback, PoolManagementPolicy.
-                                PER_SERVER_CHANNEL_ENDPOINT_CONNECTION_CACHING, null, this, group, cl));
+                                PER_SERVER_CHANNEL_ENDPOINT_CONNECTION_CACHING, null, this, eventLoop, cl));
             } else {
                 targetChannel = sourceHandler.getChannel(httpRoute);
                 Channel tempc = targetChannel.getChannel();
                 if (!tempc.isActive()) {
-                    executorService.
-                            execute(new ClientRequestWorker(httpRoute, sourceHandler, senderConfiguration,
+                    dispatch(eventLoop,
+                            new ClientRequestWorker(httpRoute, sourceHandler, senderConfiguration,
 
                                     httpRequest, carbonMessage,
 
                                     carbonCallback, PoolManagementPolicy.
-                                    PER_SERVER_CHANNEL_ENDPOINT_CONNECTION_CACHING, null, this, group, cl));
+                                    PER_SERVER_CHANNEL_ENDPOINT_CONNECTION_CACHING, null, this, eventLoop, cl));
                     targetChannel = null;
                     sourceHandler.removeChannelFuture(httpRoute);
                 }
             }
-        } else if (poolManagementPolicy == PoolManagementPolicy.DEFAULT_POOLING) {
-            GenericObjectPool pool = localConnectionMap.get(httpRoute.toString());
-            if (pool == null) {
-                pool = createPoolForRoute(httpRoute, group, cl, senderConfiguration);
-                localConnectionMap.put(httpRoute.toString(), pool);
-            }
-            executorService.
-                    execute(new ClientRequestWorker(httpRoute, sourceHandler, senderConfiguration, httpRequest,
-                            carbonMessage, carbonCallback, PoolManagementPolicy.
-                            DEFAULT_POOLING, pool, this, group, cl));
         }
         if (targetChannel != null) {
             targetChannel.setHttpRoute(httpRoute);
@@ -213,33 +210,85 @@ public class ConnectionManager {
         return targetChannel;
     }
 
-    //Add connection to Pool back
-    public void returnChannel(TargetChannel targetChannel) throws Exception {
-        if (poolManagementPolicy == PoolManagementPolicy.GLOBAL_ENDPOINT_CONNECTION_CACHING) {
-            Map<String, GenericObjectPool> objectPoolMap = targetChannel.getCorrelatedSource().getTargetChannelPool();
-            GenericObjectPool pool = objectPoolMap.get(targetChannel.getHttpRoute().toString());
-            try {
-                if (targetChannel.getChannel().isActive()) {
-                    pool.returnObject(targetChannel);
-                }
-            } catch (Exception e) {
-                String msg = "Cannot return channel to pool";
-                log.error(msg, e);
-                throw new Exception(msg, e);
+    private void sendHttp2Request(Http2ConnectionPool pool, HttpRequest httpRequest, CarbonMessage carbonMessage,
+            CarbonCallback carbonCallback) {
+        pool.acquireStream().addListener((Future<Http2TargetHandler> future) -> {
+            if (future.isSuccess()) {
+                future.getNow().sendRequest(httpRequest, carbonMessage, carbonCallback, executorService);
+            } else {
+                String msg = "Cannot open HTTP/2 stream to " + pool.getHttpRoute();
+                log.error(msg, future.cause());
+                MessagingException messagingException = new MessagingException(msg, future.cause(), 101503);
+                carbonMessage.setMessagingException(messagingException);
+                carbonCallback.done(carbonMessage);
             }
+        });
+    }
 
-        } else if (poolManagementPolicy == PoolManagementPolicy.DEFAULT_POOLING) {
-            HttpRoute httpRoute = targetChannel.getHttpRoute();
-            GenericObjectPool pool = localConnectionMap.get(httpRoute.toString());
-            try {
-                if (targetChannel.getChannel().isActive()) {
-                    pool.returnObject(targetChannel);
+    /**
+     * Provide the event loop group owned by the given sender configuration. The group is created on first use and
+     * shared by every standalone request sent through that configuration until {@link #shutdownSenderEventLoops()}.
+     *
+     * @param senderConfiguration netty sender config
+     * @return EventLoopGroup used for outbound connections of the sender configuration
+     */
+    public EventLoopGroup getSenderEventLoopGroup(SenderConfiguration senderConfiguration) {
+        return senderEventLoopGroups.computeIfAbsent(senderConfiguration.getId(), id -> {
+            log.debug("Creating sender event loop group for sender configuration {}", id);
+            return NativeTransport.newEventLoopGroup(isNativeTransport(),
+                    Integer.parseInt(senderConfiguration.getSenderWorkerThreads()),
+                    new TransportThreadFactory(new ThreadGroup("netty-sender-" + id)));
+        });
+    }
+
+    private boolean isNativeTransport() {
+        BootstrapConfiguration bootstrapConfiguration = BootstrapConfiguration.getInstance();
+        return bootstrapConfiguration != null && bootstrapConfiguration.isNativeTransport();
+    }
+
+    /**
+     * Close the standalone connection pools and shut down the event loop groups owned by sender configurations.
+     */
+    public void shutdownSenderEventLoops() {
+        senderEventLoopGroups.values().forEach(group -> {
+            eventLoopPools.entrySet().removeIf(entry -> {
+                if (entry.getKey().parent() == group) {
+                    entry.getValue().values().forEach(TargetChannelPool::close);
+                    return true;
                 }
-            } catch (Exception e) {
-                String msg = "Cannot return channel to pool";
-                log.error(msg, e);
-                throw new Exception(msg, e);
-            }
+                return false;
+            });
+            eventLoopHttp2Pools.entrySet().removeIf(entry -> {
+                if (entry.getKey().parent() == group) {
+                    entry.getValue().values().forEach(Http2ConnectionPool::close);
+                    return true;
+                }
+                return false;
+            });
+            group.shutdownGracefully();
+        });
+        senderEventLoopGroups.clear();
+    }
+
+    //Add connection to Pool back
+    public void returnChannel(TargetChannel targetChannel) {
+        TargetChannelPool pool = targetChannel.getTargetChannelPool();
+        if (pool != null) {
+            pool.release(targetChannel);
+        }
+    }
+
+    /**
+     * Run the worker right away when the request is sent from the event loop of the source channel, which is the
+     * case for passthrough. Borrowing, connecting and writing never block, and the target channel is registered on
+     * the same loop, so the request goes out without a thread hop. Requests sent from other threads are handed over
+     * to the executor.
+     */
+    private void dispatch(EventLoop eventLoop, ClientRequestWorker clientRequestWorker) {
+        if (eventLoop.inEventLoop()) {
+            clientRequestWorker.run();
+        } else {
+            executorService.execute(clientRequestWorker);
         }
     }
 
@@ -248,22 +297,12 @@ public class ConnectionManager {
     }
 
     /**
-     * Provide specific target channel map.
+     * Provide the executor used to hand over requests which cannot be written from the event loop.
      *
-     * @return Map contains pools for each route
+     * @return ExecutorService of the sender workers
      */
-    public Map<String, GenericObjectPool> getTargetChannelPool() {
-        if (poolManagementPolicy == PoolManagementPolicy.GLOBAL_ENDPOINT_CONNECTION_CACHING) {
-            int ind = index.getAndIncrement() % poolCount;
-            return poolList.get(ind);
-        }
-        return null;
-    }
-
-    public void notifyChannelInactive() {
-        if (poolManagementPolicy == PoolManagementPolicy.GLOBAL_ENDPOINT_CONNECTION_CACHING) {
-            index.getAndDecrement();
-        }
+    public ExecutorService getExecutorService() {
+        return executorService;
     }
 
     /**
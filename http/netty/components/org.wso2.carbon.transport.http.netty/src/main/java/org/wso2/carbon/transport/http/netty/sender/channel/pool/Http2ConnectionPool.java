@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.sender.channel.pool;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.Http2ClientInitializer;
+import org.wso2.carbon.transport.http.netty.sender.Http2TargetHandler;
+import org.wso2.carbon.transport.http.netty.sender.channel.ChannelUtils;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pool of HTTP/2 connections for a single {@link HttpRoute} owned by a single {@link EventLoop}.
+ * <p>
+ * Requests borrow a stream rather than a connection. Streams are reserved on the existing connections first and a
+ * new connection is only opened once all of them have reached the concurrent stream limit of the BE, up to the
+ * configured number of connections per pool. Requests beyond that wait for a stream to close, up to the configured
+ * number of waiting requests and for no longer than the maximum wait time of the pool. Like
+ * {@link TargetChannelPool}, the state of the pool is only touched from the owning event loop.
+ */
+public class Http2ConnectionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(Http2ConnectionPool.class);
+
+    private final HttpRoute httpRoute;
+    private final EventLoop eventLoop;
+    private final Class eventLoopClass;
+    private final SenderConfiguration senderConfiguration;
+    private final int maxConnections;
+    private final int maxPendingAcquires;
+    private final long maxWaitTime;
+
+    // Connections are tried in the order they were opened
+    private final Map<Http2TargetHandler, Channel> connections = new LinkedHashMap<>();
+    private final Deque<Promise<Http2TargetHandler>> pendingAcquires = new ArrayDeque<>();
+
+    private volatile boolean closed;
+
+    public Http2ConnectionPool(HttpRoute httpRoute, EventLoop eventLoop, Class eventLoopClass,
+            SenderConfiguration senderConfiguration, PoolConfiguration poolConfiguration) {
+        this.httpRoute = httpRoute;
+        this.eventLoop = eventLoop;
+        this.eventLoopClass = eventLoopClass;
+        this.senderConfiguration = senderConfiguration;
+        this.maxConnections = poolConfiguration.getMaxHttp2ConnectionsPerPool();
+        this.maxPendingAcquires = poolConfiguration.getMaxHttp2PendingStreamsPerPool();
+        this.maxWaitTime = poolConfiguration.getMaxWaitTime();
+    }
+
+    /**
+     * Reserve a stream for a request. The stream is opened by sending the request through
+     * {@link Http2TargetHandler#sendRequest}, which has to be called from the owning event loop.
+     *
+     * @return Future completed on the owning event loop with a connection holding the reserved stream, once the
+     * connection is ready
+     */
+    public Future<Http2TargetHandler> acquireStream() {
+        Promise<Http2TargetHandler> promise = eventLoop.newPromise();
+        if (eventLoop.inEventLoop()) {
+            doAcquire(promise);
+        } else {
+            eventLoop.execute(() -> doAcquire(promise));
+        }
+        return promise;
+    }
+
+    /**
+     * Hand the streams which became available on a connection to the requests waiting for one. Called by the
+     * connection from the owning event loop.
+     *
+     * @param handler connection with available streams
+     */
+    public void onStreamAvailable(Http2TargetHandler handler) {
+        while (!pendingAcquires.isEmpty() && handler.tryReserveStream()) {
+            complete(handler, pendingAcquires.pollFirst());
+        }
+    }
+
+    /**
+     * Close all connections of the pool and fail the requests waiting for a stream.
+     */
+    public void close() {
+        closed = true;
+        eventLoop.execute(() -> {
+            while (!pendingAcquires.isEmpty()) {
+                pendingAcquires.pollFirst().tryFailure(new IllegalStateException("Pool closed for " + httpRoute));
+            }
+            for (Channel channel : new ArrayList<>(connections.values())) {
+                channel.close();
+            }
+        });
+    }
+
+    public EventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    public HttpRoute getHttpRoute() {
+        return httpRoute;
+    }
+
+    private void doAcquire(Promise<Http2TargetHandler> promise) {
+        if (closed) {
+            promise.tryFailure(new IllegalStateException("Pool closed for " + httpRoute));
+            return;
+        }
+        for (Http2TargetHandler handler : connections.keySet()) {
+            if (handler.tryReserveStream()) {
+                complete(handler, promise);
+                return;
+            }
+        }
+        if (connections.size() < maxConnections) {
+            Http2TargetHandler handler = createConnection();
+            handler.tryReserveStream();
+            complete(handler, promise);
+            return;
+        }
+        awaitStream(promise);
+    }
+
+    private void awaitStream(Promise<Http2TargetHandler> promise) {
+        if (pendingAcquires.size() >= maxPendingAcquires) {
+            promise.tryFailure(new NoSuchElementException("Pool exhausted for " + httpRoute + ", "
+                    + pendingAcquires.size() + " requests are waiting for a stream"));
+            return;
+        }
+        pendingAcquires.offerLast(promise);
+        if (maxWaitTime <= 0) {
+            return;
+        }
+        ScheduledFuture<?> timeout = eventLoop.schedule(() -> {
+            if (pendingAcquires.remove(promise)) {
+                promise.tryFailure(new TimeoutException("Timed out after " + maxWaitTime
+                        + "ms waiting for a stream to " + httpRoute));
+            }
+        }, maxWaitTime, TimeUnit.MILLISECONDS);
+        promise.addListener(future -> timeout.cancel(false));
+    }
+
+    private void complete(Http2TargetHandler handler, Promise<Http2TargetHandler> promise) {
+        handler.getReadyFuture().addListener(future -> {
+            if (!future.isSuccess()) {
+                // The reservation went away along with the connection
+                promise.tryFailure(future.cause());
+            } else if (!promise.trySuccess(handler)) {
+                handler.releaseStream();
+            }
+        });
+    }
+
+    private Http2TargetHandler createConnection() {
+        Http2ClientInitializer initializer = new Http2ClientInitializer(senderConfiguration, httpRoute, this);
+        Http2TargetHandler handler = initializer.getHandler();
+        ChannelFuture channelFuture = ChannelUtils.connect(eventLoop, eventLoopClass, httpRoute, initializer);
+        connections.put(handler, channelFuture.channel());
+        channelFuture.addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                handler.connectionFailed(ChannelUtils.getConnectException(future, httpRoute));
+            }
+        });
+        channelFuture.channel().closeFuture().addListener(future -> {
+            handler.connectionFailed(new ClosedChannelException());
+            connections.remove(handler);
+            log.debug("Removed HTTP/2 connection to {}, {} remaining", httpRoute, connections.size());
+            if (!closed && !pendingAcquires.isEmpty()) {
+                onStreamAvailable(createConnection());
+            }
+        });
+        log.debug("Created HTTP/2 connection: {}", channelFuture.channel());
+        return handler;
+    }
+}
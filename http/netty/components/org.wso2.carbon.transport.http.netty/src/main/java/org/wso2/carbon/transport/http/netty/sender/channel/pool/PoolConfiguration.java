@@ -15,7 +15,6 @@
 
 package org.wso2.carbon.transport.http.netty.sender.channel.pool;
 
-import org.apache.commons.pool.impl.GenericObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.carbon.transport.http.netty.common.Constants;
@@ -47,12 +46,18 @@ public class PoolConfiguration {
 
     private long minEvictableIdleTime = 5 * 60 * 1000L;
 
-    private byte exhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_GROW;
+    private byte exhaustedAction = TargetChannelPool.WHEN_EXHAUSTED_GROW;
+
+    private long maxWaitTime = 30 * 1000L;
 
     private int numberOfPools = 0;
 
     private int executorServiceThreads = 20;
 
+    private int maxHttp2ConnectionsPerPool = 1;
+
+    private int maxHttp2PendingStreamsPerPool = 1024;
+
     private PoolConfiguration(Set<TransportProperty> transportPropertySet) {
 
         if (transportPropertySet != null && !transportPropertySet.isEmpty()) {
@@ -69,8 +74,16 @@ public class PoolConfiguration {
                     maxIdlePerPool = (Integer) transportProperty.getValue();
                 } else if (transportProperty.getName().equals(Constants.MIN_EVICTION_IDLE_TIME)) {
                     minEvictableIdleTime = (Integer) transportProperty.getValue();
+                } else if (transportProperty.getName().equals(Constants.POOL_EXHAUSTED_ACTION)) {
+                    exhaustedAction = ((Integer) transportProperty.getValue()).byteValue();
+                } else if (transportProperty.getName().equals(Constants.MAX_WAIT_TIME_PER_POOL)) {
+                    maxWaitTime = (Integer) transportProperty.getValue();
                 } else if (transportProperty.getName().equals(Constants.NO_THREADS_IN_EXECUTOR_SERVICE)) {
                     executorServiceThreads = (Integer) transportProperty.getValue();
+                } else if (transportProperty.getName().equals(Constants.MAX_HTTP2_CONNECTIONS_PER_POOL)) {
+                    maxHttp2ConnectionsPerPool = Math.max(1, (Integer) transportProperty.getValue());
+                } else if (transportProperty.getName().equals(Constants.MAX_HTTP2_PENDING_STREAMS_PER_POOL)) {
+                    maxHttp2PendingStreamsPerPool = (Integer) transportProperty.getValue();
                 }
             }
         }
@@ -81,8 +94,11 @@ public class PoolConfiguration {
         logger.debug(Constants.MAX_IDLE_CONNECTIONS_PER_POOL + ":" + maxIdlePerPool);
         logger.debug(Constants.MIN_EVICTION_IDLE_TIME + ":" + minEvictableIdleTime);
         logger.debug(Constants.NO_THREADS_IN_EXECUTOR_SERVICE + ":" + executorServiceThreads);
+        logger.debug(Constants.MAX_HTTP2_CONNECTIONS_PER_POOL + ":" + maxHttp2ConnectionsPerPool);
+        logger.debug(Constants.MAX_HTTP2_PENDING_STREAMS_PER_POOL + ":" + maxHttp2PendingStreamsPerPool);
         logger.debug("Time between Evictions Runs" + ":" + timeBetweenEvictionRuns);
-        logger.debug("Pool exhausted action" + ":" + exhaustedAction);
+        logger.debug(Constants.POOL_EXHAUSTED_ACTION + ":" + exhaustedAction);
+        logger.debug(Constants.MAX_WAIT_TIME_PER_POOL + ":" + maxWaitTime);
     }
 
     public static PoolConfiguration getInstance() {
@@ -94,6 +110,10 @@ public class PoolConfiguration {
         poolConfiguration = new PoolConfiguration(transportPropertySet);
     }
 
+    /**
+     * @return maximum number of connections borrowed from the pool of a route on a single event loop, the limit
+     * for a route is this times the number of event loops of the sender
+     */
     public int getMaxActivePerPool() {
         return maxActivePerPool;
     }
@@ -126,6 +146,14 @@ public class PoolConfiguration {
         return exhaustedAction;
     }
 
+    /**
+     * @return milliseconds a borrower waits for a connection of an exhausted pool before failing, 0 or less waits
+     * without a limit
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
     public int getNumberOfPools() {
         return numberOfPools;
     }
@@ -133,4 +161,20 @@ public class PoolConfiguration {
     public int getExecutorServiceThreads() {
         return executorServiceThreads;
     }
+
+    /**
+     * @return maximum number of HTTP/2 connections a pool opens to its route. Another connection is only opened
+     * once all the streams allowed by the existing ones are in use
+     */
+    public int getMaxHttp2ConnectionsPerPool() {
+        return maxHttp2ConnectionsPerPool;
+    }
+
+    /**
+     * @return maximum number of requests waiting for a stream of an HTTP/2 pool whose connections are all in use,
+     * further requests fail right away
+     */
+    public int getMaxHttp2PendingStreamsPerPool() {
+        return maxHttp2PendingStreamsPerPool;
+    }
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.sender.channel.pool;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.channel.ChannelUtils;
+import org.wso2.carbon.transport.http.netty.sender.channel.TargetChannel;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of {@link TargetChannel}s for a single {@link HttpRoute} owned by a single {@link EventLoop}.
+ * <p>
+ * All channels of the pool are registered on the owning event loop and the idle deque is only ever touched from
+ * that loop, hence borrowing and returning never take a lock nor hop threads once on the loop. Calls made from
+ * other threads are handed over to the event loop. Pool limits are tracked with atomic counters so that they can
+ * be read from any thread. As each event loop has a pool of its own, the limits of the {@link PoolConfiguration}
+ * apply per event loop rather than per route.
+ * <p>
+ * Borrowers of an exhausted pool which waits for connections to be returned are failed once they waited for the
+ * configured maximum wait time.
+ * <p>
+ * When the sender configuration allows pipelining, idempotent requests which find no idle channel are written to a
+ * borrowed channel whose requests are all idempotent, ahead of its pending responses, before a new connection is
+ * opened. A channel is only offered for pipelining once its last request is completely written, so that requests
+ * never interleave on the connection, and it stays borrowed until all of its responses are read.
+ */
+public class TargetChannelPool {
+
+    private static final Logger log = LoggerFactory.getLogger(TargetChannelPool.class);
+
+    public static final byte WHEN_EXHAUSTED_FAIL = 0;
+
+    public static final byte WHEN_EXHAUSTED_BLOCK = 1;
+
+    public static final byte WHEN_EXHAUSTED_GROW = 2;
+
+    private final HttpRoute httpRoute;
+    private final EventLoop eventLoop;
+    private final Class eventLoopClass;
+    private final SenderConfiguration senderConfiguration;
+    private final PoolConfiguration poolConfiguration;
+
+    // Most recently returned channels are kept at the head, eviction walks from the tail
+    private final Deque<TargetChannel> idleChannels = new ArrayDeque<>();
+    private final Deque<Promise<TargetChannel>> pendingAcquires = new ArrayDeque<>();
+    // Borrowed channels which accept another pipelined request
+    private final Deque<TargetChannel> pipeliningChannels = new ArrayDeque<>();
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private ScheduledFuture<?> evictionFuture;
+    private volatile boolean closed;
+
+    public TargetChannelPool(HttpRoute httpRoute, EventLoop eventLoop, Class eventLoopClass,
+            SenderConfiguration senderConfiguration, PoolConfiguration poolConfiguration) {
+        this.httpRoute = httpRoute;
+        this.eventLoop = eventLoop;
+        this.eventLoopClass = eventLoopClass;
+        this.senderConfiguration = senderConfiguration;
+        this.poolConfiguration = poolConfiguration;
+        long evictionRuns = poolConfiguration.getTimeBetweenEvictionRuns();
+        if (evictionRuns > 0) {
+            evictionFuture = eventLoop
+                    .scheduleWithFixedDelay(this::evict, evictionRuns, evictionRuns, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Borrow a target channel from the pool. The returned channel may still be connecting, callers should chain on
+     * {@link TargetChannel#getChannelFuture()} before writing.
+     *
+     * @return Future which is completed on the owning event loop
+     */
+    public Future<TargetChannel> acquire() {
+        return acquire(false);
+    }
+
+    /**
+     * Borrow a target channel from the pool, which may still be connecting or may have requests pending.
+     *
+     * @param pipelined whether the request may be written ahead of the responses to other requests, which is only
+     *                  the case for idempotent requests
+     * @return Future which is completed on the owning event loop
+     */
+    public Future<TargetChannel> acquire(boolean pipelined) {
+        Promise<TargetChannel> promise = eventLoop.newPromise();
+        if (eventLoop.inEventLoop()) {
+            doAcquire(promise, pipelined);
+        } else {
+            eventLoop.execute(() -> doAcquire(promise, pipelined));
+        }
+        return promise;
+    }
+
+    /**
+     * Offer a channel borrowed for a pipelined request to further pipelined requests, once its request is
+     * completely written.
+     *
+     * @param targetChannel channel borrowed from this pool
+     */
+    public void requestWritten(TargetChannel targetChannel) {
+        if (eventLoop.inEventLoop()) {
+            doRequestWritten(targetChannel);
+        } else {
+            eventLoop.execute(() -> doRequestWritten(targetChannel));
+        }
+    }
+
+    /**
+     * Return a target channel to the pool after an exchange is complete. A pipelined channel stays borrowed until
+     * it is returned by each of its exchanges.
+     *
+     * @param targetChannel channel borrowed from this pool
+     */
+    public void release(TargetChannel targetChannel) {
+        if (eventLoop.inEventLoop()) {
+            doRelease(targetChannel);
+        } else {
+            eventLoop.execute(() -> doRelease(targetChannel));
+        }
+    }
+
+    /**
+     * Remove a borrowed target channel from the pool and close it.
+     *
+     * @param targetChannel channel borrowed from this pool
+     */
+    public void invalidate(TargetChannel targetChannel) {
+        if (eventLoop.inEventLoop()) {
+            doInvalidate(targetChannel);
+        } else {
+            eventLoop.execute(() -> doInvalidate(targetChannel));
+        }
+    }
+
+    /**
+     * Close all idle channels and stop eviction. Borrowed channels are closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        if (evictionFuture != null) {
+            evictionFuture.cancel(false);
+        }
+        eventLoop.execute(() -> {
+            while (!idleChannels.isEmpty()) {
+                destroy(idleChannels.pollFirst());
+                idleCount.decrementAndGet();
+            }
+            while (!pendingAcquires.isEmpty()) {
+                pendingAcquires.pollFirst().tryFailure(new IllegalStateException("Pool closed for " + httpRoute));
+            }
+            pipeliningChannels.clear();
+        });
+    }
+
+    public int getNumActive() {
+        return activeCount.get();
+    }
+
+    public int getNumIdle() {
+        return idleCount.get();
+    }
+
+    public EventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    private void doAcquire(Promise<TargetChannel> promise) {
+        doAcquire(promise, false);
+    }
+
+    private void doAcquire(Promise<TargetChannel> promise, boolean pipelined) {
+        if (closed) {
+            promise.tryFailure(new IllegalStateException("Pool closed for " + httpRoute));
+            return;
+        }
+        TargetChannel targetChannel;
+        while ((targetChannel = idleChannels.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (!poolConfiguration.isTestOnBorrow() || targetChannel.isConnectingOrActive()) {
+                activeCount.incrementAndGet();
+                borrow(targetChannel, pipelined);
+                if (!promise.trySuccess(targetChannel)) {
+                    doRelease(targetChannel);
+                }
+                return;
+            }
+            destroy(targetChannel);
+        }
+
+        if (pipelined) {
+            while ((targetChannel = pipeliningChannels.pollFirst()) != null) {
+                if (targetChannel.isConnectingOrActive()) {
+                    targetChannel.setPendingResponses(targetChannel.getPendingResponses() + 1);
+                    targetChannel.setWriteInProgress(true);
+                    if (!promise.trySuccess(targetChannel)) {
+                        targetChannel.setWriteInProgress(false);
+                        doRelease(targetChannel);
+                    }
+                    return;
+                }
+            }
+        }
+
+        int maxActive = poolConfiguration.getMaxActivePerPool();
+        if (maxActive > 0 && activeCount.get() >= maxActive) {
+            byte exhaustedAction = poolConfiguration.getExhaustedAction();
+            if (exhaustedAction == WHEN_EXHAUSTED_BLOCK) {
+                awaitRelease(promise);
+                return;
+            } else if (exhaustedAction == WHEN_EXHAUSTED_FAIL) {
+                promise.tryFailure(new NoSuchElementException("Pool exhausted for " + httpRoute));
+                return;
+            }
+        }
+        activeCount.incrementAndGet();
+        targetChannel = createTargetChannel();
+        borrow(targetChannel, pipelined);
+        if (!promise.trySuccess(targetChannel)) {
+            activeCount.decrementAndGet();
+        }
+    }
+
+    private void awaitRelease(Promise<TargetChannel> promise) {
+        pendingAcquires.offerLast(promise);
+        long maxWaitTime = poolConfiguration.getMaxWaitTime();
+        if (maxWaitTime <= 0) {
+            return;
+        }
+        ScheduledFuture<?> timeout = eventLoop.schedule(() -> {
+            if (pendingAcquires.remove(promise)) {
+                promise.tryFailure(new TimeoutException("Timed out after " + maxWaitTime
+                        + "ms waiting for a connection to " + httpRoute));
+            }
+        }, maxWaitTime, TimeUnit.MILLISECONDS);
+        promise.addListener(future -> timeout.cancel(false));
+    }
+
+    private void borrow(TargetChannel targetChannel, boolean pipelined) {
+        targetChannel.setPendingResponses(1);
+        targetChannel.setPipelined(pipelined && senderConfiguration.getMaxPipelinedRequests() > 1);
+        targetChannel.setWriteInProgress(true);
+    }
+
+    private void doRequestWritten(TargetChannel targetChannel) {
+        targetChannel.setWriteInProgress(false);
+        offerForPipelining(targetChannel);
+    }
+
+    private void offerForPipelining(TargetChannel targetChannel) {
+        if (!closed && targetChannel.isPipelined() && !targetChannel.isWriteInProgress()
+                && targetChannel.getPendingResponses() > 0
+                && targetChannel.getPendingResponses() < senderConfiguration.getMaxPipelinedRequests()
+                && targetChannel.isConnectingOrActive() && !pipeliningChannels.contains(targetChannel)) {
+            pipeliningChannels.offerLast(targetChannel);
+        }
+    }
+
+    private void doRelease(TargetChannel targetChannel) {
+        if (targetChannel.getPendingResponses() > 1) {
+            // Responses to pipelined requests are still to be read
+            targetChannel.setPendingResponses(targetChannel.getPendingResponses() - 1);
+            offerForPipelining(targetChannel);
+            return;
+        }
+        targetChannel.setPendingResponses(0);
+        targetChannel.setPipelined(false);
+        pipeliningChannels.remove(targetChannel);
+        activeCount.decrementAndGet();
+        if (closed || !targetChannel.isConnectingOrActive()) {
+            destroy(targetChannel);
+            servePendingAcquire();
+            return;
+        }
+        Promise<TargetChannel> waiter = pendingAcquires.pollFirst();
+        if (waiter != null) {
+            // Handed over like a fresh borrow, waiters are not offered for pipelining
+            activeCount.incrementAndGet();
+            borrow(targetChannel, false);
+            if (waiter.trySuccess(targetChannel)) {
+                return;
+            }
+            activeCount.decrementAndGet();
+            targetChannel.setPendingResponses(0);
+            targetChannel.setWriteInProgress(false);
+        }
+        if (idleCount.get() >= poolConfiguration.getMaxIdlePerPool()) {
+            destroy(targetChannel);
+            return;
+        }
+        targetChannel.setIdleSince(System.currentTimeMillis());
+        idleChannels.offerFirst(targetChannel);
+        idleCount.incrementAndGet();
+    }
+
+    private void doInvalidate(TargetChannel targetChannel) {
+        targetChannel.setPendingResponses(0);
+        targetChannel.setPipelined(false);
+        pipeliningChannels.remove(targetChannel);
+        activeCount.decrementAndGet();
+        destroy(targetChannel);
+        servePendingAcquire();
+    }
+
+    private void servePendingAcquire() {
+        Promise<TargetChannel> waiter = pendingAcquires.pollFirst();
+        if (waiter != null) {
+            doAcquire(waiter);
+        }
+    }
+
+    private TargetChannel createTargetChannel() {
+        TargetChannel targetChannel = new TargetChannel();
+        targetChannel.setTargetChannelPool(this);
+        ChannelUtils.getNewChannelFuture(targetChannel, eventLoop, eventLoopClass, httpRoute, senderConfiguration);
+        log.debug("Created channel: {}", targetChannel.getChannel());
+        return targetChannel;
+    }
+
+    private void destroy(TargetChannel targetChannel) {
+        log.debug("Destroying channel: {}", targetChannel.getChannel());
+        if (targetChannel.getChannel() != null && targetChannel.getChannel().isOpen()) {
+            targetChannel.getChannel().close();
+        }
+    }
+
+    // Runs on the owning event loop, oldest idle channels are at the tail of the deque
+    private void evict() {
+        long evictBefore = System.currentTimeMillis() - poolConfiguration.getMinEvictableIdleTime();
+        Iterator<TargetChannel> iterator = idleChannels.descendingIterator();
+        while (iterator.hasNext()) {
+            TargetChannel targetChannel = iterator.next();
+            boolean stale = poolConfiguration.isTestWhileIdle() && !targetChannel.isConnectingOrActive();
+            boolean expired = targetChannel.getIdleSince() <= evictBefore
+                    && idleCount.get() > poolConfiguration.getMinIdlePerPool();
+            if (stale || expired) {
+                iterator.remove();
+                idleCount.decrementAndGet();
+                destroy(targetChannel);
+            }
+        }
+        ensureMinIdle();
+    }
+
+    private void ensureMinIdle() {
+        int required = poolConfiguration.getMinIdlePerPool() - idleCount.get();
+        for (int i = 0; i < required && !closed; i++) {
+            TargetChannel targetChannel = createTargetChannel();
+            targetChannel.setIdleSince(System.currentTimeMillis());
+            idleChannels.offerLast(targetChannel);
+            idleCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for pausing reading from a channel on behalf of several reasons.
+ */
+public class ReadPauseArbiterTestCase {
+
+    @Test
+    public void testReadingResumesOnceEveryReasonResumes() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        ReadPauseArbiter.pause(channel);
+        ReadPauseArbiter.pause(channel);
+        assertFalse(channel.config().isAutoRead());
+
+        ReadPauseArbiter.resume(channel);
+        assertFalse(channel.config().isAutoRead());
+        ReadPauseArbiter.resume(channel);
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testUnmatchedResumeDoesNotCountAhead() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        ReadPauseArbiter.resume(channel);
+        assertTrue(channel.config().isAutoRead());
+
+        ReadPauseArbiter.pause(channel);
+        assertFalse(channel.config().isAutoRead());
+        ReadPauseArbiter.resume(channel);
+        assertTrue(channel.config().isAutoRead());
+    }
+}
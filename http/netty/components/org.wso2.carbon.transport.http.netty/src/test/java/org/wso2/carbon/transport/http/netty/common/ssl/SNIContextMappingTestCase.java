@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common.ssl;
+
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+
+/**
+ * A test class for selecting the context of a certificate by the host name a client sends through SNI.
+ */
+public class SNIContextMappingTestCase {
+
+    private SelfSignedCertificate certificate;
+    private SslContext defaultContext;
+    private SslContext exactContext;
+    private SslContext wildcardContext;
+    private SNIContextMapping mapping;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        certificate = new SelfSignedCertificate("localhost");
+        defaultContext = newContext();
+        exactContext = newContext();
+        wildcardContext = newContext();
+
+        mapping = new SNIContextMapping(defaultContext);
+        mapping.add("WWW.Example.com", exactContext);
+        mapping.add("*.example.com", wildcardContext);
+        // Later certificates do not replace the ones added first
+        mapping.add("www.example.com", defaultContext);
+        mapping.add("*.EXAMPLE.com", defaultContext);
+    }
+
+    @Test
+    public void testExactHostNameIsSelected() {
+        assertSame(exactContext, mapping.map("www.example.com"));
+        assertSame(exactContext, mapping.map("Www.Example.COM"));
+    }
+
+    @Test
+    public void testWildcardMatchesOneLabel() {
+        assertSame(wildcardContext, mapping.map("api.example.com"));
+        assertSame(wildcardContext, mapping.map("API.example.com"));
+        assertSame(defaultContext, mapping.map("v1.api.example.com"));
+        assertSame(defaultContext, mapping.map("example.com"));
+    }
+
+    @Test
+    public void testUnknownOrMissingHostNameGetsDefault() {
+        assertSame(defaultContext, mapping.map(null));
+        assertSame(defaultContext, mapping.map("localhost"));
+        assertSame(defaultContext, mapping.map("www.example.org"));
+    }
+
+    @Test
+    public void testSizeCountsHostNamesAndWildcards() {
+        assertEquals(2, mapping.size());
+    }
+
+    @AfterClass
+    public void cleanUp() {
+        certificate.delete();
+    }
+
+    private SslContext newContext() throws Exception {
+        return SslContextBuilder.forServer(certificate.certificate(), certificate.privateKey()).build();
+    }
+}
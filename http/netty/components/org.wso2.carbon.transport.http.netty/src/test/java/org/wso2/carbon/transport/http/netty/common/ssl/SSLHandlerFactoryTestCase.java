@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common.ssl;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+
+import javax.net.ssl.SSLEngine;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for the SSL provider of the shared factories, and for reloading the factories of changed key stores.
+ */
+public class SSLHandlerFactoryTestCase {
+
+    private static final String PASSWORD = "wso2carbon";
+
+    private File keyStore;
+    private SSLConfig sslConfig;
+
+    @BeforeMethod
+    public void createKeyStore() throws Exception {
+        keyStore = File.createTempFile("keystore", ".jks");
+        writeKeyStore(keyStore);
+        sslConfig = new SSLConfig(keyStore, PASSWORD).setCertPass(PASSWORD);
+    }
+
+    @Test
+    public void testJDKProviderByDefault() {
+        SSLEngine engine = SSLHandlerFactory.getInstance(sslConfig).create().engine();
+        assertFalse(engine instanceof ReferenceCountedOpenSslEngine);
+    }
+
+    @Test
+    public void testOpenSSLProviderFallsBackToJDK() {
+        sslConfig.setSslProvider(Constants.SSL_PROVIDER_OPENSSL);
+        SslHandler sslHandler = SSLHandlerFactory.getInstance(sslConfig).create(ByteBufAllocator.DEFAULT);
+        SSLEngine engine = sslHandler.engine();
+        try {
+            // Engines are backed by OpenSSL only if netty-tcnative loads on this platform
+            assertEquals(OpenSsl.isAvailable(), engine instanceof ReferenceCountedOpenSslEngine);
+            assertFalse(engine.getUseClientMode());
+        } finally {
+            ReferenceCountUtil.release(engine);
+        }
+    }
+
+    @Test
+    public void testUnchangedKeyStoreIsNotReloaded() {
+        SSLHandlerFactory factory = SSLHandlerFactory.getInstance(sslConfig);
+        SSLHandlerFactory.reloadChangedFactories();
+        assertSame(factory, SSLHandlerFactory.getInstance(sslConfig));
+    }
+
+    @Test
+    public void testChangedKeyStoreIsReloaded() throws Exception {
+        SSLHandlerFactory factory = SSLHandlerFactory.getInstance(sslConfig);
+        long lastModified = keyStore.lastModified();
+        writeKeyStore(keyStore);
+        // File systems may keep modification times in seconds
+        assertTrue(keyStore.setLastModified(lastModified + 2000));
+
+        SSLHandlerFactory.reloadChangedFactories();
+        SSLHandlerFactory reloaded = SSLHandlerFactory.getInstance(sslConfig);
+        assertNotSame(factory, reloaded);
+        SSLHandlerFactory.reloadChangedFactories();
+        assertSame(reloaded, SSLHandlerFactory.getInstance(sslConfig));
+    }
+
+    @Test
+    public void testBrokenKeyStoreKeepsLoadedFactory() throws Exception {
+        SSLHandlerFactory factory = SSLHandlerFactory.getInstance(sslConfig);
+        long lastModified = keyStore.lastModified();
+        try (OutputStream out = new FileOutputStream(keyStore)) {
+            out.write(new byte[] { 1, 2, 3 });
+        }
+        assertTrue(keyStore.setLastModified(lastModified + 2000));
+
+        SSLHandlerFactory.reloadChangedFactories();
+        assertSame(factory, SSLHandlerFactory.getInstance(sslConfig));
+        assertNotNull(factory.create().engine());
+    }
+
+    @AfterMethod
+    public void cleanUp() {
+        SSLHandlerFactory.evict(sslConfig);
+        keyStore.delete();
+    }
+
+    /**
+     * Write a key store holding a newly generated key and certificate, so that every call changes the store.
+     */
+    private static void writeKeyStore(File file) throws Exception {
+        SelfSignedCertificate certificate = new SelfSignedCertificate("localhost");
+        try {
+            KeyStore ks = KeyStore.getInstance("JKS");
+            ks.load(null, null);
+            ks.setKeyEntry("localhost", certificate.key(), PASSWORD.toCharArray(),
+                    new Certificate[] { certificate.cert() });
+            try (OutputStream out = new FileOutputStream(file)) {
+                ks.store(out, PASSWORD.toCharArray());
+            }
+        } finally {
+            certificate.delete();
+        }
+    }
+}
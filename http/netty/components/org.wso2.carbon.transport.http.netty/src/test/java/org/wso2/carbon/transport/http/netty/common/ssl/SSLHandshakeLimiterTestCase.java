@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.common.ssl;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.net.ssl.SSLException;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for admitting the handshakes of a listener, queueing them and handing their permits over once the
+ * running ones finish.
+ */
+public class SSLHandshakeLimiterTestCase {
+
+    private SSLHandshakeLimiter limiter;
+    private int activeHandshakes;
+    private int queuedHandshakes;
+    private long completedHandshakes;
+    private long failedHandshakes;
+    private long rejectedHandshakes;
+
+    @BeforeMethod
+    public void setUp() {
+        limiter = new SSLHandshakeLimiter(1, 1);
+        // Statistics are shared by all limiters, hence only their changes are checked
+        activeHandshakes = SSLHandshakeStatistics.getActiveHandshakes();
+        queuedHandshakes = SSLHandshakeStatistics.getQueuedHandshakes();
+        completedHandshakes = SSLHandshakeStatistics.getCompletedHandshakes();
+        failedHandshakes = SSLHandshakeStatistics.getFailedHandshakes();
+        rejectedHandshakes = SSLHandshakeStatistics.getRejectedHandshakes();
+    }
+
+    @Test
+    public void testHandshakesBeyondLimitAreQueuedThenRejected() {
+        EmbeddedChannel started = new EmbeddedChannel(limiter.newHandler());
+        EmbeddedChannel queued = new EmbeddedChannel(limiter.newHandler());
+        EmbeddedChannel rejected = new EmbeddedChannel(limiter.newHandler());
+
+        assertTrue(started.config().isAutoRead());
+        assertFalse(queued.config().isAutoRead());
+        assertTrue(queued.isOpen());
+        assertFalse(rejected.isOpen());
+        assertStatistics(1, 1, 0, 0, 1);
+    }
+
+    @Test
+    public void testFinishedHandshakeHandsPermitOver() {
+        ChannelHandler handler = limiter.newHandler();
+        EmbeddedChannel started = new EmbeddedChannel(handler);
+        EmbeddedChannel queued = new EmbeddedChannel(limiter.newHandler());
+
+        started.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+        assertNull(started.pipeline().context(handler));
+        queued.runPendingTasks();
+        assertTrue(queued.config().isAutoRead());
+        assertStatistics(1, 0, 1, 0, 0);
+
+        queued.pipeline().fireUserEventTriggered(new SslHandshakeCompletionEvent(new SSLException("handshake")));
+        assertStatistics(0, 0, 1, 1, 0);
+    }
+
+    @Test
+    public void testClosedQueuedConnectionLeavesQueue() {
+        EmbeddedChannel started = new EmbeddedChannel(limiter.newHandler());
+        EmbeddedChannel queued = new EmbeddedChannel(limiter.newHandler());
+        queued.close();
+        assertStatistics(1, 0, 0, 0, 0);
+
+        started.close();
+        assertStatistics(0, 0, 0, 1, 0);
+        assertTrue(new EmbeddedChannel(limiter.newHandler()).config().isAutoRead());
+    }
+
+    @Test
+    public void testPermitOfClosedConnectionIsPassedOn() {
+        EmbeddedChannel started = new EmbeddedChannel(limiter.newHandler());
+        EmbeddedChannel queued = new EmbeddedChannel(limiter.newHandler());
+
+        // The permit is handed over, but the connection closes before its handshake resumes
+        started.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+        queued.close();
+
+        EmbeddedChannel next = new EmbeddedChannel(limiter.newHandler());
+        assertTrue(next.config().isAutoRead());
+        assertEquals(activeHandshakes + 1, SSLHandshakeStatistics.getActiveHandshakes());
+        assertEquals(queuedHandshakes, SSLHandshakeStatistics.getQueuedHandshakes());
+    }
+
+    private void assertStatistics(int active, int queued, long completed, long failed, long rejected) {
+        assertEquals(activeHandshakes + active, SSLHandshakeStatistics.getActiveHandshakes());
+        assertEquals(queuedHandshakes + queued, SSLHandshakeStatistics.getQueuedHandshakes());
+        assertEquals(completedHandshakes + completed, SSLHandshakeStatistics.getCompletedHandshakes());
+        assertEquals(failedHandshakes + failed, SSLHandshakeStatistics.getFailedHandshakes());
+        assertEquals(rejectedHandshakes + rejected, SSLHandshakeStatistics.getRejectedHandshakes());
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.transport.http.netty.listener;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.CharsetUtil;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.messaging.CarbonCallback;
+import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.messaging.CarbonMessageProcessor;
+import org.wso2.carbon.messaging.TransportSender;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLConfig;
+import org.wso2.carbon.transport.http.netty.common.ssl.SSLHandlerFactory;
+import org.wso2.carbon.transport.http.netty.config.ListenerConfiguration;
+import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
+import org.wso2.carbon.transport.http.netty.message.HTTPCarbonMessage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for choosing between HTTP/1.1 and HTTP/2 on the connections of an HTTP/2 enabled listener: through
+ * ALPN over TLS, and through prior knowledge or an h2c upgrade over cleartext.
+ */
+public class CarbonHTTPServerInitializerTestCase {
+
+    private static final String PASSWORD = "wso2carbon";
+    private static final InetSocketAddress LOCAL_ADDRESS = new InetSocketAddress("localhost", 9090);
+
+    private CarbonMessageProcessor previousProcessor;
+    private final List<CarbonMessage> requests = new ArrayList<>();
+
+    @BeforeClass
+    public void setUp() {
+        previousProcessor = HTTPTransportContextHolder.getInstance().getMessageProcessor();
+        HTTPTransportContextHolder.getInstance().setMessageProcessor(new RequestRecordingProcessor());
+    }
+
+    @Test
+    public void testPriorKnowledgeSelectsHttp2() {
+        EmbeddedChannel channel = newChannel(createInitializer(null));
+        channel.writeInbound(Http2CodecUtil.connectionPrefaceBuf());
+
+        assertNotNull(channel.pipeline().get(Http2SourceHandler.class));
+        assertNull(channel.pipeline().get("h2c-detector"));
+        assertNull(channel.pipeline().get("decoder"));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testPartialPrefaceWaitsForTheRest() {
+        EmbeddedChannel channel = newChannel(createInitializer(null));
+        byte[] preface = ByteBufUtil.getBytes(Http2CodecUtil.connectionPrefaceBuf());
+        channel.writeInbound(Unpooled.wrappedBuffer(preface, 0, 5));
+        assertNotNull(channel.pipeline().get("h2c-detector"));
+
+        channel.writeInbound(Unpooled.wrappedBuffer(preface, 5, preface.length - 5));
+        assertNotNull(channel.pipeline().get(Http2SourceHandler.class));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testHttp1RequestMayUpgrade() {
+        EmbeddedChannel channel = newChannel(createInitializer(null));
+        // Shares its first byte with the preface
+        channel.writeInbound(Unpooled.copiedBuffer("POST / HTTP/1.1\r\n", CharsetUtil.US_ASCII));
+
+        assertNull(channel.pipeline().get("h2c-detector"));
+        assertNotNull(channel.pipeline().get("decoder"));
+        assertNotNull(channel.pipeline().get("h2c-upgrade"));
+        assertNull(channel.pipeline().get(Http2SourceHandler.class));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testH2cUpgradeSwitchesToHttp2() {
+        requests.clear();
+        EmbeddedChannel channel = newChannel(createInitializer(null));
+        channel.writeInbound(Unpooled.copiedBuffer("GET / HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Connection: Upgrade, HTTP2-Settings\r\n"
+                + "Upgrade: h2c\r\n"
+                + "HTTP2-Settings: AAMAAABkAAQAAP__\r\n\r\n", CharsetUtil.US_ASCII));
+
+        ByteBuf response = channel.readOutbound();
+        try {
+            assertTrue(response.toString(CharsetUtil.US_ASCII).startsWith("HTTP/1.1 101 Switching Protocols"));
+        } finally {
+            response.release();
+        }
+        assertNotNull(channel.pipeline().get(Http2SourceHandler.class));
+        assertNull(channel.pipeline().get("decoder"));
+        assertNull(channel.pipeline().get("handler"));
+        assertEquals("The upgrade request is answered over HTTP/2", 1, requests.size());
+        ((HTTPCarbonMessage) requests.get(0)).release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testAlpnSelectsHttp2() throws Exception {
+        EmbeddedChannel server = handshake(ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1);
+        assertNotNull(server.pipeline().get(Http2SourceHandler.class));
+        assertNull(server.pipeline().get("alpn"));
+        assertNull(server.pipeline().get("decoder"));
+        server.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testAlpnFallsBackToHttp1() throws Exception {
+        EmbeddedChannel server = handshake(ApplicationProtocolNames.HTTP_1_1);
+        assertNull(server.pipeline().get(Http2SourceHandler.class));
+        assertNull(server.pipeline().get("alpn"));
+        assertNotNull(server.pipeline().get("decoder"));
+        assertNull("Upgrades are only offered over cleartext", server.pipeline().get("h2c-upgrade"));
+        server.finishAndReleaseAll();
+    }
+
+    @AfterClass
+    public void cleanUp() {
+        HTTPTransportContextHolder.getInstance().setMessageProcessor(previousProcessor);
+    }
+
+    /**
+     * Run a TLS handshake between a client offering the given protocols and a listener connection.
+     *
+     * @return listener connection once the handshake is done
+     */
+    private static EmbeddedChannel handshake(String... protocols) throws Exception {
+        if (!OpenSsl.isAlpnSupported()) {
+            throw new SkipException("ALPN is only supported through netty-tcnative");
+        }
+        File keyStore = File.createTempFile("keystore", ".jks");
+        SSLConfig sslConfig = new SSLConfig(keyStore, PASSWORD).setCertPass(PASSWORD);
+        sslConfig.setSslProvider(Constants.SSL_PROVIDER_OPENSSL);
+        try {
+            writeKeyStore(keyStore);
+            EmbeddedChannel server = newChannel(createInitializer(sslConfig));
+            SslContext clientContext = SslContextBuilder.forClient().sslProvider(SslProvider.OPENSSL)
+                    .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                    .applicationProtocolConfig(new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                            ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                            ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT, protocols))
+                    .build();
+            EmbeddedChannel client = new EmbeddedChannel(clientContext.newHandler(ByteBufAllocator.DEFAULT));
+            for (int i = 0; i < 10 && server.pipeline().get("alpn") != null; i++) {
+                transfer(client, server);
+                transfer(server, client);
+            }
+            client.finishAndReleaseAll();
+            return server;
+        } finally {
+            SSLHandlerFactory.evict(sslConfig);
+            keyStore.delete();
+        }
+    }
+
+    private static void transfer(EmbeddedChannel from, EmbeddedChannel to) {
+        Object msg;
+        while ((msg = from.readOutbound()) != null) {
+            to.writeInbound(msg);
+        }
+    }
+
+    private static CarbonHTTPServerInitializer createInitializer(SSLConfig sslConfig) {
+        ListenerConfiguration listenerConfiguration = new ListenerConfiguration("test", LOCAL_ADDRESS.getHostName(),
+                LOCAL_ADDRESS.getPort());
+        listenerConfiguration.setHttp2(true);
+        String id = LOCAL_ADDRESS.getHostName() + ":" + LOCAL_ADDRESS.getPort();
+        Map<String, ListenerConfiguration> listenerConfigurations = new HashMap<>();
+        listenerConfigurations.put(id, listenerConfiguration);
+        Map<String, SSLConfig> sslConfigs = new HashMap<>();
+        if (sslConfig != null) {
+            sslConfigs.put(id, sslConfig);
+        }
+
+        CarbonHTTPServerInitializer initializer = new CarbonHTTPServerInitializer(listenerConfigurations);
+        initializer.setup(new HashSet<>());
+        initializer.setSslConfigMap(sslConfigs);
+        return initializer;
+    }
+
+    /**
+     * Create a connection accepted by the listener, whose pipeline is set up before it becomes active.
+     */
+    private static EmbeddedChannel newChannel(CarbonHTTPServerInitializer initializer) {
+        return new EmbeddedChannel(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                initializer.initPipeline(ch.pipeline(), ch.alloc(), LOCAL_ADDRESS);
+            }
+        }) {
+            @Override
+            public SocketAddress localAddress() {
+                return LOCAL_ADDRESS;
+            }
+
+            @Override
+            public SocketAddress remoteAddress() {
+                return new InetSocketAddress("127.0.0.1", 40000);
+            }
+        };
+    }
+
+    private static void writeKeyStore(File file) throws Exception {
+        SelfSignedCertificate certificate = new SelfSignedCertificate("localhost");
+        try {
+            KeyStore ks = KeyStore.getInstance("JKS");
+            ks.load(null, null);
+            ks.setKeyEntry("localhost", certificate.key(), PASSWORD.toCharArray(),
+                    new Certificate[] { certificate.cert() });
+            try (OutputStream out = new FileOutputStream(file)) {
+                ks.store(out, PASSWORD.toCharArray());
+            }
+        } finally {
+            certificate.delete();
+        }
+    }
+
+    /**
+     * Keeps the requests handed over by the listener.
+     */
+    private class RequestRecordingProcessor implements CarbonMessageProcessor {
+
+        @Override
+        public boolean receive(CarbonMessage carbonMessage, CarbonCallback callback) throws Exception {
+            requests.add(carbonMessage);
+            return false;
+        }
+
+        @Override
+        public void setTransportSender(TransportSender sender) {
+        }
+
+        @Override
+        public String getId() {
+            return "request-recording-processor";
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.transport.http.netty.listener;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for keeping the responses of pipelined requests in the order of the requests.
+ */
+public class ResponseSlotQueueTestCase {
+
+    @Test
+    public void testResponsesWrittenInRequestOrder() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ResponseSlotQueue queue = new ResponseSlotQueue(channel.pipeline().firstContext(), 10, 0);
+        List<Integer> written = new ArrayList<>();
+        ResponseSlotQueue.Slot first = queue.acquire();
+        ResponseSlotQueue.Slot second = queue.acquire();
+        ResponseSlotQueue.Slot third = queue.acquire();
+
+        third.write(() -> respond(written, 3, third));
+        second.write(() -> respond(written, 2, second));
+        assertTrue(written.isEmpty());
+
+        first.write(() -> respond(written, 1, first));
+        assertEquals(Arrays.asList(1, 2, 3), written);
+        assertTrue(channel.isOpen());
+    }
+
+    @Test
+    public void testReadingPausedOnceRequestsAreReadInFull() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ResponseSlotQueue queue = new ResponseSlotQueue(channel.pipeline().firstContext(), 2, 0);
+        ResponseSlotQueue.Slot first = queue.acquire();
+        first.requestRead();
+        ResponseSlotQueue.Slot second = queue.acquire();
+        assertTrue("A request still being read must not pause reading", channel.config().isAutoRead());
+
+        second.requestRead();
+        assertFalse(channel.config().isAutoRead());
+
+        first.write(first::complete);
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testSingleRequestKeepsReadingItsBody() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ResponseSlotQueue queue = new ResponseSlotQueue(channel.pipeline().firstContext(), 1, 0);
+        ResponseSlotQueue.Slot slot = queue.acquire();
+        assertTrue(channel.config().isAutoRead());
+
+        slot.requestRead();
+        assertFalse(channel.config().isAutoRead());
+        slot.write(slot::complete);
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testAbandonedResponseClosesAfterEarlierResponses() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ResponseSlotQueue queue = new ResponseSlotQueue(channel.pipeline().firstContext(), 10, 0);
+        List<Integer> written = new ArrayList<>();
+        ResponseSlotQueue.Slot first = queue.acquire();
+        ResponseSlotQueue.Slot second = queue.acquire();
+
+        second.abandon();
+        assertTrue(channel.isOpen());
+
+        first.write(() -> respond(written, 1, first));
+        assertEquals(Arrays.asList(1), written);
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testResponseWaitingTooLongClosesConnection() throws InterruptedException {
+        EmbeddedChannel waiting = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ResponseSlotQueue waitingQueue = new ResponseSlotQueue(waiting.pipeline().firstContext(), 10, 1);
+        List<Integer> written = new ArrayList<>();
+        waitingQueue.acquire();
+        ResponseSlotQueue.Slot late = waitingQueue.acquire();
+        late.write(() -> respond(written, 2, late));
+
+        EmbeddedChannel answered = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ResponseSlotQueue answeredQueue = new ResponseSlotQueue(answered.pipeline().firstContext(), 10, 1);
+        ResponseSlotQueue.Slot first = answeredQueue.acquire();
+        ResponseSlotQueue.Slot second = answeredQueue.acquire();
+        second.write(() -> respond(written, 2, second));
+        first.write(() -> respond(written, 1, first));
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1) + 200);
+        waiting.runScheduledPendingTasks();
+        answered.runScheduledPendingTasks();
+        assertFalse(waiting.isOpen());
+        assertTrue("The timeout of a written response must be cancelled", answered.isOpen());
+        assertEquals(Arrays.asList(1, 2), written);
+    }
+
+    @Test
+    public void testClosingReleasesWaitingThreads() throws InterruptedException {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ResponseSlotQueue queue = new ResponseSlotQueue(channel.pipeline().firstContext(), 10, 0);
+        queue.acquire();
+        ResponseSlotQueue.Slot second = queue.acquire();
+        Thread waiter = new Thread(second::awaitTurn);
+        waiter.start();
+
+        queue.close();
+        waiter.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(waiter.isAlive());
+    }
+
+    private static void respond(List<Integer> written, int request, ResponseSlotQueue.Slot slot) {
+        written.add(request);
+        slot.complete();
+    }
+}
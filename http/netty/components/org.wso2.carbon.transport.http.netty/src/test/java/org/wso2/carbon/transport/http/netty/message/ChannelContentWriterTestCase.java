@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.message;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for writing the content of a message to a channel, and for releasing a message being written.
+ */
+public class ChannelContentWriterTestCase {
+
+    @Test
+    public void testContentIsWrittenInOrder() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        HTTPCarbonMessage cMsg = new HTTPCarbonMessage();
+        HttpContent first = content();
+        cMsg.addHttpContent(first);
+        AtomicBoolean completed = new AtomicBoolean();
+        new ChannelContentWriter(channel, cMsg, future -> completed.set(true)).start();
+
+        HttpContent last = new DefaultLastHttpContent(Unpooled.wrappedBuffer(new byte[8]));
+        cMsg.addHttpContent(last);
+        assertTrue(completed.get());
+        assertEquals(first, channel.readOutbound());
+        assertEquals(last, channel.readOutbound());
+        assertNull(channel.readOutbound());
+
+        cMsg.release();
+        assertTrue(channel.isOpen());
+        ReferenceCountUtil.release(first);
+        ReferenceCountUtil.release(last);
+    }
+
+    @Test
+    public void testReleaseStopsWriterBeforeDrainingContent() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        HTTPCarbonMessage cMsg = new HTTPCarbonMessage();
+        HttpContent queued = content();
+        cMsg.addHttpContent(queued);
+        AtomicBoolean completed = new AtomicBoolean();
+        new ChannelContentWriter(channel, cMsg, future -> completed.set(true)).start();
+        assertNull(channel.readOutbound());
+
+        cMsg.release();
+        assertEquals(0, queued.refCnt());
+        // The message is truncated, hence it is aborted rather than completed
+        assertFalse(channel.isOpen());
+        assertFalse(completed.get());
+
+        // Content arriving afterwards is no longer handed to the writer
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        HttpContent late = content();
+        cMsg.addHttpContent(late);
+        assertNull(channel.readOutbound());
+        assertEquals(late, cMsg.pollHttpContent());
+        ReferenceCountUtil.release(late);
+    }
+
+    private static HttpContent content() {
+        return new DefaultHttpContent(Unpooled.wrappedBuffer(new byte[8]));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.message;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for the single producer, single consumer content queue.
+ */
+public class HttpContentQueueTestCase {
+
+    // Spans several chunks of the queue
+    private static final int CONTENT_COUNT = 1000;
+
+    @Test
+    public void testEmptyQueue() {
+        HttpContentQueue queue = new HttpContentQueue();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testOrderAcrossChunks() {
+        HttpContentQueue queue = new HttpContentQueue();
+        HttpContent[] contents = newContents(CONTENT_COUNT);
+        for (HttpContent content : contents) {
+            queue.offer(content);
+            assertFalse(queue.isEmpty());
+        }
+        for (HttpContent content : contents) {
+            assertFalse(queue.isEmpty());
+            assertSame(content, queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testInterleavedAtChunkBoundaries() {
+        HttpContentQueue queue = new HttpContentQueue();
+        HttpContent[] contents = newContents(CONTENT_COUNT);
+        int polled = 0;
+        for (int i = 0; i < contents.length; i++) {
+            queue.offer(contents[i]);
+            // Drain on varying positions, so that the head reaches the end of a chunk before the next one exists
+            if (i % 7 == 0 || i % 32 == 31) {
+                while (polled <= i) {
+                    assertSame(contents[polled++], queue.poll());
+                }
+                assertTrue(queue.isEmpty());
+                assertNull(queue.poll());
+            }
+        }
+        while (polled < contents.length) {
+            assertSame(contents[polled++], queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test(timeOut = 30000)
+    public void testConcurrentOfferAndPoll() throws InterruptedException {
+        int count = 200000;
+        HttpContentQueue queue = new HttpContentQueue();
+        HttpContent[] contents = newContents(count);
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(2);
+
+        Thread producer = new Thread(() -> {
+            for (HttpContent content : contents) {
+                queue.offer(content);
+            }
+            finished.countDown();
+        });
+        Thread consumer = new Thread(() -> {
+            int polled = 0;
+            while (polled < count) {
+                HttpContent content = queue.poll();
+                if (content == null) {
+                    Thread.yield();
+                } else if (content != contents[polled++]) {
+                    failure.compareAndSet(null, "Content " + (polled - 1) + " polled out of order");
+                    break;
+                }
+            }
+            finished.countDown();
+        });
+        // Checks from a third thread must not disturb the consumer
+        Thread observer = new Thread(() -> {
+            while (!done.get()) {
+                queue.isEmpty();
+            }
+        });
+        observer.start();
+        consumer.start();
+        producer.start();
+
+        assertTrue(finished.await(20, TimeUnit.SECONDS));
+        done.set(true);
+        observer.join();
+        assertNull(failure.get(), failure.get());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    private static HttpContent[] newContents(int count) {
+        HttpContent[] contents = new HttpContent[count];
+        for (int i = 0; i < count; i++) {
+            contents[i] = new DefaultHttpContent(Unpooled.EMPTY_BUFFER);
+        }
+        return contents;
+    }
+}
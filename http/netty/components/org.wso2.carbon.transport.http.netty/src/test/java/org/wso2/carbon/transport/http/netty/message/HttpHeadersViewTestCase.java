@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.message;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import org.testng.annotations.Test;
+import org.wso2.carbon.transport.http.netty.common.Util;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for carbon message headers backed by the decoded Netty headers.
+ */
+public class HttpHeadersViewTestCase {
+
+    @Test
+    public void testLookupIgnoresCaseBeforeAndAfterModification() {
+        HttpHeadersView headers = new HttpHeadersView(receivedHeaders());
+        assertEquals("text/xml", headers.get("content-type"));
+        assertTrue(headers.contains("CONTENT-TYPE"));
+
+        headers.set("x-Custom", "value");
+        assertEquals("text/xml", headers.get("content-type"));
+        assertTrue(headers.contains("CONTENT-TYPE"));
+        assertEquals("value", headers.get("X-CUSTOM"));
+        assertEquals(2, headers.getAllBy("set-cookie").size());
+
+        headers.remove("CONTENT-type");
+        assertFalse(headers.contains("Content-Type"));
+        assertEquals(3, headers.size());
+    }
+
+    @Test
+    public void testModificationLeavesReceivedHeaders() {
+        HttpHeaders received = receivedHeaders();
+        HttpHeadersView headers = new HttpHeadersView(received);
+        headers.set("Content-Type", "application/json");
+        headers.remove("Set-Cookie");
+
+        assertEquals("text/xml", received.get("Content-Type"));
+        assertEquals(2, received.getAll("Set-Cookie").size());
+        assertEquals("application/json", headers.get("Content-Type"));
+        assertNull(headers.get("Set-Cookie"));
+    }
+
+    @Test
+    public void testOutboundMessageCopiesReceivedHeaders() {
+        HttpHeaders received = receivedHeaders();
+        HTTPCarbonMessage carbonMessage = new HTTPCarbonMessage();
+        carbonMessage.setHttpHeaders(received);
+
+        HttpResponse response = Util.createHttpResponse(carbonMessage);
+        assertEquals(2, response.headers().getAll("Set-Cookie").size());
+        response.headers().set("Content-Type", "application/json");
+
+        assertEquals("text/xml", received.get("Content-Type"));
+        assertEquals("text/xml", carbonMessage.getHeader("content-type"));
+    }
+
+    private static HttpHeaders receivedHeaders() {
+        HttpHeaders headers = new DefaultHttpHeaders();
+        headers.add("Content-Type", "text/xml");
+        headers.add("Set-Cookie", "a=1");
+        headers.add("Set-Cookie", "b=2");
+        return headers;
+    }
+}
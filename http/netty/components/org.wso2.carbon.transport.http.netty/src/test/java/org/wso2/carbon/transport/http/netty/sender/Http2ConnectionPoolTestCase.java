@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.transport.http.netty.sender;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2EventAdapter;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.util.concurrent.Future;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
+import org.wso2.carbon.transport.http.netty.config.TransportProperty;
+import org.wso2.carbon.transport.http.netty.sender.channel.BootstrapConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.Http2ConnectionPool;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.PoolConfiguration;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for reserving streams on the HTTP/2 connections of a pool, against a BE which allows a single
+ * concurrent stream and never responds.
+ */
+public class Http2ConnectionPoolTestCase {
+
+    private static final int MAX_WAIT_TIME = 200;
+
+    private EventLoopGroup serverGroup;
+    private EventLoopGroup clientGroup;
+    private Channel backEnd;
+    private Http2ConnectionPool pool;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        serverGroup = new NioEventLoopGroup(1);
+        clientGroup = new NioEventLoopGroup(1);
+        backEnd = new ServerBootstrap().group(serverGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new Http2ConnectionHandlerBuilder().server(true)
+                                .initialSettings(new Http2Settings().maxConcurrentStreams(1))
+                                .frameListener(new Http2EventAdapter()).build());
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        BootstrapConfiguration.createBootStrapConfiguration(new HashSet<>());
+
+        Set<TransportProperty> transportProperties = new HashSet<>();
+        transportProperties.add(property(Constants.MAX_HTTP2_CONNECTIONS_PER_POOL, 2));
+        transportProperties.add(property(Constants.MAX_HTTP2_PENDING_STREAMS_PER_POOL, 1));
+        transportProperties.add(property(Constants.MAX_WAIT_TIME_PER_POOL, MAX_WAIT_TIME));
+        PoolConfiguration.createPoolConfiguration(transportProperties);
+    }
+
+    @BeforeMethod
+    public void createPool() {
+        InetSocketAddress address = (InetSocketAddress) backEnd.localAddress();
+        pool = new Http2ConnectionPool(new HttpRoute(address.getHostString(), address.getPort()), clientGroup.next(),
+                NioSocketChannel.class, new SenderConfiguration("netty-gw"), PoolConfiguration.getInstance());
+    }
+
+    @Test
+    public void testConnectionOpenedOnceStreamsAreExhausted() throws Exception {
+        Http2TargetHandler first = acquire();
+        Http2TargetHandler second = acquire();
+        assertNotSame("The BE allows one stream per connection", first, second);
+
+        Future<Http2TargetHandler> waiting = pool.acquireStream();
+        runPendingTasks();
+        assertFalse("No more connections than configured are opened", waiting.isDone());
+
+        pool.getEventLoop().submit(second::releaseStream).sync();
+        assertTrue(waiting.await(MAX_WAIT_TIME * 10));
+        assertTrue(waiting.isSuccess());
+        assertSame(second, waiting.getNow());
+    }
+
+    @Test
+    public void testFullQueueFailsRightAway() throws Exception {
+        acquire();
+        acquire();
+        Future<Http2TargetHandler> waiting = pool.acquireStream();
+        Future<Http2TargetHandler> rejected = pool.acquireStream();
+
+        runPendingTasks();
+        assertFalse(waiting.isDone());
+        assertTrue(rejected.isDone());
+        assertTrue(rejected.cause() instanceof NoSuchElementException);
+    }
+
+    @Test
+    public void testWaitingForStreamTimesOut() throws Exception {
+        acquire();
+        acquire();
+        long start = System.nanoTime();
+        Future<Http2TargetHandler> waiting = pool.acquireStream();
+
+        assertTrue(waiting.await(MAX_WAIT_TIME * 10));
+        assertFalse(waiting.isSuccess());
+        assertTrue(waiting.cause() instanceof TimeoutException);
+        assertTrue(System.nanoTime() - start >= MAX_WAIT_TIME * 1000000L);
+    }
+
+    @AfterMethod
+    public void closePool() {
+        pool.close();
+    }
+
+    @AfterClass
+    public void cleanUp() throws Exception {
+        PoolConfiguration.createPoolConfiguration(null);
+        backEnd.close().sync();
+        clientGroup.shutdownGracefully().sync();
+        serverGroup.shutdownGracefully().sync();
+    }
+
+    private Http2TargetHandler acquire() throws Exception {
+        Future<Http2TargetHandler> future = pool.acquireStream();
+        assertTrue(future.await(MAX_WAIT_TIME * 10));
+        assertTrue(future.isSuccess());
+        return future.getNow();
+    }
+
+    /**
+     * Wait for the tasks handed to the event loop of the pool so far.
+     */
+    private void runPendingTasks() throws Exception {
+        pool.getEventLoop().submit(() -> { }).sync();
+    }
+
+    private static TransportProperty property(String name, Object value) {
+        TransportProperty property = new TransportProperty();
+        property.setName(name);
+        property.setValue(value);
+        return property;
+    }
+}
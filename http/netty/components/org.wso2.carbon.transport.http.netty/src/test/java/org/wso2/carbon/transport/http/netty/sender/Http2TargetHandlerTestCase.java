@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.transport.http.netty.sender;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2Flags;
+import io.netty.handler.codec.http2.Http2FrameTypes;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.Http2ConnectionPool;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.PoolConfiguration;
+
+import java.util.HashSet;
+
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for reserving the streams of an HTTP/2 connection to a BE within the limit the BE announces.
+ */
+public class Http2TargetHandlerTestCase {
+
+    private static final HttpRoute ROUTE = new HttpRoute("127.0.0.1", 8080);
+
+    @BeforeClass
+    public void setUp() {
+        PoolConfiguration.createPoolConfiguration(new HashSet<>());
+    }
+
+    @Test
+    public void testStreamsReservedUpToMaxConcurrentStreams() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        Http2TargetHandler handler = createHandler(channel);
+        assertFalse("The connection is not used before the settings of the BE arrive",
+                handler.getReadyFuture().isDone());
+
+        channel.writeInbound(settingsFrame(2));
+        assertTrue(handler.getReadyFuture().isSuccess());
+        assertTrue(handler.tryReserveStream());
+        assertTrue(handler.tryReserveStream());
+        assertFalse(handler.tryReserveStream());
+
+        handler.releaseStream();
+        assertTrue(handler.tryReserveStream());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testLoweredMaxConcurrentStreamsApplies() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        Http2TargetHandler handler = createHandler(channel);
+        channel.writeInbound(settingsFrame(2));
+        assertTrue(handler.tryReserveStream());
+
+        channel.writeInbound(settingsFrame(1));
+        assertFalse(handler.tryReserveStream());
+        handler.releaseStream();
+        assertTrue(handler.tryReserveStream());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testNoStreamReservedOnClosedConnection() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        Http2TargetHandler handler = createHandler(channel);
+        channel.writeInbound(settingsFrame(10));
+
+        channel.close();
+        assertFalse(handler.tryReserveStream());
+        channel.finishAndReleaseAll();
+    }
+
+    @AfterClass
+    public void cleanUp() {
+        PoolConfiguration.createPoolConfiguration(null);
+    }
+
+    private static Http2TargetHandler createHandler(EmbeddedChannel channel) {
+        Http2ConnectionPool pool = new Http2ConnectionPool(ROUTE, channel.eventLoop(), EmbeddedChannel.class,
+                new SenderConfiguration("netty-gw"), PoolConfiguration.getInstance());
+        Http2TargetHandler handler = new Http2TargetHandler.Builder(ROUTE, "http", pool, 0).build();
+        channel.pipeline().addLast(handler);
+        return handler;
+    }
+
+    private static ByteBuf settingsFrame(int maxConcurrentStreams) {
+        ByteBuf frame = Unpooled.buffer();
+        Http2CodecUtil.writeFrameHeader(frame, Http2CodecUtil.SETTING_ENTRY_LENGTH, Http2FrameTypes.SETTINGS,
+                new Http2Flags(), 0);
+        frame.writeChar(Http2CodecUtil.SETTINGS_MAX_CONCURRENT_STREAMS);
+        frame.writeInt(maxConcurrentStreams);
+        return frame;
+    }
+}
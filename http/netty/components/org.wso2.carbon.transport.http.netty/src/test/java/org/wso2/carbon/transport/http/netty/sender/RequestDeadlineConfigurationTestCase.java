@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.sender;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.messaging.DefaultCarbonMessage;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.config.TransportProperty;
+import org.wso2.carbon.transport.http.netty.sender.channel.RequestDeadlineConfiguration;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for the request deadline configuration.
+ */
+public class RequestDeadlineConfigurationTestCase {
+
+    @Test
+    public void testTimeoutsAmongOtherTransportProperties() {
+        Set<TransportProperty> transportProperties = new HashSet<>();
+        transportProperties.add(property(Constants.CLINET_BOOTSTRAP_KEEPALIVE, true));
+        transportProperties.add(property(Constants.CLIENT_REQUEST_TOTAL_TIMEOUT, 5000));
+        transportProperties.add(property(Constants.CLIENT_REQUEST_TOTAL_TIMEOUT + ".localhost:9000", 1000));
+        transportProperties.add(property(Constants.CLIENT_REQUEST_CONNECT_TIMEOUT, "300"));
+        RequestDeadlineConfiguration.createRequestDeadlineConfiguration(transportProperties);
+        RequestDeadlineConfiguration config = RequestDeadlineConfiguration.getInstance();
+        assertFalse(config.isEmpty());
+
+        CarbonMessage request = new DefaultCarbonMessage();
+        assertEquals(5000, config.getTotalTimeout(new HttpRoute("localhost", 8000), request));
+        assertEquals(1000, config.getTotalTimeout(new HttpRoute("localhost", 9000), request));
+        assertEquals(300, config.getConnectTimeout(new HttpRoute("localhost", 9000), request));
+        assertEquals(0, config.getFirstByteTimeout(new HttpRoute("localhost", 9000), request));
+
+        request.setProperty(Constants.REQUEST_TOTAL_TIMEOUT, 200);
+        assertEquals(200, config.getTotalTimeout(new HttpRoute("localhost", 9000), request));
+    }
+
+    @Test
+    public void testNoDeadlineWithoutTimeouts() {
+        Set<TransportProperty> transportProperties = new HashSet<>();
+        transportProperties.add(property(Constants.CLINET_BOOTSTRAP_KEEPALIVE, true));
+        transportProperties.add(property(Constants.CLIENT_REQUEST_TOTAL_TIMEOUT, 0));
+        RequestDeadlineConfiguration.createRequestDeadlineConfiguration(transportProperties);
+        assertTrue(RequestDeadlineConfiguration.getInstance().isEmpty());
+
+        CarbonMessage request = new DefaultCarbonMessage();
+        assertNull(RequestDeadline.start(new HttpRoute("localhost", 9000), request, null, null));
+        assertNull(RequestDeadline.get(request));
+    }
+
+    @Test
+    public void testTimerRestartsAfterStop() {
+        RequestDeadlineConfiguration.getTimer();
+        RequestDeadlineConfiguration.stopTimer();
+        assertNotSame(null, RequestDeadlineConfiguration.getTimer());
+    }
+
+    @AfterClass
+    public void cleanUp() {
+        RequestDeadlineConfiguration.stopTimer();
+        RequestDeadlineConfiguration.createRequestDeadlineConfiguration(null);
+    }
+
+    private static TransportProperty property(String name, Object value) {
+        TransportProperty property = new TransportProperty();
+        property.setName(name);
+        property.setValue(value);
+        return property;
+    }
+}
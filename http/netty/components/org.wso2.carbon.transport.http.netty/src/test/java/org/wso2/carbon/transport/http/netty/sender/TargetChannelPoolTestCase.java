@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.sender;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.Future;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
+import org.wso2.carbon.transport.http.netty.config.TransportProperty;
+import org.wso2.carbon.transport.http.netty.sender.channel.BootstrapConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.channel.TargetChannel;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.PoolConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.TargetChannelPool;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for borrowing and returning target channels of an exhausted pool which waits for connections.
+ */
+public class TargetChannelPoolTestCase {
+
+    private static final int MAX_WAIT_TIME = 200;
+
+    private ServerSocket backEnd;
+    private EventLoopGroup eventLoopGroup;
+    private TargetChannelPool pool;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        // Connections are left in the backlog of the socket, which is all the pool needs
+        backEnd = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        eventLoopGroup = new NioEventLoopGroup(1);
+        BootstrapConfiguration.createBootStrapConfiguration(new HashSet<>());
+
+        Set<TransportProperty> transportProperties = new HashSet<>();
+        transportProperties.add(property(Constants.MAX_ACTIVE_CONNECTIONS_PER_POOL, 1));
+        transportProperties.add(property(Constants.POOL_EXHAUSTED_ACTION,
+                (int) TargetChannelPool.WHEN_EXHAUSTED_BLOCK));
+        transportProperties.add(property(Constants.MAX_WAIT_TIME_PER_POOL, MAX_WAIT_TIME));
+        PoolConfiguration.createPoolConfiguration(transportProperties);
+    }
+
+    @BeforeMethod
+    public void createPool() {
+        pool = createPool(new SenderConfiguration("netty-gw"));
+    }
+
+    @Test
+    public void testReleasedChannelIsReused() throws Exception {
+        TargetChannel borrowed = acquire();
+        assertEquals(1, pool.getNumActive());
+
+        pool.release(borrowed);
+        TargetChannel reused = acquire();
+        assertSame(borrowed, reused);
+        assertEquals(1, pool.getNumActive());
+        assertEquals(0, pool.getNumIdle());
+    }
+
+    @Test
+    public void testExhaustedPoolWaitsForRelease() throws Exception {
+        TargetChannel borrowed = acquire();
+        Future<TargetChannel> waiting = pool.acquire();
+        assertFalse(waiting.await(MAX_WAIT_TIME / 4));
+
+        pool.release(borrowed);
+        assertTrue(waiting.await(MAX_WAIT_TIME * 10));
+        assertTrue(waiting.isSuccess());
+        assertSame(borrowed, waiting.getNow());
+        assertEquals(1, pool.getNumActive());
+    }
+
+    @Test
+    public void testExhaustedPoolFailsAfterMaxWaitTime() throws Exception {
+        acquire();
+        long start = System.nanoTime();
+        Future<TargetChannel> waiting = pool.acquire();
+
+        assertTrue(waiting.await(MAX_WAIT_TIME * 10));
+        assertFalse(waiting.isSuccess());
+        assertTrue(waiting.cause() instanceof TimeoutException);
+        assertTrue(System.nanoTime() - start >= MAX_WAIT_TIME * 1000000L);
+        assertEquals(1, pool.getNumActive());
+    }
+
+    @Test
+    public void testInvalidatedChannelMakesRoomForWaiter() throws Exception {
+        TargetChannel borrowed = acquire();
+        Future<TargetChannel> waiting = pool.acquire();
+
+        pool.invalidate(borrowed);
+        assertTrue(waiting.await(MAX_WAIT_TIME * 10));
+        assertTrue(waiting.isSuccess());
+        assertNotSame(borrowed, waiting.getNow());
+        assertEquals(1, pool.getNumActive());
+    }
+
+    @Test
+    public void testIdempotentRequestsArePipelinedOnBorrowedChannel() throws Exception {
+        SenderConfiguration senderConfiguration = new SenderConfiguration("netty-gw");
+        senderConfiguration.setMaxPipelinedRequests(2);
+        pool.close();
+        pool = createPool(senderConfiguration);
+
+        TargetChannel first = acquire(true);
+        pool.requestWritten(first);
+        TargetChannel second = acquire(true);
+        assertSame(first, second);
+        assertEquals(2, second.getPendingResponses());
+        assertEquals(1, pool.getNumActive());
+
+        pool.requestWritten(second);
+        Future<TargetChannel> waiting = pool.acquire(true);
+        runPendingTasks();
+        assertFalse("No more requests than the depth may be pipelined", waiting.isDone());
+
+        pool.release(first);
+        runPendingTasks();
+        assertFalse("The channel stays borrowed until the last response is read", waiting.isDone());
+
+        pool.release(second);
+        assertTrue(waiting.await(MAX_WAIT_TIME * 10));
+        assertTrue(waiting.isSuccess());
+        assertSame(first, waiting.getNow());
+        assertEquals(1, waiting.getNow().getPendingResponses());
+    }
+
+    @Test
+    public void testNonIdempotentRequestIsNotPipelined() throws Exception {
+        SenderConfiguration senderConfiguration = new SenderConfiguration("netty-gw");
+        senderConfiguration.setMaxPipelinedRequests(2);
+        pool.close();
+        pool = createPool(senderConfiguration);
+
+        TargetChannel borrowed = acquire(false);
+        pool.requestWritten(borrowed);
+        Future<TargetChannel> waiting = pool.acquire(false);
+        runPendingTasks();
+        assertFalse(waiting.isDone());
+
+        pool.release(borrowed);
+        assertTrue(waiting.await(MAX_WAIT_TIME * 10));
+        assertSame(borrowed, waiting.getNow());
+    }
+
+    @AfterMethod
+    public void closePool() {
+        pool.close();
+    }
+
+    @AfterClass
+    public void cleanUp() throws Exception {
+        PoolConfiguration.createPoolConfiguration(null);
+        eventLoopGroup.shutdownGracefully().sync();
+        backEnd.close();
+    }
+
+    private TargetChannelPool createPool(SenderConfiguration senderConfiguration) {
+        HttpRoute httpRoute = new HttpRoute(backEnd.getInetAddress().getHostAddress(), backEnd.getLocalPort());
+        return new TargetChannelPool(httpRoute, eventLoopGroup.next(), NioSocketChannel.class, senderConfiguration,
+                PoolConfiguration.getInstance());
+    }
+
+    private TargetChannel acquire() throws Exception {
+        return acquire(false);
+    }
+
+    private TargetChannel acquire(boolean pipelined) throws Exception {
+        Future<TargetChannel> future = pool.acquire(pipelined);
+        assertTrue(future.await(MAX_WAIT_TIME * 10));
+        assertTrue(future.isSuccess());
+        return future.getNow();
+    }
+
+    /**
+     * Wait for the tasks handed to the single event loop of the pool so far.
+     */
+    private void runPendingTasks() throws Exception {
+        eventLoopGroup.next().submit(() -> { }).sync();
+    }
+
+    private static TransportProperty property(String name, Object value) {
+        TransportProperty property = new TransportProperty();
+        property.setName(name);
+        property.setValue(value);
+        return property;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.transport.http.netty.sender;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.messaging.DefaultCarbonMessage;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
+import org.wso2.carbon.transport.http.netty.listener.SourceHandler;
+import org.wso2.carbon.transport.http.netty.sender.channel.TargetChannel;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.ConnectionManager;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.PoolConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.TargetChannelPool;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for cancelling the BE requests of a client which went away, draining their responses and
+ * invalidating the connection when they are too long to drain.
+ */
+public class TargetHandlerCancellationTestCase {
+
+    private static final HttpRoute ROUTE = new HttpRoute("127.0.0.1", 8080);
+
+    private TargetHandler targetHandler;
+    private EmbeddedChannel channel;
+    private TargetChannelPool pool;
+    private TargetChannel targetChannel;
+    private List<CarbonMessage> answered;
+
+    @BeforeClass
+    public void setUp() {
+        PoolConfiguration.createPoolConfiguration(new HashSet<>());
+    }
+
+    @BeforeMethod
+    public void createConnection() {
+        targetHandler = new TargetHandler(60);
+        channel = new EmbeddedChannel(targetHandler) {
+            @Override
+            public SocketAddress localAddress() {
+                return new InetSocketAddress("127.0.0.1", 40000);
+            }
+
+            @Override
+            public SocketAddress remoteAddress() {
+                return new InetSocketAddress(ROUTE.getHost(), ROUTE.getPort());
+            }
+        };
+        pool = new TargetChannelPool(ROUTE, channel.eventLoop(), EmbeddedChannel.class,
+                new SenderConfiguration("netty-gw"), PoolConfiguration.getInstance());
+        targetChannel = new TargetChannel().setChannel(channel);
+        targetChannel.setHttpRoute(ROUTE);
+        targetChannel.setTargetChannelPool(pool);
+        targetHandler.setTargetChannel(targetChannel);
+        targetHandler.setConnectionManager(ConnectionManager.getInstance(new HashSet<>()));
+        answered = new ArrayList<>();
+    }
+
+    @Test
+    public void testShortCancelledResponseIsDrained() throws Exception {
+        SourceHandler client = new SourceHandler(null, null);
+        sendRequests(client);
+
+        channel.writeInbound(response(16));
+        targetHandler.cancelRequests(client);
+        LastHttpContent content = new DefaultLastHttpContent(Unpooled.wrappedBuffer(new byte[16]));
+        channel.writeInbound(content);
+
+        assertEquals(0, content.refCnt());
+        assertTrue(channel.isOpen());
+        assertEquals(1, pool.getNumIdle());
+    }
+
+    @Test
+    public void testLongCancelledResponseInvalidatesConnection() throws Exception {
+        SourceHandler client = new SourceHandler(null, null);
+        sendRequests(client);
+
+        channel.writeInbound(response(1024 * 1024));
+        targetHandler.cancelRequests(client);
+
+        assertFalse(channel.isOpen());
+        assertEquals(0, pool.getNumIdle());
+    }
+
+    @Test
+    public void testLongCancelledResponseFailsRequestsPipelinedBehind() throws Exception {
+        SourceHandler client = new SourceHandler(null, null);
+        CarbonMessage otherRequest = sendRequests(client, new SourceHandler(null, null))[1];
+
+        channel.writeInbound(response(1024 * 1024));
+        targetHandler.cancelRequests(client);
+
+        assertFalse(channel.isOpen());
+        assertEquals(1, answered.size());
+        assertSame(otherRequest, answered.get(0));
+        assertNotNull(otherRequest.getMessagingException());
+    }
+
+    @Test
+    public void testCancelledRequestBehindOthersIsInvalidatedOnLongResponse() throws Exception {
+        SourceHandler client = new SourceHandler(null, null);
+        sendRequests(new SourceHandler(null, null), client);
+
+        targetHandler.cancelRequests(client);
+        assertTrue(channel.isOpen());
+
+        channel.writeInbound(response(0));
+        channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+        assertTrue(channel.isOpen());
+
+        channel.writeInbound(response(1024 * 1024));
+        assertFalse(channel.isOpen());
+    }
+
+    private CarbonMessage[] sendRequests(SourceHandler... clients) {
+        CarbonMessage[] requests = new CarbonMessage[clients.length];
+        for (int i = 0; i < clients.length; i++) {
+            requests[i] = new DefaultCarbonMessage();
+            requests[i].setProperty(Constants.SRC_HNDLR, clients[i]);
+            targetHandler.addPendingRequest(answered::add, requests[i]);
+        }
+        targetChannel.setPendingResponses(clients.length);
+        targetChannel.setRequestWritten(true);
+        return requests;
+    }
+
+    private static HttpResponse response(int contentLength) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, contentLength);
+        return response;
+    }
+}
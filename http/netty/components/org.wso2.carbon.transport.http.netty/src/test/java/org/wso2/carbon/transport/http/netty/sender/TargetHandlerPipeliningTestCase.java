@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.transport.http.netty.sender;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.messaging.CarbonCallback;
+import org.wso2.carbon.messaging.CarbonMessage;
+import org.wso2.carbon.messaging.CarbonMessageProcessor;
+import org.wso2.carbon.messaging.DefaultCarbonMessage;
+import org.wso2.carbon.messaging.TransportSender;
+import org.wso2.carbon.transport.http.netty.common.Constants;
+import org.wso2.carbon.transport.http.netty.common.HttpRoute;
+import org.wso2.carbon.transport.http.netty.config.SenderConfiguration;
+import org.wso2.carbon.transport.http.netty.internal.HTTPTransportContextHolder;
+import org.wso2.carbon.transport.http.netty.sender.channel.TargetChannel;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.ConnectionManager;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.PoolConfiguration;
+import org.wso2.carbon.transport.http.netty.sender.channel.pool.TargetChannelPool;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * A test class for correlating the responses of a BE connection with the requests pipelined on it.
+ */
+public class TargetHandlerPipeliningTestCase {
+
+    private static final HttpRoute ROUTE = new HttpRoute("127.0.0.1", 8080);
+
+    private CarbonMessageProcessor previousProcessor;
+    private TargetHandler targetHandler;
+    private EmbeddedChannel channel;
+    private TargetChannelPool pool;
+    private TargetChannel targetChannel;
+    private List<String> answers;
+
+    @BeforeClass
+    public void setUp() {
+        PoolConfiguration.createPoolConfiguration(new HashSet<>());
+        previousProcessor = HTTPTransportContextHolder.getInstance().getMessageProcessor();
+        HTTPTransportContextHolder.getInstance().setMessageProcessor(new ResponseForwardingProcessor());
+    }
+
+    @BeforeMethod
+    public void createConnection() {
+        targetHandler = new TargetHandler(60);
+        channel = new EmbeddedChannel(targetHandler) {
+            @Override
+            public SocketAddress localAddress() {
+                return new InetSocketAddress("127.0.0.1", 40000);
+            }
+
+            @Override
+            public SocketAddress remoteAddress() {
+                return new InetSocketAddress(ROUTE.getHost(), ROUTE.getPort());
+            }
+        };
+        pool = new TargetChannelPool(ROUTE, channel.eventLoop(), EmbeddedChannel.class,
+                new SenderConfiguration("netty-gw"), PoolConfiguration.getInstance());
+        targetChannel = new TargetChannel().setChannel(channel);
+        targetChannel.setHttpRoute(ROUTE);
+        targetChannel.setTargetChannelPool(pool);
+        targetHandler.setTargetChannel(targetChannel);
+        targetHandler.setConnectionManager(ConnectionManager.getInstance(new HashSet<>()));
+        answers = new ArrayList<>();
+    }
+
+    @Test
+    public void testResponsesAnswerRequestsInOrder() {
+        sendRequests(3);
+
+        channel.writeInbound(response(HttpResponseStatus.OK));
+        channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+        assertEquals(Arrays.asList("0:200"), answers);
+        assertEquals("The connection stays borrowed for the pending responses", 0, pool.getNumIdle());
+        assertEquals(2, targetChannel.getPendingResponses());
+
+        channel.writeInbound(response(HttpResponseStatus.CREATED));
+        channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+        channel.writeInbound(response(HttpResponseStatus.ACCEPTED));
+        channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+        assertEquals(Arrays.asList("0:200", "1:201", "2:202"), answers);
+        assertTrue(channel.isOpen());
+        assertFalse(targetChannel.isRequestWritten());
+        assertEquals(1, pool.getNumIdle());
+    }
+
+    @Test
+    public void testClosedConnectionFailsRequestsWithoutResponse() {
+        sendRequests(3);
+
+        channel.writeInbound(response(HttpResponseStatus.OK));
+        channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+        channel.writeInbound(response(HttpResponseStatus.CREATED));
+        channel.close();
+
+        assertEquals("Only the request whose response did not start is failed",
+                Arrays.asList("0:200", "1:201", "2:failed"), answers);
+    }
+
+    @Test
+    public void testResponseWithoutPendingRequestClosesConnection() {
+        sendRequests(1);
+
+        channel.writeInbound(response(HttpResponseStatus.OK));
+        channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+        channel.writeInbound(response(HttpResponseStatus.CREATED));
+
+        assertEquals(Arrays.asList("0:200"), answers);
+        assertFalse(channel.isOpen());
+    }
+
+    @AfterClass
+    public void cleanUp() {
+        HTTPTransportContextHolder.getInstance().setMessageProcessor(previousProcessor);
+        PoolConfiguration.createPoolConfiguration(null);
+    }
+
+    private void sendRequests(int count) {
+        for (int i = 0; i < count; i++) {
+            int request = i;
+            CarbonCallback callback = response -> answers.add(request + ":" + (response.getMessagingException() != null
+                    ? "failed" : response.getProperty(Constants.HTTP_STATUS_CODE)));
+            targetHandler.addPendingRequest(callback, new DefaultCarbonMessage());
+        }
+        targetChannel.setPendingResponses(count);
+        targetChannel.setRequestWritten(true);
+    }
+
+    private static HttpResponse response(HttpResponseStatus status) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        return response;
+    }
+
+    /**
+     * Hands responses to the callback of their request, like the engine does.
+     */
+    private static class ResponseForwardingProcessor implements CarbonMessageProcessor {
+
+        @Override
+        public boolean receive(CarbonMessage carbonMessage, CarbonCallback callback) throws Exception {
+            callback.done(carbonMessage);
+            return false;
+        }
+
+        @Override
+        public void setTransportSender(TransportSender sender) {
+        }
+
+        @Override
+        public String getId() {
+            return "response-forwarding-processor";
+        }
+    }
+}